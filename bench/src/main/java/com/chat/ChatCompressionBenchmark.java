@@ -0,0 +1,226 @@
+package com.chat;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.BehaviorInterceptor;
+import akka.actor.typed.TypedActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import vis.EventSink;
+import vis.MyVisualizerClient;
+import vis.VisBehaviors;
+import vis.VisMetrics;
+import vis.VisSettings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the bytes sent per event, and the time spent encoding and
+ * compressing them, with and without batch compression, for both wire
+ * formats, while the chat room and its clients run: every operation lets
+ * every client post once, which the room publishes to every session and
+ * the sessions forward to their clients. Run with:
+ * <pre>
+ * sbt "bench/jmh:run ChatCompressionBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+/* one measured iteration, as the counters of events are added up over the iterations, which ratios must not be */
+@Measurement(iterations = 1, time = 10)
+@Fork(1)
+public class ChatCompressionBenchmark {
+
+    /**
+     * Sink which is always connected and discards whatever it is sent, as
+     * the sizes of the frames are taken from the metrics of the client
+     */
+    static final class DiscardingSink implements EventSink {
+
+        @Override
+        public void open(Runnable onConnect) {
+            onConnect.run();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean send(String event, byte[] frame) {
+            return true;
+        }
+    }
+
+    /**
+     * Counts every message a client receives, its envelope included
+     */
+    static final class Received<T> extends BehaviorInterceptor<T, T> {
+        private final AtomicLong received;
+
+        @SuppressWarnings("unchecked")
+        Received(AtomicLong received) {
+            super((Class<T>)Object.class);
+            this.received = received;
+        }
+
+        @Override
+        public Behavior<T> aroundReceive(TypedActorContext<T> ctx, T msg, ReceiveTarget<T> target) {
+            try {
+                return target.apply(ctx, msg);
+            }
+            finally {
+                this.received.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The chat room with every client holding a session
+     */
+    @State(Scope.Benchmark)
+    public static class Chat {
+        @Param({"json", "binary"})
+        public String wireFormat;
+
+        @Param({"false", "true"})
+        public boolean compression;
+
+        @Param({"50"})
+        public int clients;
+
+        final LongAdder events = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder encodeNanos = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final AtomicLong received = new AtomicLong();
+        final List<ActorRef<ChatRoom.SessionEvent>> refs = Collections.synchronizedList(new ArrayList<>());
+        MyVisualizerClient vis;
+        ActorSystem<Void> system;
+
+        @Setup
+        public void setUp() throws Exception {
+            /* the clients read their settings relative to the working directory */
+            if (!new File("src/main/resources/input.conf").isFile())
+                throw new IllegalStateException("Run the benchmark from the directory of the chat example");
+            /* the chat actors log every message they handle */
+            ((ch.qos.logback.classic.Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                    .setLevel(ch.qos.logback.classic.Level.WARN);
+
+            VisMetrics metrics = new VisMetrics() {
+                @Override
+                public void onEvent(String event) {
+                    events.increment();
+                }
+
+                @Override
+                public void onSerialized(long nanos) {
+                    encodeNanos.add(nanos);
+                }
+
+                @Override
+                public void onEmitted(long nanos, int size) {
+                    bytes.add(size);
+                }
+
+                @Override
+                public void onDropped(String event) {
+                    dropped.increment();
+                }
+            };
+            this.vis = new MyVisualizerClient(VisSettings.parse(String.format(
+                    "conf.vis { wire-format = %s, pipeline.enabled = true, metrics.jmx = false, compression.enabled = %b }",
+                    this.wireFormat, this.compression)), metrics, new DiscardingSink());
+            this.system = ActorSystem.create(VisBehaviors.traced(this.vis, Behaviors.setup(context -> {
+                ActorRef<ChatRoom.RoomCommand> room = VisBehaviors.ref(context.spawn(ChatRoom.create(this.vis), "chat-room"));
+                for (int i = 0; i < this.clients; i++) {
+                    ActorRef<ChatRoom.SessionEvent> client = VisBehaviors.ref(context.spawn(Behaviors.intercept(
+                            () -> new Received<>(this.received), Client.create(this.vis, "group")), "client-" + i));
+                    this.refs.add(client);
+                    room.tell(new ChatRoom.GetSession("session-" + i, client));
+                }
+                return Behaviors.<Void>empty();
+            })), "chat");
+            /* every client is granted its session, and posts a greeting the others receive */
+            await((long)this.clients * (1 + this.clients));
+        }
+
+        void await(long messages) {
+            while (this.received.get() < messages) LockSupport.parkNanos(10000);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            this.system.terminate();
+            this.system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            this.vis.close();
+        }
+    }
+
+    /**
+     * What the events of one iteration took to send
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sent {
+        private Chat chat;
+        private long events, bytes, encodeNanos, dropped;
+
+        @Setup(Level.Iteration)
+        public void start(Chat chat) {
+            this.chat = chat;
+            this.events = chat.events.sum();
+            this.bytes = chat.bytes.sum();
+            this.encodeNanos = chat.encodeNanos.sum();
+            this.dropped = chat.dropped.sum();
+        }
+
+        private long events() {
+            return Math.max(1, this.chat.events.sum() - this.events);
+        }
+
+        public double bytesPerEvent() {
+            return (double)(this.chat.bytes.sum() - this.bytes) / events();
+        }
+
+        public double encodeNanosPerEvent() {
+            return (double)(this.chat.encodeNanos.sum() - this.encodeNanos) / events();
+        }
+
+        public long droppedEvents() {
+            return this.chat.dropped.sum() - this.dropped;
+        }
+    }
+
+    @Benchmark
+    public void postFromEveryClient(Chat chat, Sent sent) {
+        /* every post reaches every client */
+        long expected = chat.received.get() + (long)chat.clients * (1 + chat.clients);
+        for (ActorRef<ChatRoom.SessionEvent> client : chat.refs) client.tell(new Client.PostSomething());
+        chat.await(expected);
+    }
+}
@@ -0,0 +1,12 @@
+package vis;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the interceptor benchmarks on as many actor threads as there are
+ * processors, all of them sharing one interceptor as the actors of a
+ * dispatcher do
+ */
+@Threads(Threads.MAX)
+public class ContendedBenchmark extends InterceptorBenchmark {
+}
@@ -0,0 +1,168 @@
+package vis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the interceptor calls an actor program makes, against
+ * a sink which discards the frames, so no server is needed. Every call is
+ * measured both with events emitted right away on the calling thread and
+ * with the pipeline, and with both wire formats. The subclasses run the
+ * benchmarks on one thread and contended across several threads. Run with
+ * the gc profiler to see the allocation rate as well:
+ * <pre>
+ * sbt "bench/jmh:run -prof gc"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class InterceptorBenchmark {
+    private static final int ACTORS = 1 << 16;
+    private static final String SENDER = "akka://bench/user/sender";
+    private static final String RECEIVER = "akka://bench/user/receiver";
+
+    /**
+     * Interceptor shared by all benchmark threads, with the actors registered up front
+     */
+    @State(Scope.Benchmark)
+    public static class Interceptor {
+        @Param({"direct", "pipeline"})
+        public String mode;
+
+        @Param({"json", "binary"})
+        public String wireFormat;
+
+        MyVisualizerClient vis;
+        HandlerProfiler profiler;
+        String[] names;
+        Message message;
+        Map<String, Object> smallState;
+        Map<String, Object> largeState;
+
+        @Setup
+        public void setUp() {
+            VisSettings settings = VisSettings.parse(String.format(
+                    "conf.vis { pipeline.enabled = %b, wire-format = %s, state-diff.enabled = false, metrics.jmx = false }",
+                    "pipeline".equals(this.mode), this.wireFormat));
+            this.vis = new MyVisualizerClient(settings, null, new NullSink());
+            this.profiler = new HandlerProfiler(10);
+
+            this.names = new String[ACTORS];
+            for (int i = 0; i < ACTORS; i++) {
+                this.names[i] = String.format("akka://bench/user/actor-%d", i);
+                this.vis.submit(this.names[i]);
+            }
+            long senderKey = this.vis.submit(SENDER);
+            this.vis.submit(RECEIVER);
+            this.message = () -> senderKey;
+
+            this.smallState = state(4);
+            this.largeState = state(256);
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.vis.close();
+        }
+
+        private static Map<String, Object> state(int properties) {
+            Map<String, Object> state = new HashMap<>();
+            for (int i = 0; i < properties; i++) state.put("property-" + i, i % 2 == 0 ? (Object)i : "value-" + i);
+            return state;
+        }
+    }
+
+    /**
+     * Position of one benchmark thread in the actor names, along with the
+     * message wrapper which an actor would keep for itself
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        MyVisualizerClient.MessageWrapper wrapper;
+        HandlerProfiler.ActorProfile profile;
+        private int next;
+
+        @Setup
+        public void setUp(Interceptor interceptor) {
+            this.wrapper = interceptor.vis.new MessageWrapper();
+            /* every thread stands for one actor, which only its own interceptor records into */
+            this.profile = interceptor.profiler.profile(Thread.currentThread().getName());
+            /* threads start at different actors, so they do not contend on the same names */
+            this.next = (int)(Thread.currentThread().getId() * 7919);
+        }
+
+        int next() {
+            return this.next++ & (ACTORS - 1);
+        }
+    }
+
+    /**
+     * Registers an actor again under a new key and emits its spawn event
+     */
+    @Benchmark
+    public long submit(Interceptor interceptor, Cursor cursor) {
+        return interceptor.vis.submit(interceptor.names[cursor.next()]);
+    }
+
+    @Benchmark
+    public long notifyReceipt(Interceptor interceptor, Cursor cursor) {
+        cursor.wrapper.notify(RECEIVER, interceptor.message);
+        return cursor.wrapper.getTimestampMicros();
+    }
+
+    /**
+     * Emits a receive event with the sender captured when the message was
+     * told, as traced actors do, instead of looking its key up
+     */
+    @Benchmark
+    public long receiveWithSender(Interceptor interceptor) {
+        return interceptor.vis.receive("Message", SENDER, RECEIVER);
+    }
+
+    /**
+     * Times a handler as the tracing interceptor does with profiling enabled
+     */
+    @Benchmark
+    public void profileHandler(Interceptor interceptor, Cursor cursor) {
+        long start = System.nanoTime();
+        cursor.profile.record(interceptor.message.getClass(), System.nanoTime() - start);
+    }
+
+    @Benchmark
+    public void setStateSmall(Interceptor interceptor, Cursor cursor) {
+        interceptor.vis.setState(interceptor.names[cursor.next()], interceptor.smallState);
+    }
+
+    @Benchmark
+    public void setStateLarge(Interceptor interceptor, Cursor cursor) {
+        interceptor.vis.setState(interceptor.names[cursor.next()], interceptor.largeState);
+    }
+
+    /**
+     * Emits the destroy event of an actor. The actor is registered again
+     * afterwards, without emitting anything, so every call finds it.
+     */
+    @Benchmark
+    public long destroy(Interceptor interceptor, Cursor cursor) {
+        String name = interceptor.names[cursor.next()];
+        interceptor.vis.destroy(name);
+        return interceptor.vis.getRegistry().register(name);
+    }
+}
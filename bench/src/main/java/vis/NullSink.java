@@ -0,0 +1,23 @@
+package vis;
+
+/**
+ * Sink which is always connected and discards whatever it is sent,
+ * so the benchmarks measure the interceptor rather than a network
+ */
+final class NullSink implements EventSink {
+
+    @Override
+    public void open(Runnable onConnect) {
+        onConnect.run();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean send(String event, byte[] frame) {
+        return true;
+    }
+}
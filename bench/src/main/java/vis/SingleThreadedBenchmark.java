@@ -0,0 +1,10 @@
+package vis;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the interceptor benchmarks on a single actor thread
+ */
+@Threads(1)
+public class SingleThreadedBenchmark extends InterceptorBenchmark {
+}
@@ -8,34 +8,32 @@ import akka.actor.typed.javadsl.Behaviors;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import vis.MyVisualizerClient;
+import vis.VisBehaviors;
 
 import java.io.File;
 import java.util.List;
 
 public class Main {
 
-    private static long key;
-
     public static Behavior<Void> create(MyVisualizerClient vis) {
         Config config = ConfigFactory.parseFile(new File("src/main/resources/input.conf"));
         int numClients = config.getInt("conf.clients");
         List<String> nodeTypes = config.getStringList("conf.groups");
 
-        return Behaviors.setup(context -> {
-            key = vis.submit(context.getSelf().path().name());
-            ActorRef<ChatRoom.RoomCommand> chatRoom = context.spawn(ChatRoom.create(vis), "chat-room");
+        return VisBehaviors.traced(vis, Behaviors.setup(context -> {
+            /* traced refs tell the chat room and the clients who sends them messages */
+            ActorRef<ChatRoom.RoomCommand> chatRoom = VisBehaviors.ref(context.spawn(ChatRoom.create(vis), "chat-room"));
             for (int i = 0; i < numClients; i++) {
                 String group = nodeTypes.get((int)(Math.random()*nodeTypes.size()));
-                ActorRef<ChatRoom.SessionEvent> client = context.spawn(Client.create(vis, group), String.format("client-%d", i));
-                chatRoom.tell(new ChatRoom.GetSession(key, String.format("session-%d", i), client));
+                ActorRef<ChatRoom.SessionEvent> client =
+                        VisBehaviors.ref(context.spawn(Client.create(vis, group), String.format("client-%d", i)));
+                chatRoom.tell(new ChatRoom.GetSession(String.format("session-%d", i), client));
             }
 
            return Behaviors.receive(Void.class)
-                   .onSignal(Terminated.class, sig -> {
-                       vis.destroy(context.getSelf().path().name());
-                       return Behaviors.stopped();
-                   }).build();
-        });
+                   .onSignal(Terminated.class, sig -> Behaviors.stopped())
+                   .build();
+        }));
     }
 
     public static void main(String[] args) {
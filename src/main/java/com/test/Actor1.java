@@ -9,7 +9,6 @@ import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
 import vis.MyVisualizerClient;
 
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,7 +17,6 @@ public class Actor1 extends AbstractBehavior<Actor1.Command> {
 
     public static class Increment implements Command {}
     public static class Display implements Command {}
-    public static class State implements Command {}
     public static class Greeting implements Command {
         public final String message;
         public Greeting(String message) {
@@ -34,24 +32,25 @@ public class Actor1 extends AbstractBehavior<Actor1.Command> {
     }
 
     private final MyVisualizerClient vis;
-    private int count;
+    /* read by the visualizer off the actor's thread */
+    private volatile int count;
     private final String nodeType;
+    private final String name;
 
 
     public static Behavior<Command> create(final int initialCount, final String nodeType, MyVisualizerClient vis) {
-        return Behaviors.setup(context -> Behaviors.withTimers(timer -> {
-            timer.startTimerWithFixedDelay(new Actor1.State(), Duration.ofMillis(3000));
-            return new Actor1(context, initialCount, nodeType, vis);
-        }));
+        return Behaviors.setup(context -> new Actor1(context, initialCount, nodeType, vis));
     }
 
     private Actor1(ActorContext<Command> context, int count, String nodeType, MyVisualizerClient vis) {
         super(context);
         this.vis = vis;
         this.nodeType = nodeType;
-        vis.submit(context.getSelf().path().toString()); /* submit actor ref to vis */
-        context.getLog().info(String.format("%s created%n", context.getSelf().path().toString()));
+        this.name = context.getSelf().path().toString();
         this.count = count;
+        vis.submit(this.name); /* submit actor ref to vis */
+        vis.registerState(this.name, this::getState); /* vis samples the state itself */
+        context.getLog().info(String.format("%s created%n", this.name));
     }
 
     public Receive<Command> createReceive() {
@@ -59,7 +58,6 @@ public class Actor1 extends AbstractBehavior<Actor1.Command> {
                 .onMessage(Increment.class, m -> this.onIncrement())
                 .onMessage(Display.class, m -> this.display())
                 .onMessage(PingActor.class, m -> this.pingActor(m.replyTo))
-                .onMessage(State.class, m -> this.syncState())
                 .onMessage(Greeting.class, m -> this.getGreet(m.message))
                 .onSignal(Terminated.class, sig -> {
                     vis.destroy(getContext().getSelf().path().toString()); /* tell vis to delete this actor node */
@@ -90,14 +88,9 @@ public class Actor1 extends AbstractBehavior<Actor1.Command> {
         return this;
     }
 
-    public Behavior<Command> syncState() {
-        this.vis.setState(this.getState());
-        return this;
-    }
-
     public Map<String, Object> getState() {
         Map<String, Object> myState = new HashMap<>();
-        myState.put("name", getContext().getSelf().path().toString());
+        myState.put("name", this.name);
         myState.put("count", this.count);
         myState.put("nodeType", this.nodeType);
         return myState;
@@ -7,74 +7,37 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
-import vis.Message;
 import vis.MyVisualizerClient;
+import vis.VisBehaviors;
 
 import java.time.Duration;
 
 public class Guardian extends AbstractBehavior<Guardian.Command> {
-    private final long key;
     private ActorRef<Actor2.Command> actor1;
     private ActorRef<Actor2.Command> actor2;
     private int index = 3;
     private final MyVisualizerClient vis;
-    private final MyVisualizerClient.MessageWrapper wrapper;
 
-    interface Command extends Message {}
+    interface Command {}
 
-    public static class Spawn implements Command {
-        public final long key;
-        public Spawn(long key) {
-            this.key = key;
-        }
-        public long getSenderKey() {
-            return this.key;
-        }
-    }
-    public static class InitiateMessageTransfer implements Command {
-        public final long key;
-        public InitiateMessageTransfer(long key) {
-            this.key = key;
-        }
-        public long getSenderKey() {
-            return this.key;
-        }
-    }
-    public static class ScheduleMessage implements Command {
-        public final long key;
-        public ScheduleMessage(long key) {
-            this.key = key;
-        }
-        public long getSenderKey() {
-            return this.key;
-        }
-    }
-    public static class Kill implements Command {
-        public final long key;
-        public Kill(long key) {
-            this.key = key;
-        }
-        public long getSenderKey() {
-            return this.key;
-        }
-    }
+    public static class Spawn implements Command {}
+    public static class InitiateMessageTransfer implements Command {}
+    public static class ScheduleMessage implements Command {}
+    public static class Kill implements Command {}
 
     public static Behavior<Command> create(MyVisualizerClient vis) {
-        return Behaviors.setup(context -> {
-            long key = vis.submit(context.getSelf().path().name());
-            context.getSelf().tell(new Spawn(key));
+        return VisBehaviors.traced(vis, key -> Behaviors.setup(context -> {
+            context.getSelf().tell(new Spawn());
             return Behaviors.withTimers(timer -> {
-                timer.startTimerWithFixedDelay(new ScheduleMessage(key), Duration.ofMillis(1000));
-                return new Guardian(key, context, vis);
+                timer.startTimerWithFixedDelay(new ScheduleMessage(), Duration.ofMillis(1000));
+                return new Guardian(context, vis);
             });
-        });
+        }));
     }
 
-    private Guardian(long key, ActorContext<Command> context, MyVisualizerClient vis) {
+    private Guardian(ActorContext<Command> context, MyVisualizerClient vis) {
         super(context);
         this.vis = vis;
-        this.key = key;
-        this.wrapper = vis.new MessageWrapper();
         context.getLog().info(String.format("%s created%n", context.getSelf().path().name()));
     }
 
@@ -85,76 +48,72 @@ public class Guardian extends AbstractBehavior<Guardian.Command> {
                 .onMessage(InitiateMessageTransfer.class, this::handleMessageTransfer)
                 .onMessage(ScheduleMessage.class, this::handleSchedule)
                 .onMessage(Kill.class, this::kill)
-                .onSignal(Terminated.class, sig -> {
-                    vis.destroy(getContext().getSelf().path().name()); /* tell vis to delete this actor node */
-                    return Behaviors.stopped();
-                }).build();
+                .onSignal(Terminated.class, sig -> Behaviors.stopped())
+                .build();
     }
 
     private Behavior<Command> handleSpawn(Spawn m) {
-        actor1 = getContext().spawn(Actor2.create(10, "control-node", this.vis), "Actor-1");
-        actor2 = getContext().spawn(Actor2.create(0, "data-node", this.vis), "Actor-2");
+        /* traced refs tell the actors that the messages come from the guardian */
+        actor1 = VisBehaviors.ref(getContext().spawn(Actor2.create(10, "control-node", this.vis), "Actor-1"));
+        actor2 = VisBehaviors.ref(getContext().spawn(Actor2.create(0, "data-node", this.vis), "Actor-2"));
         return this;
     }
 
     private Behavior<Command> handleMessageTransfer(InitiateMessageTransfer m) {
-        wrapper.notify(getContext().getSelf().path().name(), m);
-        actor1.tell(new Actor2.Increment(this.key));
-        actor2.tell(new Actor2.Increment(this.key));
+        actor1.tell(new Actor2.Increment());
+        actor2.tell(new Actor2.Increment());
         return this;
     }
 
     private Behavior<Command> handleSchedule(ScheduleMessage m) {
-        wrapper.notify(getContext().getSelf().path().name(), m);
         int random = (int)(Math.random()*3);
         int messageToSend = (int)(Math.random()*2);
 
         if (random == 0) {
             if (messageToSend == 0) {
                 getContext().getLog().info(String.format("Sending increment message to %s", actor1.path().name()));
-                actor1.tell(new Actor2.Increment(this.key));
+                actor1.tell(new Actor2.Increment());
             }
             else {
                 getContext().getLog().info(String.format("Sending display message to %s", actor1.path().name()));
-                actor1.tell(new Actor2.Display(this.key));
+                actor1.tell(new Actor2.Display());
             }
         }
         else if (random == 1){
             if (messageToSend == 0) {
                 getContext().getLog().info(String.format("Sending increment message to %s", actor2.path().name()));
-                actor2.tell(new Actor2.Increment(this.key));
+                actor2.tell(new Actor2.Increment());
             }
             else {
                 getContext().getLog().info(String.format("Sending display message to %s", actor2.path().name()));
-                actor2.tell(new Actor2.Display(this.key));
+                actor2.tell(new Actor2.Display());
             }
         }
         else {
             int nType = (int)(Math.random()*2);
             String nodeType = nType == 0 ? "control-node" : "data-node";
             ActorRef<Actor2.Command> actor3 =
-                    getContext().spawn(Actor2.create((int)(1+Math.random()*100), nodeType, vis), String.format("Actor-%d", this.index++));
+                    VisBehaviors.ref(getContext().spawn(Actor2.create((int)(1+Math.random()*100), nodeType, vis),
+                            String.format("Actor-%d", this.index++)));
 
             random = (int)(Math.random()*2);
             if (random == 0) {
                 getContext().getLog().info(String.format("Sending ping message to %s", actor1.path().name()));
-                actor1.tell(new Actor2.PingActor(this.key, actor3));
+                actor1.tell(new Actor2.PingActor(actor3));
             }
             else {
                 getContext().getLog().info(String.format("Sending ping message to %s", actor2.path().name()));
-                actor2.tell(new Actor2.PingActor(this.key, actor3));
+                actor2.tell(new Actor2.PingActor(actor3));
             }
         }
         return this;
     }
 
     public Behavior<Command> kill(Kill m) {
-        wrapper.notify(getContext().getSelf().path().name(), m);
         int random = (int)(Math.random()*2);
         ActorRef<Actor2.Command> actorToKill = random == 0 ? actor1 : actor2;
         getContext().getLog().info(String.format("%s killed", actorToKill.path().name()));
-        vis.destroy(actorToKill.path().name());
-        getContext().stop(actorToKill);
+        getContext().stop(VisBehaviors.unwrap(actorToKill)); /* the traced child tells vis to delete its node once stopped */
         return this;
     }
 }
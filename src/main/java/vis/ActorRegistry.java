@@ -0,0 +1,59 @@
+package vis;
+
+import java.util.Map;
+
+/**
+ * Lookup tables between the unique keys handed out to actor entities
+ * and their names. Implementations must be safe to use from every actor
+ * thread of the actor system at the same time.
+ */
+interface ActorRegistry {
+    /**
+     * Allocates a new unique key for the actor entity and stores it.
+     * If the name was registered already, its previous key is released.
+     * @param actorName Path name of the actor entity
+     * @return Newly allocated key
+     */
+    long register(String actorName);
+
+    /**
+     * Removes the actor entity and releases its key
+     * @param actorName Path name of the actor entity
+     */
+    void unregister(String actorName);
+
+    /**
+     * @return Name of the actor entity with this key, or null if it is unknown
+     */
+    String nameOf(long key);
+
+    /**
+     * @return Key of the actor entity with this name, or -1 if it is unknown
+     */
+    long keyOf(String actorName);
+
+    /**
+     * @return Number of registered actor entities
+     */
+    int size();
+
+    /**
+     * @return Read-only view (or snapshot) of the actor names to their keys
+     */
+    Map<String, Long> nameToKey();
+
+    /**
+     * Allocates a key without registering any actor entity
+     */
+    long nextKey();
+
+    /**
+     * @return Key which will be allocated next
+     */
+    long peekNextKey();
+
+    /**
+     * Changes the key which will be allocated next
+     */
+    void setNextKey(long key);
+}
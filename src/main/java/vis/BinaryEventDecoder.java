@@ -0,0 +1,254 @@
+package vis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the binary frames which are emitted by the interceptor when the
+ * binary wire format is enabled, resolving the dictionary ids back into
+ * actor names and message labels. One decoder has to be used per client
+ * connection and frames have to be decoded in the order they were received.
+ * Times handed to the listener are microseconds since the epoch.
+ */
+public final class BinaryEventDecoder {
+
+    /**
+     * Receives the decoded events of a frame in order
+     */
+    public interface Listener {
+        void onSpawn(long time, String name);
+
+        void onReceive(long time, String label, String from, String to);
+
+        /**
+         * @param state JSON object of property names to values
+         */
+        void onState(long time, String state);
+
+        void onDestroy(long time, String name);
+
+        /**
+         * @param count Number of messages passed along the edge since its previous delta
+         */
+        default void onEdgeDelta(long time, String label, String from, String to, long count) {
+        }
+
+        /**
+         * Receives the state of a named actor, which is handed over to
+         * onState unless overridden
+         * @param state JSON object of property names to values
+         */
+        default void onActorState(long time, String name, String state) {
+            onState(time, state);
+        }
+
+        /**
+         * @param patch JSON object holding the added or changed properties under
+         *              "set" and the names of the removed properties under "removed"
+         */
+        default void onStatePatch(long time, String name, String patch) {
+        }
+
+        /**
+         * @param count Number of messages whose latency was recorded since the previous event of the edge
+         * @param p50 Median latency in microseconds
+         * @param p99 99th percentile latency in microseconds
+         * @param max Maximum latency in microseconds
+         */
+        default void onEdgeLatency(long time, String label, String from, String to, long count,
+                                   long p50, long p99, long max) {
+        }
+
+        /**
+         * @param count Number of messages of the label the actor handled since the previous ranking
+         * @param total Time the actor spent handling them in microseconds
+         * @param max Longest time the actor spent handling one of them in microseconds
+         */
+        default void onHotActor(long time, String name, String label, long count, long total, long max) {
+        }
+
+        /**
+         * @param metrics Load of the dispatcher under "dispatcher", and lists of the messages
+         *                received, the messages processed and the backlog of every actor
+         *                which was busy since the previous sample by its name under "actors"
+         */
+        default void onMetrics(long time, Map<String, Object> metrics) {
+        }
+    }
+
+    private final Map<Long, String> names = new HashMap<>();
+    private final Map<Long, String> labels = new HashMap<>();
+    private long lastTime;
+    private long lastSeq;
+    private byte[] frame;
+    private int position;
+
+    /**
+     * Decodes one frame and hands every event in it over to the listener
+     * @param frame Frame as emitted by the interceptor
+     * @param listener Receives the decoded events
+     * @throws IllegalArgumentException If the frame is malformed or of an unknown version
+     */
+    public void decode(byte[] frame, Listener listener) {
+        this.frame = frame;
+        this.position = 0;
+        try {
+            int version = readByte();
+            if (version != BinaryEventEncoder.VERSION)
+                throw new IllegalArgumentException(String.format("Unsupported frame version %d", version));
+
+            while (this.position < frame.length) {
+                int tag = readByte();
+                switch (tag) {
+                    case BinaryEventEncoder.RESET:
+                        this.names.clear();
+                        this.labels.clear();
+                        this.lastTime = 0;
+                        this.lastSeq = 0;
+                        break;
+                    case BinaryEventEncoder.DEFINE_NAME: {
+                        long id = readVarLong();
+                        this.names.put(id, readString());
+                        break;
+                    }
+                    case BinaryEventEncoder.DEFINE_LABEL: {
+                        long id = readVarLong();
+                        this.labels.put(id, readString());
+                        break;
+                    }
+                    case BinaryEventEncoder.SPAWN:
+                        listener.onSpawn(readTime(), this.names.get(readVarLong()));
+                        break;
+                    case BinaryEventEncoder.RECEIVE: {
+                        long time = readTime();
+                        String label = this.labels.get(readVarLong());
+                        String from = this.names.get(readVarLong());
+                        String to = this.names.get(readVarLong());
+                        listener.onReceive(time, label, from, to);
+                        break;
+                    }
+                    case BinaryEventEncoder.STATE:
+                        listener.onState(readTime(), readString());
+                        break;
+                    case BinaryEventEncoder.EDGE_DELTA: {
+                        long time = readTime();
+                        String label = this.labels.get(readVarLong());
+                        String from = this.names.get(readVarLong());
+                        String to = this.names.get(readVarLong());
+                        listener.onEdgeDelta(time, label, from, to, readVarLong());
+                        break;
+                    }
+                    case BinaryEventEncoder.EDGE_LATENCY: {
+                        long time = readTime();
+                        String label = this.labels.get(readVarLong());
+                        String from = this.names.get(readVarLong());
+                        String to = this.names.get(readVarLong());
+                        long count = readVarLong(), p50 = readVarLong(), p99 = readVarLong();
+                        listener.onEdgeLatency(time, label, from, to, count, p50, p99, readVarLong());
+                        break;
+                    }
+                    case BinaryEventEncoder.HOT_ACTOR: {
+                        long time = readTime();
+                        String name = this.names.get(readVarLong());
+                        String label = this.labels.get(readVarLong());
+                        long count = readVarLong(), total = readVarLong();
+                        listener.onHotActor(time, name, label, count, total, readVarLong());
+                        break;
+                    }
+                    case BinaryEventEncoder.METRICS: {
+                        long time = readTime();
+                        listener.onMetrics(time, readMetrics());
+                        break;
+                    }
+                    case BinaryEventEncoder.STATE_PATCH:
+                    case BinaryEventEncoder.ACTOR_STATE: {
+                        long time = readTime();
+                        String name = this.names.get(readVarLong());
+                        if (tag == BinaryEventEncoder.STATE_PATCH) listener.onStatePatch(time, name, readString());
+                        else listener.onActorState(time, name, readString());
+                        break;
+                    }
+                    case BinaryEventEncoder.DESTROY:
+                        listener.onDestroy(readTime(), this.names.remove(readVarLong()));
+                        break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Unknown record tag %d", tag));
+                }
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Truncated frame", ex);
+        }
+        finally {
+            this.frame = null;
+        }
+    }
+
+    private Map<String, Object> readMetrics() {
+        Map<String, Object> dispatcher = new LinkedHashMap<>();
+        long parallelism = readVarLong();
+        if (parallelism > 0) {
+            dispatcher.put("threads", readVarLong());
+            dispatcher.put("active", readVarLong());
+            dispatcher.put("queued", readVarLong());
+            dispatcher.put("parallelism", parallelism);
+            dispatcher.put("utilization", readVarLong() / 1000.0);
+        }
+        Map<String, Object> actors = new LinkedHashMap<>();
+        for (long i = readVarLong(); i > 0; i--) {
+            String name = this.names.get(readVarLong());
+            actors.put(name, Arrays.asList(readVarLong(), readVarLong(), readVarLong()));
+        }
+        return MailboxSampler.toMap(dispatcher, actors);
+    }
+
+    /**
+     * @return Number of actor names currently known to the decoder
+     */
+    public int getNameCount() {
+        return this.names.size();
+    }
+
+    private int readByte() {
+        return this.frame[this.position++] & 0xFF;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+            if (shift > 63) throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+
+    /**
+     * @return Sequence number of the event which is being handed to the listener
+     */
+    public long getSequence() {
+        return this.lastSeq;
+    }
+
+    private long readTime() {
+        long zigzag = readVarLong();
+        this.lastTime += (zigzag >>> 1) ^ -(zigzag & 1);
+        zigzag = readVarLong();
+        this.lastSeq += (zigzag >>> 1) ^ -(zigzag & 1);
+        return this.lastTime;
+    }
+
+    private String readString() {
+        int length = (int)readVarLong();
+        if (length < 0 || this.position + length > this.frame.length)
+            throw new IllegalArgumentException("Truncated frame");
+        String value = new String(this.frame, this.position, length, StandardCharsets.UTF_8);
+        this.position += length;
+        return value;
+    }
+}
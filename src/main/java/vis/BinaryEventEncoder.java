@@ -0,0 +1,338 @@
+package vis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes events into a compact binary frame format. Actor names and message
+ * labels are sent only once as dictionary records and are referred to by
+ * varint ids afterwards, while timestamps (in microseconds) and sequence
+ * numbers are sent as zig-zag encoded deltas to the previous event of the
+ * stream. Every "time delta" below is followed by the sequence delta. A frame is a version byte followed by
+ * a sequence of records, each of which starts with a one byte tag:
+ * <pre>
+ * RESET        (clear both dictionaries and the time and sequence bases)
+ * DEFINE_NAME  id, length, UTF-8 bytes
+ * DEFINE_LABEL id, length, UTF-8 bytes
+ * SPAWN        time delta, name id
+ * RECEIVE      time delta, label id, sender name id, receiver name id
+ * STATE        time delta, length, UTF-8 JSON bytes of the state map
+ * DESTROY      time delta, name id (the id is released afterwards)
+ * EDGE_DELTA   time delta, label id, sender name id, receiver name id, message count
+ * STATE_PATCH  time delta, name id, length, UTF-8 JSON bytes of the {set, removed} patch
+ * ACTOR_STATE  time delta, name id, length, UTF-8 JSON bytes of the state map
+ * EDGE_LATENCY time delta, label id, sender name id, receiver name id, message count,
+ *              median, 99th percentile and maximum latency in microseconds
+ * HOT_ACTOR    time delta, name id, label id, message count,
+ *              total and maximum handling time in microseconds
+ * METRICS      time delta, dispatcher parallelism (0 if unknown, in which case the
+ *              next four are left out), threads, active threads, queued tasks,
+ *              utilization in permille, number of actors, and for every actor
+ *              its name id, messages received, messages processed and backlog
+ * </pre>
+ * The dictionaries live as long as the connection, so frames must be decoded
+ * in the order in which they were encoded. {@link BinaryEventDecoder} reads
+ * this format.
+ */
+final class BinaryEventEncoder implements EventEncoder {
+    static final int VERSION = 2;
+    static final int RESET = 0x00;
+    static final int DEFINE_NAME = 0x01;
+    static final int DEFINE_LABEL = 0x02;
+    static final int SPAWN = 0x10;
+    static final int RECEIVE = 0x11;
+    static final int STATE = 0x12;
+    static final int DESTROY = 0x13;
+    static final int EDGE_DELTA = 0x14;
+    static final int STATE_PATCH = 0x15;
+    static final int ACTOR_STATE = 0x16;
+    static final int EDGE_LATENCY = 0x17;
+    static final int HOT_ACTOR = 0x18;
+    static final int METRICS = 0x19;
+
+    private final EventSerializer stateSerializer;
+    private final ReusableByteBuffer out = new ReusableByteBuffer();
+    private final Map<String, Integer> names = new HashMap<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private int nextNameId;
+    private int nextLabelId;
+    private long lastTime;
+    private long lastSeq;
+    private int batched;
+    private boolean inBatch;
+    private volatile boolean resetRequested = true;
+    /* whether the current frame resets or defines anything, and the bases it started from */
+    private boolean frameDefines;
+    private long frameTime;
+    private long frameSeq;
+
+    BinaryEventEncoder() {
+        this(new EventSerializer());
+    }
+
+    /**
+     * @param stateSerializer Serializer used for the JSON body of state records
+     */
+    BinaryEventEncoder(EventSerializer stateSerializer) {
+        this.stateSerializer = stateSerializer;
+    }
+
+    @Override
+    public byte[] serialize(EventSlot event) throws IOException {
+        beginFrame();
+        try {
+            writeRecord(event);
+        }
+        catch(IOException | RuntimeException ex) {
+            discard();
+            throw ex;
+        }
+        return takeBytes();
+    }
+
+    @Override
+    public String getSocketEvent(EventType type) {
+        return "binaryEvent";
+    }
+
+    @Override
+    public void beginBatch() {
+        beginFrame();
+        this.batched = 0;
+        this.inBatch = true;
+    }
+
+    @Override
+    public void writeBatchEntry(EventSlot slot) throws IOException {
+        writeRecord(slot);
+        this.batched++;
+    }
+
+    @Override
+    public boolean inBatch() {
+        return this.inBatch;
+    }
+
+    @Override
+    public int batched() {
+        return this.batched;
+    }
+
+    @Override
+    public byte[] endBatch() {
+        this.batched = 0;
+        this.inBatch = false;
+        return takeBytes();
+    }
+
+    @Override
+    public String getBatchEvent() {
+        return "binaryBatch";
+    }
+
+    /**
+     * The time and sequence bases are taken back. If the discarded frame
+     * carried a reset or dictionary records, the next frame starts over
+     * with a reset record, as the receiving end never saw them.
+     */
+    @Override
+    public void discard() {
+        this.out.reset();
+        this.batched = 0;
+        this.inBatch = false;
+        this.lastTime = this.frameTime;
+        this.lastSeq = this.frameSeq;
+        if (this.frameDefines) this.resetRequested = true;
+        this.frameDefines = false;
+    }
+
+    /**
+     * The receiving end may have lost its dictionaries, so the next frame
+     * starts over with a reset record and redefines every name and label
+     */
+    @Override
+    public void onConnect() {
+        this.resetRequested = true;
+    }
+
+    private void beginFrame() {
+        this.out.write(VERSION);
+        if (this.resetRequested) {
+            this.resetRequested = false;
+            this.names.clear();
+            this.labels.clear();
+            this.nextNameId = 0;
+            this.nextLabelId = 0;
+            this.lastTime = 0;
+            this.lastSeq = 0;
+            this.out.write(RESET);
+            this.frameDefines = true;
+        }
+        this.frameTime = this.lastTime;
+        this.frameSeq = this.lastSeq;
+    }
+
+    /**
+     * Writes one event record, preceded by the dictionary records of
+     * names and labels which have not been sent before. Nothing is written
+     * if the state map cannot be serialized.
+     */
+    private void writeRecord(EventSlot event) throws IOException {
+        switch (event.type) {
+            case SPAWN:
+            case DESTROY: {
+                int id = nameId(event.name);
+                this.out.write(event.type == EventType.SPAWN ? SPAWN : DESTROY);
+                writeTime(event.time, event.seq);
+                this.out.writeVarLong(id);
+                if (event.type == EventType.DESTROY) this.names.remove(event.name == null ? "" : event.name);
+                break;
+            }
+            case RECEIVE:
+            case EDGE_DELTA:
+            case EDGE_LATENCY: {
+                int labelId = labelId(event.label), fromId = nameId(event.from), toId = nameId(event.to);
+                this.out.write(event.type == EventType.RECEIVE ? RECEIVE :
+                        event.type == EventType.EDGE_DELTA ? EDGE_DELTA : EDGE_LATENCY);
+                writeTime(event.time, event.seq);
+                this.out.writeVarLong(labelId);
+                this.out.writeVarLong(fromId);
+                this.out.writeVarLong(toId);
+                if (event.type != EventType.RECEIVE) this.out.writeVarLong(event.count);
+                if (event.type == EventType.EDGE_LATENCY) {
+                    this.out.writeVarLong(micros(event.state, "p50"));
+                    this.out.writeVarLong(micros(event.state, "p99"));
+                    this.out.writeVarLong(micros(event.state, "max"));
+                }
+                break;
+            }
+            case HOT_ACTOR: {
+                int id = nameId(event.name), labelId = labelId(event.label);
+                this.out.write(HOT_ACTOR);
+                writeTime(event.time, event.seq);
+                this.out.writeVarLong(id);
+                this.out.writeVarLong(labelId);
+                this.out.writeVarLong(event.count);
+                this.out.writeVarLong(micros(event.state, "total"));
+                this.out.writeVarLong(micros(event.state, "max"));
+                break;
+            }
+            case METRICS:
+                writeMetrics(event);
+                break;
+            case STATE_PATCH:
+            case STATE: {
+                if (event.type == EventType.STATE && event.name == null) {
+                    writeState(event);
+                    break;
+                }
+                byte[] json = event.type == EventType.STATE ?
+                        this.stateSerializer.serializeState(event.state) : this.stateSerializer.serializePatch(event.state);
+                if (this.stateSerializer.replaceTruncatedPatch(event)) json = this.stateSerializer.serializeState(event.state);
+                int id = nameId(event.name);
+                this.out.write(event.type == EventType.STATE ? ACTOR_STATE : STATE_PATCH);
+                writeTime(event.time, event.seq);
+                this.out.writeVarLong(id);
+                this.out.writeVarLong(json.length);
+                this.out.write(json, 0, json.length);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported event type %s", event.type));
+        }
+    }
+
+    private static long micros(Map<String, Object> times, String key) {
+        Object value = times == null ? null : times.get(key);
+        return value instanceof Number ? Math.max(0, ((Number)value).longValue()) : 0;
+    }
+
+    /**
+     * Writes the load of the dispatcher and the counts of every actor,
+     * after defining the names of the actors which were not sent before
+     */
+    private void writeMetrics(EventSlot event) {
+        Map<?, ?> dispatcher = MailboxSampler.dispatcherOf(event.state), actors = MailboxSampler.actorsOf(event.state);
+        for (Object name : actors.keySet()) nameId(String.valueOf(name));
+        this.out.write(METRICS);
+        writeTime(event.time, event.seq);
+        long parallelism = count(dispatcher.get("parallelism"));
+        this.out.writeVarLong(parallelism);
+        if (parallelism > 0) {
+            this.out.writeVarLong(count(dispatcher.get("threads")));
+            this.out.writeVarLong(count(dispatcher.get("active")));
+            this.out.writeVarLong(count(dispatcher.get("queued")));
+            Object utilization = dispatcher.get("utilization");
+            this.out.writeVarLong(utilization instanceof Number ? Math.round(((Number)utilization).doubleValue() * 1000) : 0);
+        }
+        this.out.writeVarLong(actors.size());
+        for (Map.Entry<?, ?> entry : actors.entrySet()) {
+            this.out.writeVarLong(nameId(String.valueOf(entry.getKey())));
+            Collection<?> counts = (Collection<?>)entry.getValue();
+            for (Object value : counts) this.out.writeVarLong(count(value));
+        }
+    }
+
+    private static long count(Object value) {
+        return value instanceof Number ? Math.max(0, ((Number)value).longValue()) : 0;
+    }
+
+    /**
+     * Writes the state of an unnamed actor
+     */
+    private void writeState(EventSlot event) throws IOException {
+        byte[] json = this.stateSerializer.serializeState(event.state);
+        this.out.write(STATE);
+        writeTime(event.time, event.seq);
+        this.out.writeVarLong(json.length);
+        this.out.write(json, 0, json.length);
+    }
+
+    private void writeTime(long time, long seq) {
+        long delta = time - this.lastTime;
+        this.lastTime = time;
+        this.out.writeVarLong((delta << 1) ^ (delta >> 63));
+        delta = seq - this.lastSeq;
+        this.lastSeq = seq;
+        this.out.writeVarLong((delta << 1) ^ (delta >> 63));
+    }
+
+    private int nameId(String name) {
+        if (name == null) name = "";
+        Integer id = this.names.get(name);
+        if (id != null) return id;
+        int newId = this.nextNameId++;
+        this.names.put(name, newId);
+        writeDefinition(DEFINE_NAME, newId, name);
+        return newId;
+    }
+
+    private int labelId(String label) {
+        if (label == null) label = "";
+        Integer id = this.labels.get(label);
+        if (id != null) return id;
+        int newId = this.nextLabelId++;
+        this.labels.put(label, newId);
+        writeDefinition(DEFINE_LABEL, newId, label);
+        return newId;
+    }
+
+    private void writeDefinition(int tag, int id, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        this.frameDefines = true;
+        this.out.write(tag);
+        this.out.writeVarLong(id);
+        this.out.writeVarLong(utf8.length);
+        this.out.write(utf8, 0, utf8.length);
+    }
+
+    private byte[] takeBytes() {
+        byte[] bytes = this.out.toByteArray();
+        this.out.reset();
+        this.frameDefines = false;
+        return bytes;
+    }
+}
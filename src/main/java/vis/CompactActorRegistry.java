@@ -0,0 +1,420 @@
+package vis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Low-footprint actor registry for actor systems with millions of actors.
+ * Instead of boxing every key into two hash map entries, it keeps
+ * <ul>
+ *     <li>a dense table of entries (key, name offset, name length, name hash) in primitive arrays,
+ *     whose free entries are chained through their unused name offsets</li>
+ *     <li>the UTF-8 bytes of all names in a single byte arena, which is compacted once half of it is garbage</li>
+ *     <li>an open-addressing key to entry table and an open-addressing name hash to entry index,
+ *     both with linear probing and backward-shift deletion</li>
+ * </ul>
+ * This takes well under half the memory of a pair of hash maps, at the cost
+ * of decoding a new String whenever a name is looked up by its key.
+ * Lookups use optimistic reads of a stamped lock, so they only fall back to
+ * locking while an actor is being registered or removed at the same time.
+ */
+final class CompactActorRegistry implements ActorRegistry {
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_ARENA_SIZE = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private final AtomicLong nextKey = new AtomicLong();
+
+    /* entries, a free entry has a name length of EMPTY and its offset points to the next free entry */
+    private long[] entryKeys = new long[INITIAL_CAPACITY];
+    private int[] entryOffsets = new int[INITIAL_CAPACITY];
+    private int[] entryLengths = new int[INITIAL_CAPACITY];
+    private int[] entryHashes = new int[INITIAL_CAPACITY];
+    private int entryCount;
+    private int freeEntry = EMPTY;
+    private int size;
+
+    /* UTF-8 bytes of the names */
+    private byte[] arena = new byte[INITIAL_ARENA_SIZE];
+    private int arenaSize;
+    private int arenaGarbage;
+
+    /* key -> entry and name -> entry tables, sharing one power of two capacity */
+    private int[] keyTable = emptyTable(2*INITIAL_CAPACITY);
+    private int[] nameTable = emptyTable(2*INITIAL_CAPACITY);
+
+    @Override
+    public long register(String actorName) {
+        long key = this.nextKey.getAndIncrement();
+        byte[] utf8 = actorName.getBytes(StandardCharsets.UTF_8);
+        int hash = actorName.hashCode();
+
+        long stamp = this.lock.writeLock();
+        try {
+            int existing = findName(this.nameTable, this.entryOffsets, this.entryLengths, this.entryHashes,
+                    this.arena, actorName, hash);
+            if (existing != EMPTY) removeEntry(existing);
+
+            ensureCapacity();
+            int entry = allocateEntry();
+            this.entryKeys[entry] = key;
+            this.entryOffsets[entry] = appendName(utf8);
+            this.entryLengths[entry] = utf8.length;
+            this.entryHashes[entry] = hash;
+            insertKey(entry);
+            insertName(entry);
+            this.size++;
+        }
+        finally {
+            this.lock.unlockWrite(stamp);
+        }
+        return key;
+    }
+
+    @Override
+    public void unregister(String actorName) {
+        int hash = actorName.hashCode();
+        long stamp = this.lock.writeLock();
+        try {
+            int entry = findName(this.nameTable, this.entryOffsets, this.entryLengths, this.entryHashes,
+                    this.arena, actorName, hash);
+            if (entry != EMPTY) removeEntry(entry);
+        }
+        finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public String nameOf(long key) {
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                String name = readName(key);
+                if (this.lock.validate(stamp)) return name;
+            }
+            catch(RuntimeException ex) {
+                /* torn read of a concurrent modification, retried under the lock */
+            }
+        }
+        stamp = this.lock.readLock();
+        try {
+            return readName(key);
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long keyOf(String actorName) {
+        int hash = actorName.hashCode();
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long key = readKey(actorName, hash);
+                if (this.lock.validate(stamp)) return key;
+            }
+            catch(RuntimeException ex) {
+                /* torn read of a concurrent modification, retried under the lock */
+            }
+        }
+        stamp = this.lock.readLock();
+        try {
+            return readKey(actorName, hash);
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = this.lock.tryOptimisticRead();
+        int size = this.size;
+        if (this.lock.validate(stamp)) return size;
+        stamp = this.lock.readLock();
+        try {
+            return this.size;
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Snapshot of all registered names and their keys
+     */
+    @Override
+    public Map<String, Long> nameToKey() {
+        long stamp = this.lock.readLock();
+        try {
+            Map<String, Long> snapshot = new HashMap<>(this.size*2);
+            for (int entry = 0; entry < this.entryCount; entry++) {
+                if (this.entryLengths[entry] == EMPTY) continue;
+                snapshot.put(decode(this.arena, this.entryOffsets[entry], this.entryLengths[entry]),
+                        this.entryKeys[entry]);
+            }
+            return Collections.unmodifiableMap(snapshot);
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long nextKey() {
+        return this.nextKey.getAndIncrement();
+    }
+
+    @Override
+    public long peekNextKey() {
+        return this.nextKey.get();
+    }
+
+    @Override
+    public void setNextKey(long key) {
+        this.nextKey.set(key);
+    }
+
+    /**
+     * @return Approximate number of bytes retained by the registry's arrays
+     */
+    long footprint() {
+        long stamp = this.lock.readLock();
+        try {
+            return 8L*this.entryKeys.length + 4L*(this.entryOffsets.length + this.entryLengths.length
+                    + this.entryHashes.length) + this.arena.length
+                    + 4L*(this.keyTable.length + this.nameTable.length);
+        }
+        finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * Read paths, which must tolerate running against a concurrent modification.
+     * Every array is read into a local once and probing is bounded by the table size.
+     */
+
+    private String readName(long key) {
+        int[] keyTable = this.keyTable;
+        long[] entryKeys = this.entryKeys;
+        int mask = keyTable.length - 1;
+        int index = keyIndex(key, mask);
+        for (int probes = 0; probes <= mask; probes++, index = (index+1) & mask) {
+            int entry = keyTable[index];
+            if (entry == EMPTY) return null;
+            if (entryKeys[entry] == key) {
+                return decode(this.arena, this.entryOffsets[entry], this.entryLengths[entry]);
+            }
+        }
+        return null;
+    }
+
+    private long readKey(String actorName, int hash) {
+        long[] entryKeys = this.entryKeys;
+        int entry = findName(this.nameTable, this.entryOffsets, this.entryLengths, this.entryHashes,
+                this.arena, actorName, hash);
+        return entry == EMPTY ? -1 : entryKeys[entry];
+    }
+
+    private static int findName(int[] nameTable, int[] offsets, int[] lengths, int[] hashes, byte[] arena,
+                                String name, int hash) {
+        int mask = nameTable.length - 1;
+        int index = hashIndex(hash, mask);
+        for (int probes = 0; probes <= mask; probes++, index = (index+1) & mask) {
+            int entry = nameTable[index];
+            if (entry == EMPTY) return EMPTY;
+            if (hashes[entry] == hash && equalsName(arena, offsets[entry], lengths[entry], name)) return entry;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Compares a name in the arena to a String without encoding the String,
+     * unless it contains non-ASCII characters
+     */
+    private static boolean equalsName(byte[] arena, int offset, int length, String name) {
+        int chars = name.length();
+        if (chars > length) return false;
+        if (chars == length) {
+            boolean ascii = true;
+            for (int i = 0; i < chars; i++) {
+                char c = name.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+                if (arena[offset+i] != (byte)c) return false;
+            }
+            if (ascii) return true;
+        }
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (arena[offset+i] != utf8[i]) return false;
+        }
+        return true;
+    }
+
+    private static String decode(byte[] arena, int offset, int length) {
+        return new String(arena, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Write paths, only called while holding the write lock
+     */
+
+    private int allocateEntry() {
+        if (this.freeEntry != EMPTY) {
+            int entry = this.freeEntry;
+            this.freeEntry = this.entryOffsets[entry];
+            return entry;
+        }
+        if (this.entryCount == this.entryKeys.length) {
+            int capacity = this.entryKeys.length << 1;
+            this.entryKeys = Arrays.copyOf(this.entryKeys, capacity);
+            this.entryOffsets = Arrays.copyOf(this.entryOffsets, capacity);
+            this.entryLengths = Arrays.copyOf(this.entryLengths, capacity);
+            this.entryHashes = Arrays.copyOf(this.entryHashes, capacity);
+        }
+        return this.entryCount++;
+    }
+
+    private void removeEntry(int entry) {
+        deleteKey(entry);
+        deleteName(entry);
+        this.arenaGarbage += this.entryLengths[entry];
+        this.entryLengths[entry] = EMPTY;
+        this.entryOffsets[entry] = this.freeEntry;
+        this.freeEntry = entry;
+        this.size--;
+        if (this.arenaGarbage > INITIAL_ARENA_SIZE && this.arenaGarbage*2 > this.arenaSize) compactArena();
+    }
+
+    private int appendName(byte[] utf8) {
+        if (this.arenaSize + utf8.length > this.arena.length)
+            this.arena = Arrays.copyOf(this.arena, Math.max(this.arenaSize + utf8.length, this.arena.length << 1));
+        int offset = this.arenaSize;
+        System.arraycopy(utf8, 0, this.arena, offset, utf8.length);
+        this.arenaSize += utf8.length;
+        return offset;
+    }
+
+    /**
+     * Copies the names of all live entries into a new arena without gaps
+     */
+    private void compactArena() {
+        int live = this.arenaSize - this.arenaGarbage;
+        byte[] compacted = new byte[Math.max(INITIAL_ARENA_SIZE, live*2)];
+        int size = 0;
+        for (int entry = 0; entry < this.entryCount; entry++) {
+            int length = this.entryLengths[entry];
+            if (length == EMPTY) continue;
+            System.arraycopy(this.arena, this.entryOffsets[entry], compacted, size, length);
+            this.entryOffsets[entry] = size;
+            size += length;
+        }
+        this.arena = compacted;
+        this.arenaSize = size;
+        this.arenaGarbage = 0;
+    }
+
+    /**
+     * Keeps the load factor of both tables at or below one half
+     */
+    private void ensureCapacity() {
+        if ((this.size+1)*2 <= this.keyTable.length) return;
+        int capacity = this.keyTable.length << 1;
+        this.keyTable = emptyTable(capacity);
+        this.nameTable = emptyTable(capacity);
+        for (int entry = 0; entry < this.entryCount; entry++) {
+            if (this.entryLengths[entry] == EMPTY) continue;
+            insertKey(entry);
+            insertName(entry);
+        }
+    }
+
+    private void insertKey(int entry) {
+        int mask = this.keyTable.length - 1;
+        int index = keyIndex(this.entryKeys[entry], mask);
+        while (this.keyTable[index] != EMPTY) index = (index+1) & mask;
+        this.keyTable[index] = entry;
+    }
+
+    private void insertName(int entry) {
+        int mask = this.nameTable.length - 1;
+        int index = hashIndex(this.entryHashes[entry], mask);
+        while (this.nameTable[index] != EMPTY) index = (index+1) & mask;
+        this.nameTable[index] = entry;
+    }
+
+    private void deleteKey(int entry) {
+        int mask = this.keyTable.length - 1;
+        int index = keyIndex(this.entryKeys[entry], mask);
+        while (this.keyTable[index] != EMPTY && this.keyTable[index] != entry) index = (index+1) & mask;
+        if (this.keyTable[index] == EMPTY) return;
+
+        /* shift the following entries of the cluster back instead of leaving a tombstone */
+        int hole = index;
+        for (int next = (hole+1) & mask; this.keyTable[next] != EMPTY; next = (next+1) & mask) {
+            int home = keyIndex(this.entryKeys[this.keyTable[next]], mask);
+            if (canMove(home, hole, next)) {
+                this.keyTable[hole] = this.keyTable[next];
+                hole = next;
+            }
+        }
+        this.keyTable[hole] = EMPTY;
+    }
+
+    private void deleteName(int entry) {
+        int mask = this.nameTable.length - 1;
+        int index = hashIndex(this.entryHashes[entry], mask);
+        while (this.nameTable[index] != EMPTY && this.nameTable[index] != entry) index = (index+1) & mask;
+        if (this.nameTable[index] == EMPTY) return;
+
+        int hole = index;
+        for (int next = (hole+1) & mask; this.nameTable[next] != EMPTY; next = (next+1) & mask) {
+            int home = hashIndex(this.entryHashes[this.nameTable[next]], mask);
+            if (canMove(home, hole, next)) {
+                this.nameTable[hole] = this.nameTable[next];
+                hole = next;
+            }
+        }
+        this.nameTable[hole] = EMPTY;
+    }
+
+    /**
+     * An element at index next, whose home slot is home, may fill the hole
+     * unless its home lies cyclically within (hole, next]
+     */
+    private static boolean canMove(int home, int hole, int next) {
+        if (hole <= next) return home <= hole || home > next;
+        return home <= hole && home > next;
+    }
+
+    private static int keyIndex(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    private static int hashIndex(int hash, int mask) {
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static int[] emptyTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
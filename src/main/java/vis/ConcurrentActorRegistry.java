@@ -0,0 +1,69 @@
+package vis;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Actor registry which allocates keys with an atomic counter and keeps
+ * both directions of the lookup in concurrent hash maps, so submitting,
+ * resolving and destroying actors never takes a global lock.
+ */
+final class ConcurrentActorRegistry implements ActorRegistry {
+    private final AtomicLong key = new AtomicLong();
+    private final ConcurrentHashMap<Long, String> keyRef = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> invertedKeyRef = new ConcurrentHashMap<>();
+
+    @Override
+    public long register(String actorName) {
+        long newKey = this.key.getAndIncrement();
+        /* publish key to name first, so a message carrying the new key can always be resolved */
+        this.keyRef.put(newKey, actorName);
+        Long oldKey = this.invertedKeyRef.put(actorName, newKey);
+        if (oldKey != null) this.keyRef.remove(oldKey, actorName);
+        return newKey;
+    }
+
+    @Override
+    public void unregister(String actorName) {
+        Long oldKey = this.invertedKeyRef.remove(actorName);
+        if (oldKey != null) this.keyRef.remove(oldKey, actorName);
+    }
+
+    @Override
+    public String nameOf(long key) {
+        return this.keyRef.get(key);
+    }
+
+    @Override
+    public long keyOf(String actorName) {
+        Long key = this.invertedKeyRef.get(actorName);
+        return key == null ? -1 : key;
+    }
+
+    @Override
+    public int size() {
+        return this.invertedKeyRef.size();
+    }
+
+    @Override
+    public Map<String, Long> nameToKey() {
+        return Collections.unmodifiableMap(this.invertedKeyRef);
+    }
+
+    @Override
+    public long nextKey() {
+        return this.key.getAndIncrement();
+    }
+
+    @Override
+    public long peekNextKey() {
+        return this.key.get();
+    }
+
+    @Override
+    public void setNextKey(long key) {
+        this.key.set(key);
+    }
+}
@@ -0,0 +1,102 @@
+package vis;
+
+import java.util.Arrays;
+
+/**
+ * Counts the messages passed along every (sender, receiver, label) edge,
+ * so that one delta per changed edge can be emitted periodically instead
+ * of one receive event per message. The counters live in an
+ * {@link EdgeTable}, whose stripes each have their own lock, and an edge
+ * only allocates when it is first seen.
+ */
+final class EdgeAggregator {
+
+    /**
+     * Receives the edges which changed since the previous drain
+     */
+    interface EdgeConsumer {
+        void accept(String from, String to, String label, long count);
+    }
+
+    private static final int INITIAL_BUFFER_CAPACITY = 16;
+
+    /**
+     * Messages passed along an edge since the previous drain
+     */
+    private static final class Count {
+        long value;
+    }
+
+    /**
+     * Collects the drained edges, so that they are handed over to the
+     * consumer without holding the lock of any stripe
+     */
+    private static final class DrainBuffer {
+        private String[] from = new String[INITIAL_BUFFER_CAPACITY];
+        private String[] to = new String[INITIAL_BUFFER_CAPACITY];
+        private String[] label = new String[INITIAL_BUFFER_CAPACITY];
+        private long[] counts = new long[INITIAL_BUFFER_CAPACITY];
+        private int size;
+
+        void add(String from, String to, String label, long count) {
+            if (this.size == this.from.length) {
+                int capacity = this.size << 1;
+                this.from = Arrays.copyOf(this.from, capacity);
+                this.to = Arrays.copyOf(this.to, capacity);
+                this.label = Arrays.copyOf(this.label, capacity);
+                this.counts = Arrays.copyOf(this.counts, capacity);
+            }
+            this.from[this.size] = from;
+            this.to[this.size] = to;
+            this.label[this.size] = label;
+            this.counts[this.size++] = count;
+        }
+
+        int flushTo(EdgeConsumer consumer) {
+            int size = this.size;
+            for (int i = 0; i < size; i++) {
+                consumer.accept(this.from[i], this.to[i], this.label[i], this.counts[i]);
+                this.from[i] = this.to[i] = this.label[i] = null;
+            }
+            this.size = 0;
+            return size;
+        }
+    }
+
+    private final EdgeTable<Count> edges;
+    private final DrainBuffer buffer = new DrainBuffer();
+    private final EdgeTable.Visitor<Count> drainer = (from, to, label, count) -> {
+        this.buffer.add(from, to, label, count.value);
+        count.value = 0;
+    };
+
+    EdgeAggregator() {
+        this(Runtime.getRuntime().availableProcessors()*4);
+    }
+
+    /**
+     * @param concurrency Expected number of concurrently counting threads,
+     *                    rounded up to a power of two stripes
+     */
+    EdgeAggregator(int concurrency) {
+        this.edges = new EdgeTable<>(concurrency, Integer.MAX_VALUE, Count::new,
+                count -> count.value == 0, (count, messages) -> count.value += messages);
+    }
+
+    /**
+     * Counts one message passed along the edge
+     */
+    void increment(String from, String to, String label) {
+        this.edges.update(from, to, label, 1);
+    }
+
+    /**
+     * Hands every edge which changed since the previous drain over to the
+     * consumer, along with the number of messages passed since then
+     * @return Number of changed edges
+     */
+    synchronized int drain(EdgeConsumer consumer) {
+        this.edges.drain(this.drainer);
+        return this.buffer.flushTo(consumer);
+    }
+}
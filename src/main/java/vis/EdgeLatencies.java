@@ -0,0 +1,116 @@
+package vis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a histogram of the latencies of the messages passed along every
+ * (sender, receiver, label) edge, i.e. the time from the send of a message
+ * to its receipt or handling, so that the percentiles of every edge can be
+ * emitted periodically. The edges live in an {@link EdgeTable}, like the
+ * counts of {@link EdgeAggregator}, and every edge has a histogram of a
+ * fixed size, which is only allocated when the edge is first seen.
+ * Once the most edges are tracked, the latencies of new edges are dropped.
+ */
+final class EdgeLatencies {
+
+    /**
+     * Receives the latencies of the edges which passed messages since the previous drain
+     */
+    interface LatencyConsumer {
+        /**
+         * @param count Number of latencies recorded since the previous drain
+         * @param p50 Median latency in microseconds
+         * @param p99 99th percentile latency in microseconds
+         * @param max Maximum latency in microseconds
+         */
+        void accept(String from, String to, String label, long count, long p50, long p99, long max);
+    }
+
+    /* latencies of an hour and beyond are all the same to the visualizer */
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    /**
+     * Percentiles of one edge, taken while holding the lock of its stripe
+     */
+    private static final class Snapshot {
+        final String from, to, label;
+        final long count, p50, p99, max;
+
+        Snapshot(String from, String to, String label, LatencyHistogram histogram) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+            this.count = histogram.getCount();
+            this.p50 = histogram.getPercentile(50);
+            this.p99 = histogram.getPercentile(99);
+            this.max = histogram.getMax();
+        }
+    }
+
+    private final EdgeTable<LatencyHistogram> edges;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param precisionBits Bits kept of every latency, see {@link LatencyHistogram}
+     * @param maxEdges Most edges tracked at once
+     */
+    EdgeLatencies(int precisionBits, int maxEdges) {
+        this(precisionBits, maxEdges, Runtime.getRuntime().availableProcessors()*4);
+    }
+
+    /**
+     * @param concurrency Expected number of concurrently recording threads,
+     *                    rounded up to a power of two stripes
+     */
+    EdgeLatencies(int precisionBits, int maxEdges, int concurrency) {
+        this.edges = new EdgeTable<>(concurrency, maxEdges,
+                () -> new LatencyHistogram(precisionBits, HIGHEST_TRACKABLE_MICROS),
+                histogram -> histogram.getCount() == 0, LatencyHistogram::record);
+    }
+
+    /**
+     * Records the latency of one message passed along the edge
+     * @param nanos Time from the send of the message until now
+     */
+    void record(String from, String to, String label, long nanos) {
+        if (!this.edges.update(from, to, label, TimeUnit.NANOSECONDS.toMicros(nanos))) this.dropped.increment();
+    }
+
+    /**
+     * Hands the latencies of every edge which passed messages since the
+     * previous drain over to the consumer
+     * @return Number of edges handed over
+     */
+    synchronized int drain(LatencyConsumer consumer) {
+        List<Snapshot> snapshots = new ArrayList<>();
+        this.edges.drain((from, to, label, histogram) -> {
+            snapshots.add(new Snapshot(from, to, label, histogram));
+            histogram.reset();
+        });
+        for (Snapshot s : snapshots) consumer.accept(s.from, s.to, s.label, s.count, s.p50, s.p99, s.max);
+        return snapshots.size();
+    }
+
+    /**
+     * @return Number of latencies dropped as too many edges were tracked
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return The percentiles of an edge as the body of its latency event
+     */
+    static Map<String, Object> toMap(long p50, long p99, long max) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", p50);
+        latency.put("p99", p99);
+        latency.put("max", max);
+        return latency;
+    }
+}
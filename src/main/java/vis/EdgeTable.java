@@ -0,0 +1,161 @@
+package vis;
+
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Striped open-addressing tables of (sender, receiver, label) edges, where
+ * each stripe has its own lock, and every edge holds a value which is only
+ * allocated when the edge is first seen. The values are only ever updated
+ * and read under the lock of their stripe. Edges which stayed idle since
+ * the previous drain are removed, so the edges of terminated actors do not
+ * pile up.
+ */
+final class EdgeTable<V> {
+
+    /**
+     * Updates the value of an edge, under the lock of its stripe
+     */
+    interface Updater<V> {
+        void update(V value, long amount);
+    }
+
+    /**
+     * Reads, and usually resets, the value of an edge under the lock of its stripe
+     */
+    interface Visitor<V> {
+        void visit(String from, String to, String label, V value);
+    }
+
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final class Stripe {
+        private String[] from = new String[INITIAL_STRIPE_CAPACITY];
+        private String[] to = new String[INITIAL_STRIPE_CAPACITY];
+        private String[] label = new String[INITIAL_STRIPE_CAPACITY];
+        private int[] hashes = new int[INITIAL_STRIPE_CAPACITY];
+        private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        synchronized boolean update(String from, String to, String label, int hash, long amount) {
+            int mask = this.from.length - 1;
+            int index = hash & mask;
+            while (this.from[index] != null) {
+                if (this.hashes[index] == hash && matches(index, from, to, label)) {
+                    updater.update((V)this.values[index], amount);
+                    return true;
+                }
+                index = (index+1) & mask;
+            }
+            if (this.size >= maxEdgesPerStripe) return false;
+            V value = factory.get();
+            updater.update(value, amount);
+            this.from[index] = from;
+            this.to[index] = to;
+            this.label[index] = label;
+            this.hashes[index] = hash;
+            this.values[index] = value;
+            if (++this.size*2 > this.from.length) rehash(this.from.length << 1);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void drain(Visitor<V> visitor) {
+            if (this.size == 0) return;
+            int idle = 0;
+            for (int i = 0; i < this.from.length; i++) {
+                if (this.from[i] != null && EdgeTable.this.idle.test((V)this.values[i])) idle++;
+            }
+            if (idle > 0) rehash(this.from.length);
+
+            for (int i = 0; i < this.from.length; i++) {
+                if (this.from[i] != null) visitor.visit(this.from[i], this.to[i], this.label[i], (V)this.values[i]);
+            }
+        }
+
+        private boolean matches(int index, String from, String to, String label) {
+            return this.from[index].equals(from) && this.to[index].equals(to) && this.label[index].equals(label);
+        }
+
+        /**
+         * Rebuilds the table with the given capacity, leaving out idle edges
+         */
+        @SuppressWarnings("unchecked")
+        private void rehash(int capacity) {
+            String[] from = this.from, to = this.to, label = this.label;
+            int[] hashes = this.hashes;
+            Object[] values = this.values;
+            /* rebuilding at the same capacity is only done to drop the idle edges */
+            boolean dropIdle = capacity == from.length;
+            this.from = new String[capacity];
+            this.to = new String[capacity];
+            this.label = new String[capacity];
+            this.hashes = new int[capacity];
+            this.values = new Object[capacity];
+            this.size = 0;
+
+            int mask = capacity - 1;
+            for (int i = 0; i < from.length; i++) {
+                if (from[i] == null || dropIdle && EdgeTable.this.idle.test((V)values[i])) continue;
+                int index = hashes[i] & mask;
+                while (this.from[index] != null) index = (index+1) & mask;
+                this.from[index] = from[i];
+                this.to[index] = to[i];
+                this.label[index] = label[i];
+                this.hashes[index] = hashes[i];
+                this.values[index] = values[i];
+                this.size++;
+            }
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final int maxEdgesPerStripe;
+    private final Supplier<V> factory;
+    private final Predicate<V> idle;
+    private final Updater<V> updater;
+
+    /**
+     * @param concurrency Expected number of concurrently updating threads,
+     *                    rounded up to a power of two stripes
+     * @param maxEdges Most edges held at once
+     * @param factory Creates the value of an edge when it is first seen
+     * @param idle Tells whether an edge did not change since the previous drain
+     * @param updater Applies an update to the value of an edge
+     */
+    @SuppressWarnings("unchecked")
+    EdgeTable(int concurrency, int maxEdges, Supplier<V> factory, Predicate<V> idle, Updater<V> updater) {
+        int stripes = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = (Stripe[])new EdgeTable<?>.Stripe[stripes];
+        for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripes);
+        this.maxEdgesPerStripe = (int)Math.max(1, Math.min(Integer.MAX_VALUE, ((long)maxEdges + stripes - 1) / stripes));
+        this.factory = factory;
+        this.idle = idle;
+        this.updater = updater;
+    }
+
+    /**
+     * Updates the value of the edge, creating it if it is new
+     * @return False if the edge is new and its stripe already holds the most edges
+     */
+    boolean update(String from, String to, String label, long amount) {
+        if (from == null) from = "";
+        if (to == null) to = "";
+        if (label == null) label = "";
+        int hash = (from.hashCode()*31 + to.hashCode())*31 + label.hashCode();
+        hash *= 0x9E3779B9;
+        /* the upper bits choose the stripe and the lower bits the slot within it */
+        return this.stripes[this.stripeShift == 32 ? 0 : hash >>> this.stripeShift].update(from, to, label, hash, amount);
+    }
+
+    /**
+     * Removes the idle edges, and hands every other edge to the visitor,
+     * one stripe after the other, while holding the lock of its stripe
+     */
+    void drain(Visitor<V> visitor) {
+        for (Stripe stripe : this.stripes) stripe.drain(visitor);
+    }
+}
@@ -0,0 +1,172 @@
+package vis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the emission of events (serializing them and handing them to the
+ * sink) off the threads of the actors, so that a stalling server never
+ * stalls the actors themselves. Events are queued in one queue, which runs
+ * them one after the other on the underlying executor, the way an actor's
+ * mailbox runs on a dispatcher, and gives up its thread after a number of
+ * events to let the other tasks of a shared executor run. Events are
+ * encoded and sent under one lock anyway, so more queues would only add
+ * threads. The executor is either a thread of its own, a virtual thread
+ * where the JDK has them, or any executor handed in, e.g. an Akka
+ * dispatcher. Once more events are queued than the capacity allows, the
+ * overflow policy of the send buffer applies.
+ */
+final class EmitterExecutor implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(EmitterExecutor.class);
+    private static final long BLOCK_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    /**
+     * Queue of the events, which is run by one thread at a time
+     */
+    private final class Queue implements Runnable {
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int i = 0; i < throughput && (task = this.tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    }
+                    catch(RuntimeException ex) {
+                        logger.error("Could not emit event", ex);
+                    }
+                    finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            }
+            finally {
+                /* a task added after the last poll either sees the flag cleared or is seen here */
+                this.scheduled.set(false);
+                if (!this.tasks.isEmpty()) schedule();
+            }
+        }
+
+        void schedule() {
+            if (!this.scheduled.compareAndSet(false, true)) return;
+            try {
+                executor.execute(this);
+            }
+            catch(RejectedExecutionException ex) {
+                this.scheduled.set(false);
+                logger.error("Emitter executor rejected the events", ex);
+            }
+        }
+    }
+
+    private final Queue queue = new Queue();
+    private final Executor executor;
+    private final ExecutorService owned;
+    private final int capacity;
+    private final int throughput;
+    private final VisSettings.OverflowPolicy policy;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param executor Runs the queue, or null for the executor configured in the settings
+     */
+    EmitterExecutor(VisSettings settings, Executor executor) {
+        this.capacity = Math.max(1, settings.getEmitterCapacity());
+        this.throughput = Math.max(1, settings.getEmitterThroughput());
+        this.policy = settings.getOverflowPolicy();
+        this.owned = executor == null ? createExecutor(settings.getEmitterExecutor()) : null;
+        this.executor = executor == null ? this.owned : executor;
+    }
+
+    private static ExecutorService createExecutor(VisSettings.EmitterType type) {
+        if (type == VisSettings.EmitterType.VIRTUAL) {
+            try {
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch(NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+                logger.warn("Virtual threads are not available on this JDK, the emitter uses platform threads");
+            }
+        }
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "vis-emitter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the emission of an event behind the earlier events
+     * @return False if the event was dropped, as too many are queued already
+     */
+    boolean execute(EventType type, Runnable task) {
+        while (this.pending.get() >= this.capacity && !this.closed) {
+            if (this.policy == VisSettings.OverflowPolicy.BLOCK) {
+                LockSupport.parkNanos(BLOCK_POLL_NANOS);
+                continue;
+            }
+            /* queued events cannot be taken back, so the other policies drop the new one */
+            if (this.policy != VisSettings.OverflowPolicy.DROP_RECEIVES || SendBuffer.isDroppable(type)) {
+                this.dropped.increment();
+                return false;
+            }
+            break;
+        }
+        if (this.closed) {
+            this.dropped.increment();
+            return false;
+        }
+        this.pending.incrementAndGet();
+        this.queue.tasks.add(task);
+        this.queue.schedule();
+        return true;
+    }
+
+    /**
+     * @return Number of events waiting to be emitted
+     */
+    int pending() {
+        return this.pending.get();
+    }
+
+    /**
+     * @return Number of events dropped because too many were queued
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Waits a bounded time for the queued events to be emitted and stops
+     * the executor, unless it was handed in
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+        while (this.pending.get() > 0 && System.nanoTime() - deadline < 0) LockSupport.parkNanos(BLOCK_POLL_NANOS);
+        int left = this.pending.get();
+        if (left > 0) {
+            logger.warn(String.format("Dropping %d events, the sink did not keep up", left));
+            this.dropped.add(left);
+        }
+        if (this.owned != null) this.owned.shutdownNow();
+    }
+}
@@ -0,0 +1,76 @@
+package vis;
+
+import java.io.IOException;
+
+/**
+ * Encodes intercepted events into the frames which are handed over to
+ * the transport, either one event per frame or many events per batch frame.
+ * Implementations are not thread-safe, and frames must be emitted in the
+ * order in which they were encoded.
+ */
+interface EventEncoder {
+    /**
+     * Encodes a single event into a frame of its own
+     */
+    byte[] serialize(EventSlot event) throws IOException;
+
+    /**
+     * @return Name of the socket event a single encoded event is emitted with
+     */
+    String getSocketEvent(EventType type);
+
+    /**
+     * Starts a new batch frame
+     */
+    void beginBatch();
+
+    /**
+     * Appends one drained pipeline event to the current batch frame. If this
+     * fails the entry is discarded and the frame stays usable.
+     */
+    void writeBatchEntry(EventSlot slot) throws IOException;
+
+    /**
+     * @return Whether a batch frame has been started and not completed yet
+     */
+    boolean inBatch();
+
+    /**
+     * @return Number of entries written to the current batch frame
+     */
+    int batched();
+
+    /**
+     * Completes the current batch frame
+     * @return Bytes of the complete frame
+     */
+    byte[] endBatch();
+
+    /**
+     * @return Name of the socket event a batch frame is emitted with
+     */
+    String getBatchEvent();
+
+    /**
+     * Discards the frame written so far. The state kept across frames stays
+     * as the receiving end knows it, so only what the discarded frame would
+     * have told it is sent again.
+     */
+    void discard();
+
+    /**
+     * Called whenever the transport (re)connects. Encoders which keep
+     * state across frames start over from scratch.
+     */
+    default void onConnect() {
+    }
+
+    /**
+     * Called whenever the transport dropped a complete frame instead of
+     * sending it. Encoders which keep state across frames start over, as
+     * the receiving end missed whatever the frame carried.
+     */
+    default void onDropped() {
+        onConnect();
+    }
+}
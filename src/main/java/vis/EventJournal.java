@@ -0,0 +1,189 @@
+package vis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only recording of intercepted events into memory-mapped segment
+ * files, so that recording an event costs a copy into mapped memory rather
+ * than a socket write. A new segment is started whenever a record does not
+ * fit into the current one. Every segment starts with a header:
+ * <pre>
+ * int  MAGIC
+ * int  VERSION
+ * </pre>
+ * followed by records, the end of which is marked by a zero length:
+ * <pre>
+ * int      length of the record body
+ * byte     EventType ordinal
+ * varlong  time in microseconds since the epoch
+ * varlong  sequence number
+ * varlong  count
+ * string   name, label, from, to, UTF-8 JSON of the state map
+ * </pre>
+ * where every string is a varlong of its length plus one (zero for null)
+ * followed by its UTF-8 bytes. Alongside the segments, a sparse index file
+ * holds one entry per index interval:
+ * <pre>
+ * long  time of the indexed record
+ * int   segment number
+ * int   position of the record within the segment
+ * </pre>
+ * which lets {@link JournalReader} seek to a point in time without scanning
+ * the whole recording. Appending is thread-safe.
+ */
+final class EventJournal implements AutoCloseable {
+    static final int MAGIC = 0x56495331;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final String INDEX_FILE = "index";
+
+    private final static Logger logger = LoggerFactory.getLogger(EventJournal.class);
+    private final Path directory;
+    private final int segmentBytes;
+    private final long indexIntervalMs;
+    private final FileChannel index;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+    private final ReusableByteBuffer record = new ReusableByteBuffer();
+    private final EventSerializer stateSerializer;
+    private MappedByteBuffer segment;
+    private int segmentNumber = -1;
+    private long nextIndexTime = Long.MIN_VALUE;
+    private long appended;
+    private boolean closed;
+
+    /**
+     * @param directory Directory of the recording, which is created if needed
+     * @param segmentBytes Size of every segment file
+     * @param indexIntervalMs Minimum time between two index entries
+     */
+    EventJournal(Path directory, int segmentBytes, long indexIntervalMs) throws IOException {
+        this(directory, segmentBytes, indexIntervalMs, new EventSerializer());
+    }
+
+    /**
+     * @param stateSerializer Serializer of the states, which are recorded as JSON
+     */
+    EventJournal(Path directory, int segmentBytes, long indexIntervalMs, EventSerializer stateSerializer)
+            throws IOException {
+        this.stateSerializer = stateSerializer;
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalMs = indexIntervalMs;
+        this.index = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        roll();
+    }
+
+    static Path segmentPath(Path directory, int number) {
+        return directory.resolve(String.format("segment-%05d", number));
+    }
+
+    /**
+     * Appends the event to the recording
+     * @return False if the event could not be recorded
+     */
+    synchronized boolean append(EventSlot event) {
+        if (this.closed) return false;
+        try {
+            this.record.reset();
+            this.record.write(event.type.ordinal());
+            this.record.writeVarLong(event.time);
+            this.record.writeVarLong(event.seq);
+            this.record.writeVarLong(event.count);
+            writeString(event.name);
+            writeString(event.label);
+            writeString(event.from);
+            writeString(event.to);
+            if (event.state == null) this.record.writeVarLong(0);
+            else if (event.type == EventType.METRICS) writeBytes(this.stateSerializer.serializeMetrics(event.state));
+            else writeBytes(this.stateSerializer.serializeState(event.state));
+
+            int length = this.record.size();
+            /* keep room for the zero length which marks the end of the segment */
+            if (Integer.BYTES + length + Integer.BYTES > this.segmentBytes - HEADER_SIZE) {
+                logger.warn(String.format("Not recording %s event of %d bytes, it exceeds the segment size",
+                        event.type.getSocketEvent(), length));
+                return false;
+            }
+            if (this.segment.remaining() < Integer.BYTES + length + Integer.BYTES) roll();
+
+            if (event.time >= this.nextIndexTime) {
+                writeIndex(event.time, this.segment.position());
+                this.nextIndexTime = event.time + TimeUnit.MILLISECONDS.toMicros(this.indexIntervalMs);
+            }
+            this.segment.putInt(length);
+            this.segment.put(this.record.array(), 0, length);
+            this.appended++;
+            return true;
+        }
+        catch(IOException ex) {
+            logger.error("Could not record event", ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return Number of events recorded so far
+     */
+    synchronized long getAppended() {
+        return this.appended;
+    }
+
+    Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Flushes the mapped segment to disk and closes the index
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) return;
+        this.closed = true;
+        this.segment.force();
+        this.index.close();
+    }
+
+    private void roll() throws IOException {
+        if (this.segment != null) this.segment.force();
+        this.segmentNumber++;
+        try (FileChannel channel = FileChannel.open(segmentPath(this.directory, this.segmentNumber),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            /* the mapping stays valid after the channel is closed, and a fresh file reads as zeroes */
+            this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+        }
+        this.segment.putInt(MAGIC);
+        this.segment.putInt(VERSION);
+        /* the first record of every segment is indexed, so readers can start at any segment */
+        this.nextIndexTime = Long.MIN_VALUE;
+    }
+
+    private void writeIndex(long time, int position) throws IOException {
+        this.indexEntry.clear();
+        this.indexEntry.putLong(time).putInt(this.segmentNumber).putInt(position);
+        this.indexEntry.flip();
+        while (this.indexEntry.hasRemaining()) this.index.write(this.indexEntry);
+    }
+
+    private void writeString(String value) {
+        if (value == null) this.record.writeVarLong(0);
+        else writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        this.record.writeVarLong(bytes.length + 1L);
+        this.record.write(bytes, 0, bytes.length);
+    }
+}
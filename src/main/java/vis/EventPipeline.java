@@ -0,0 +1,219 @@
+package vis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decouples the actor threads which intercept events from the socket.
+ * Producers only claim a slot in the ring buffer and fill it in, while a
+ * background flusher thread drains the buffer and hands the events over
+ * in batches, whenever either the batch size or the flush deadline
+ * (measured from the first event of the batch) is reached.
+ * While the transport is not writable, e.g. because the server is down,
+ * the flusher moves the events into a bounded send buffer instead, and
+ * replays them in order once the transport is writable again.
+ */
+final class EventPipeline implements AutoCloseable {
+
+    /**
+     * Receives the drained events on the flusher thread
+     */
+    interface BatchHandler {
+        /**
+         * Called for every event of the current batch. The slot is recycled
+         * as soon as this returns, so it must not be retained.
+         */
+        void onEvent(EventSlot slot);
+
+        /**
+         * Called once the current batch is complete and should be sent
+         */
+        void onFlush();
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(EventPipeline.class);
+    private final EventRingBuffer ring;
+    private final BatchHandler handler;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final SendBuffer backlog;
+    private final BatchHandler backlogHandler;
+    private final BooleanSupplier writable;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    EventPipeline(int capacity, int batchSize, long flushIntervalMs, BatchHandler handler) {
+        this(capacity, batchSize, flushIntervalMs, handler, null, () -> true);
+    }
+
+    /**
+     * @param backlog Buffer for the events which arrive while the transport is not writable
+     * @param writable Tells whether the transport currently accepts events
+     */
+    EventPipeline(int capacity, int batchSize, long flushIntervalMs, BatchHandler handler,
+                  SendBuffer backlog, BooleanSupplier writable) {
+        this.backlog = backlog;
+        this.writable = writable;
+        this.backlogHandler = backlog == null ? null : new BatchHandler() {
+            public void onEvent(EventSlot slot) {
+                backlog.offer(slot);
+            }
+
+            public void onFlush() {
+            }
+        };
+        this.ring = new EventRingBuffer(capacity);
+        this.batchSize = Math.max(1, Math.min(batchSize, this.ring.capacity()));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.handler = handler;
+        this.flusher = new Thread(this::flushLoop, "vis-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Enqueues an event. When the buffer is full the producer backs off
+     * until the flusher has made room, so no event is lost.
+     * @param state Serialized on the flusher thread, so no other thread may
+     *              modify it anymore, see {@link EventSlot#copyState}
+     */
+    void publish(EventType type, long time, long seq, String name, String label, String from, String to,
+                 Map<String, Object> state, long count) {
+        long pos;
+        while ((pos = this.ring.tryClaim()) < 0) {
+            LockSupport.unpark(this.flusher);
+            LockSupport.parkNanos(1000);
+        }
+        EventSlot slot = this.ring.slot(pos);
+        slot.set(type, time, name, label, from, to, state, count);
+        slot.seq = seq;
+        this.ring.publish(pos);
+
+        /* wake the flusher up exactly once when a full batch is ready */
+        if (this.ring.size() == this.batchSize) LockSupport.unpark(this.flusher);
+    }
+
+    /**
+     * @return Number of events waiting to be flushed
+     */
+    int pending() {
+        return this.ring.size();
+    }
+
+    /**
+     * @return Buffer of the events held back while the transport is not writable, if any
+     */
+    SendBuffer getBacklog() {
+        return this.backlog;
+    }
+
+    private void flushLoop() {
+        int batched = 0;
+        long deadline = 0;
+
+        while (this.running || this.ring.size() > 0 || batched > 0 || this.replayable()) {
+            if (this.backlog != null && !this.writable.getAsBoolean()) {
+                /* the events already batched are sent anyway, there are at most batch-size of them */
+                if (batched > 0) {
+                    this.flush();
+                    batched = 0;
+                }
+                if (!this.buffer()) break;
+                continue;
+            }
+
+            int drained;
+            try {
+                drained = this.replayable() ? this.replay(this.batchSize - batched) :
+                        this.ring.drain(this.handler, this.batchSize - batched);
+            }
+            catch(RuntimeException ex) {
+                logger.error("Dropping event which could not be batched", ex);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (batched == 0 && drained > 0) deadline = now + this.flushIntervalNanos;
+            batched += drained;
+
+            if (batched > 0 && (batched >= this.batchSize || now - deadline >= 0 || !this.running)) {
+                this.flush();
+                batched = 0;
+            }
+            else if (drained == 0) {
+                LockSupport.parkNanos(this, batched > 0 ? deadline - now : this.flushIntervalNanos);
+            }
+        }
+        if (batched > 0) this.flush();
+        if (this.backlog != null && !this.backlog.isEmpty()) {
+            logger.warn(String.format("Dropping %d events, the transport is still not writable",
+                    this.backlog.getQueued()));
+            this.backlog.clear();
+        }
+    }
+
+    /**
+     * Moves events from the ring buffer into the send buffer while the
+     * transport is not writable. Under the block policy nothing is moved
+     * once the send buffer is full, so the ring buffer fills up and the
+     * producers are held back.
+     * @return False once the pipeline is closed and every event was moved
+     */
+    private boolean buffer() {
+        boolean blocked = this.backlog.getPolicy() == VisSettings.OverflowPolicy.BLOCK && this.backlog.isFull();
+        if (!this.running && (blocked || this.ring.size() == 0)) {
+            /* nothing can be sent anymore, count what is left as dropped */
+            while (this.ring.size() > 0) this.ring.drain(this.backlogHandler, Integer.MAX_VALUE);
+            return false;
+        }
+        int drained = blocked ? 0 : this.ring.drain(this.backlogHandler, this.batchSize);
+        if (drained == 0) LockSupport.parkNanos(this, this.flushIntervalNanos);
+        return true;
+    }
+
+    private boolean replayable() {
+        return this.backlog != null && !this.backlog.isEmpty() && this.writable.getAsBoolean();
+    }
+
+    /**
+     * Hands the oldest buffered events over to the handler, so they are
+     * sent before any event which is still waiting in the ring buffer
+     */
+    private int replay(int limit) {
+        int replayed = 0;
+        EventSlot slot;
+        while (replayed < limit && (slot = this.backlog.poll()) != null) {
+            replayed++;
+            this.handler.onEvent(slot);
+        }
+        return replayed;
+    }
+
+    private void flush() {
+        try {
+            this.handler.onFlush();
+        }
+        catch(RuntimeException ex) {
+            logger.error("Could not flush event batch", ex);
+        }
+    }
+
+    /**
+     * Flushes all pending events and stops the flusher thread
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.flusher);
+        try {
+            this.flusher.join();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package vis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer ring buffer of
+ * pre-allocated event slots. Every slot carries a sequence number which
+ * tells producers whether the slot is free for a given position and tells
+ * the consumer whether the slot has been published (Vyukov's bounded queue).
+ */
+final class EventRingBuffer {
+    private final EventSlot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    EventRingBuffer(int requestedCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.slots = new EventSlot[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new EventSlot();
+            this.sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Claims the next free position for a producer
+     * @return Claimed position, or -1 if the buffer is full
+     */
+    long tryClaim() {
+        while (true) {
+            long pos = this.tail.get();
+            long diff = this.sequences.get(index(pos)) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos+1)) return pos;
+            }
+            else if (diff < 0) return -1;
+        }
+    }
+
+    EventSlot slot(long pos) {
+        return this.slots[index(pos)];
+    }
+
+    /**
+     * Makes the slot at a claimed position visible to the consumer
+     */
+    void publish(long pos) {
+        this.sequences.lazySet(index(pos), pos+1);
+    }
+
+    /**
+     * Hands published slots over to the handler in order and recycles them.
+     * Must only be called from the single consumer thread.
+     * @param handler Receives every drained slot
+     * @param limit Maximum number of slots to drain
+     * @return Number of slots that were drained
+     */
+    int drain(EventPipeline.BatchHandler handler, int limit) {
+        int drained = 0;
+        long pos = this.head;
+        while (drained < limit) {
+            int index = index(pos);
+            if (this.sequences.get(index) != pos+1) break;
+            EventSlot slot = this.slots[index];
+            try {
+                handler.onEvent(slot);
+            }
+            finally {
+                slot.clear();
+                this.sequences.lazySet(index, pos + this.slots.length);
+                this.head = ++pos;
+            }
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return Approximate number of claimed but not yet drained slots
+     */
+    int size() {
+        return (int)Math.max(0, this.tail.get() - this.head);
+    }
+
+    int capacity() {
+        return this.slots.length;
+    }
+
+    private int index(long pos) {
+        return (int)(pos & this.mask);
+    }
+}
@@ -0,0 +1,463 @@
+package vis;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams intercepted events as UTF-8 JSON straight into a reusable byte
+ * buffer using a single long-lived Jackson generator, instead of building
+ * an event object, an object mapper and an intermediate String per event.
+ * Field names are pre-encoded, so the only allocation per frame is the
+ * final byte array which is handed over to the transport.
+ * The values of state maps are written by a {@link StateValueSerializers}
+ * registry, and a state which takes more than the maximum of bytes is
+ * replaced by a placeholder carrying its size. A patch which does is sent
+ * as a full state holding the placeholder instead, as the server would
+ * apply the placeholder as if it were properties of the actor.
+ * Timestamps are written in whole milliseconds, as the server has always
+ * read them, unless precise time is turned on, which writes microseconds
+ * as a fraction of the milliseconds, and the sequence number of the event.
+ * Instances are not thread-safe.
+ */
+final class EventSerializer implements EventEncoder {
+    private static final SerializedString EVENT = new SerializedString("event");
+    private static final SerializedString DATA = new SerializedString("data");
+    private static final SerializedString TIME = new SerializedString("time");
+    private static final SerializedString STATE = new SerializedString("state");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString LABEL = new SerializedString("label");
+    private static final SerializedString FROM = new SerializedString("from");
+    private static final SerializedString TO = new SerializedString("to");
+    private static final SerializedString COUNT = new SerializedString("count");
+    private static final SerializedString PATCH = new SerializedString("patch");
+    private static final SerializedString SEQ = new SerializedString("seq");
+    private static final SerializedString LATENCY = new SerializedString("latency");
+    private static final SerializedString PROFILE = new SerializedString("profile");
+    private static final SerializedString DISPATCHER = new SerializedString("dispatcher");
+    private static final SerializedString ACTORS = new SerializedString("actors");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StateValueSerializers values;
+    private final long maxStateBytes;
+    private final boolean preciseTime;
+    private final ReusableByteBuffer out = new ReusableByteBuffer();
+    private final char[] timeChars = new char[24];
+    private JsonGenerator generator;
+    private int batched;
+    private boolean inBatch;
+    /* size of the last patch written if it was replaced by the placeholder, otherwise 0 */
+    private long truncatedPatchBytes;
+
+    EventSerializer() {
+        this(false);
+    }
+
+    /**
+     * @param preciseTime Whether to write microsecond timestamps and sequence numbers
+     */
+    EventSerializer(boolean preciseTime) {
+        this(StateValueSerializers.create(VisSettings.defaults(), name -> -1), 0, preciseTime);
+    }
+
+    /**
+     * @param values Writes the values of state maps
+     * @param maxStateBytes Most bytes of a state or patch, or 0 for no limit
+     */
+    EventSerializer(StateValueSerializers values, long maxStateBytes) {
+        this(values, maxStateBytes, false);
+    }
+
+    /**
+     * @param values Writes the values of state maps
+     * @param maxStateBytes Most bytes of a state or patch, or 0 for no limit
+     * @param preciseTime Whether to write microsecond timestamps and sequence numbers
+     */
+    EventSerializer(StateValueSerializers values, long maxStateBytes, boolean preciseTime) {
+        this.values = values;
+        this.maxStateBytes = maxStateBytes;
+        this.preciseTime = preciseTime;
+        this.generator = createGenerator();
+    }
+
+    @Override
+    public byte[] serialize(EventSlot event) throws IOException {
+        byte[] bytes = write(event);
+        return replaceTruncatedPatch(event) ? write(event) : bytes;
+    }
+
+    private byte[] write(EventSlot event) throws IOException {
+        try {
+            writeEvent(event);
+            this.generator.flush();
+        }
+        catch(IOException | RuntimeException ex) {
+            discard();
+            throw ex;
+        }
+        return takeBytes();
+    }
+
+    /**
+     * Serializes a state map on its own, e.g. to be embedded in a binary frame
+     */
+    byte[] serializeState(Map<String, Object> state) throws IOException {
+        return serializeState(state, false);
+    }
+
+    /**
+     * Serializes the {set, removed} patch of a state on its own. If it
+     * takes more than the maximum of bytes, the event has to be turned into
+     * a state by {@link #replaceTruncatedPatch} and serialized again.
+     */
+    byte[] serializePatch(Map<String, Object> patch) throws IOException {
+        return serializeState(patch, true);
+    }
+
+    /**
+     * Serializes the body of a metrics event on its own, in full
+     */
+    byte[] serializeMetrics(Map<String, Object> metrics) throws IOException {
+        try {
+            this.generator.writeStartObject();
+            writeMetrics(metrics);
+            this.generator.writeEndObject();
+            this.generator.flush();
+        }
+        catch(IOException | RuntimeException ex) {
+            discard();
+            throw ex;
+        }
+        return takeBytes();
+    }
+
+    private byte[] serializeState(Map<String, Object> state, boolean patch) throws IOException {
+        try {
+            writeState(state, patch);
+            this.generator.flush();
+        }
+        catch(IOException | RuntimeException ex) {
+            discard();
+            throw ex;
+        }
+        return takeBytes();
+    }
+
+    @Override
+    public String getSocketEvent(EventType type) {
+        return type.getSocketEvent();
+    }
+
+    /**
+     * Starts a batch frame, i.e. an array of {event, data} entries
+     */
+    @Override
+    public void beginBatch() {
+        this.out.write('[');
+        this.batched = 0;
+        this.inBatch = true;
+    }
+
+    /**
+     * Appends one drained pipeline event to the current batch frame.
+     * Every entry is written as a separate root value, so an entry that
+     * fails to serialize is cut off again without breaking the frame.
+     */
+    @Override
+    public void writeBatchEntry(EventSlot slot) throws IOException {
+        int mark = this.out.size();
+        if (this.batched > 0) this.out.write(',');
+        try {
+            JsonGenerator g = this.generator;
+            g.writeStartObject();
+            g.writeFieldName(EVENT);
+            g.writeString(slot.type.getSocketEvent());
+            g.writeFieldName(DATA);
+            writeEvent(slot);
+            g.writeEndObject();
+            g.flush();
+            this.batched++;
+        }
+        catch(IOException | RuntimeException ex) {
+            this.out.truncate(mark);
+            this.generator = createGenerator();
+            throw ex;
+        }
+        if (replaceTruncatedPatch(slot)) {
+            this.out.truncate(mark);
+            this.generator = createGenerator();
+            this.batched--;
+            writeBatchEntry(slot);
+        }
+    }
+
+    /**
+     * Turns a patch event which took more than the maximum of bytes into a
+     * full state event holding the placeholder, so it has to be written again
+     * @return Whether the event was turned into a state
+     */
+    boolean replaceTruncatedPatch(EventSlot slot) {
+        if (this.truncatedPatchBytes == 0 || slot.type != EventType.STATE_PATCH) return false;
+        slot.type = EventType.STATE;
+        slot.state = truncated(this.truncatedPatchBytes);
+        this.truncatedPatchBytes = 0;
+        return true;
+    }
+
+    /**
+     * @return The placeholder of a state which took the given number of bytes
+     */
+    static Map<String, Object> truncated(long bytes) {
+        Map<String, Object> placeholder = new LinkedHashMap<>(4);
+        placeholder.put("truncated", true);
+        placeholder.put("bytes", bytes);
+        return placeholder;
+    }
+
+    @Override
+    public boolean inBatch() {
+        return this.inBatch;
+    }
+
+    @Override
+    public int batched() {
+        return this.batched;
+    }
+
+    @Override
+    public byte[] endBatch() {
+        this.out.write(']');
+        this.batched = 0;
+        this.inBatch = false;
+        return takeBytes();
+    }
+
+    @Override
+    public String getBatchEvent() {
+        return "eventBatch";
+    }
+
+    @Override
+    public void discard() {
+        this.out.reset();
+        this.batched = 0;
+        this.inBatch = false;
+        /* the old generator may still buffer partial output, so it is dropped without flushing */
+        this.generator = createGenerator();
+    }
+
+    private void writeEvent(EventSlot event) throws IOException {
+        JsonGenerator g = this.generator;
+        g.writeStartObject();
+        g.writeFieldName(TIME);
+        writeTime(event.time);
+        if (this.preciseTime) {
+            g.writeFieldName(SEQ);
+            g.writeNumber(event.seq);
+        }
+        switch (event.type) {
+            case SPAWN:
+            case DESTROY:
+                g.writeFieldName(NAME);
+                g.writeString(event.name);
+                break;
+            case RECEIVE:
+                g.writeFieldName(EVENT);
+                g.writeString(event.type.getSocketEvent());
+                writeEdge(event);
+                break;
+            case EDGE_DELTA:
+                writeEdge(event);
+                g.writeFieldName(COUNT);
+                g.writeNumber(event.count);
+                break;
+            case EDGE_LATENCY:
+                writeEdge(event);
+                g.writeFieldName(COUNT);
+                g.writeNumber(event.count);
+                g.writeFieldName(LATENCY);
+                writeState(event.state, false);
+                break;
+            case HOT_ACTOR:
+                g.writeFieldName(NAME);
+                g.writeString(event.name);
+                g.writeFieldName(LABEL);
+                g.writeString(event.label);
+                g.writeFieldName(COUNT);
+                g.writeNumber(event.count);
+                g.writeFieldName(PROFILE);
+                writeState(event.state, false);
+                break;
+            case METRICS:
+                writeMetrics(event.state);
+                break;
+            case STATE_PATCH:
+                g.writeFieldName(NAME);
+                g.writeString(event.name);
+                g.writeFieldName(PATCH);
+                writeState(event.state, true);
+                break;
+            default:
+                if (event.name != null) {
+                    g.writeFieldName(NAME);
+                    g.writeString(event.name);
+                }
+                g.writeFieldName(STATE);
+                writeState(event.state, false);
+        }
+        g.writeEndObject();
+    }
+
+    /**
+     * Writes a timestamp as milliseconds since the epoch, with three decimals
+     * if the time is precise, so the server keeps working with milliseconds
+     * but sees microseconds
+     */
+    private void writeTime(long micros) throws IOException {
+        if (!this.preciseTime || micros < 0) {
+            this.generator.writeNumber(micros / 1000);
+            return;
+        }
+        char[] chars = this.timeChars;
+        int pos = chars.length;
+        long fraction = micros % 1000;
+        for (int i = 0; i < 3; i++) {
+            chars[--pos] = (char)('0' + fraction % 10);
+            fraction /= 10;
+        }
+        chars[--pos] = '.';
+        long millis = micros / 1000;
+        do {
+            chars[--pos] = (char)('0' + millis % 10);
+            millis /= 10;
+        } while (millis > 0);
+        this.generator.writeNumber(chars, pos, chars.length - pos);
+    }
+
+    private void writeEdge(EventSlot event) throws IOException {
+        JsonGenerator g = this.generator;
+        g.writeFieldName(LABEL);
+        g.writeString(event.label);
+        g.writeFieldName(FROM);
+        g.writeString(event.from);
+        g.writeFieldName(TO);
+        g.writeString(event.to);
+    }
+
+    /**
+     * Writes a state, or a patch of one, unless it takes more than the
+     * maximum of bytes, in which case it is cut off again and replaced by
+     * a placeholder with its size. A patch is noted as replaced, as the
+     * placeholder does not make a patch.
+     */
+    private void writeState(Map<String, Object> state, boolean patch) throws IOException {
+        JsonGenerator g = this.generator;
+        this.truncatedPatchBytes = 0;
+        int mark = -1;
+        if (this.maxStateBytes > 0) {
+            g.flush();
+            mark = this.out.size();
+        }
+        if (patch) writePatch(state);
+        else writeProperties(state);
+        if (mark < 0) return;
+
+        g.flush();
+        /* the generator writes the separator in front of a value along with the value */
+        byte first = this.out.array()[mark];
+        int start = first == ':' || first == ',' ? mark + 1 : mark;
+        int bytes = this.out.size() - start;
+        if (bytes <= this.maxStateBytes) return;
+        /* the generator has written a complete value, so the raw placeholder takes its place */
+        this.out.truncate(start);
+        g.writeRaw("{\"truncated\":true,\"bytes\":" + bytes + "}");
+        if (patch) this.truncatedPatchBytes = bytes;
+    }
+
+    /**
+     * Writes the load of the dispatcher and the counts of every actor as
+     * fields of the enclosing object. Neither is summarized like a state,
+     * as the server sizes every node by its counts.
+     */
+    private void writeMetrics(Map<String, Object> metrics) throws IOException {
+        JsonGenerator g = this.generator;
+        g.writeFieldName(DISPATCHER);
+        g.writeStartObject();
+        for (Map.Entry<?, ?> entry : MailboxSampler.dispatcherOf(metrics).entrySet()) {
+            g.writeFieldName(String.valueOf(entry.getKey()));
+            Object value = entry.getValue();
+            if (value instanceof Double || value instanceof Float) g.writeNumber(((Number)value).doubleValue());
+            else g.writeNumber(((Number)value).longValue());
+        }
+        g.writeEndObject();
+        g.writeFieldName(ACTORS);
+        g.writeStartObject();
+        for (Map.Entry<?, ?> entry : MailboxSampler.actorsOf(metrics).entrySet()) {
+            g.writeFieldName(String.valueOf(entry.getKey()));
+            g.writeStartArray();
+            for (Object count : (Collection<?>)entry.getValue()) g.writeNumber(((Number)count).longValue());
+            g.writeEndArray();
+        }
+        g.writeEndObject();
+    }
+
+    /**
+     * Writes every property of a state, however many there are
+     */
+    private void writeProperties(Map<?, ?> state) throws IOException {
+        JsonGenerator g = this.generator;
+        g.writeStartObject();
+        if (state != null) {
+            for (Map.Entry<?, ?> entry : state.entrySet()) {
+                g.writeFieldName(String.valueOf(entry.getKey()));
+                this.values.write(entry.getValue(), g);
+            }
+        }
+        g.writeEndObject();
+    }
+
+    /**
+     * Writes the changed properties and the removed names of a patch in full,
+     * as the server could not apply a summary of them
+     */
+    private void writePatch(Map<String, Object> patch) throws IOException {
+        JsonGenerator g = this.generator;
+        g.writeStartObject();
+        for (Map.Entry<String, Object> entry : patch.entrySet()) {
+            g.writeFieldName(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Map) writeProperties((Map<?, ?>)value);
+            else if (value instanceof Collection) {
+                g.writeStartArray();
+                for (Object element : (Collection<?>)value) this.values.write(element, g);
+                g.writeEndArray();
+            }
+            else this.values.write(value, g);
+        }
+        g.writeEndObject();
+    }
+
+    private byte[] takeBytes() {
+        byte[] bytes = this.out.toByteArray();
+        this.out.reset();
+        return bytes;
+    }
+
+    private JsonGenerator createGenerator() {
+        try {
+            JsonGenerator g = this.mapper.getFactory().createGenerator(this.out, JsonEncoding.UTF8);
+            g.setRootValueSeparator(null);
+            return g;
+        }
+        catch(IOException ex) {
+            /* cannot happen for an in-memory buffer */
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package vis;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport which carries the encoded frames of the interceptor to the
+ * server. The sink is chosen by "conf.vis.sink.type", or an implementation
+ * of its own can be handed to the constructor of {@link MyVisualizerClient}.
+ * Frames are sent by one thread at a time, in the order they were encoded,
+ * and have to be delivered in that order.
+ */
+public interface EventSink extends AutoCloseable {
+    /**
+     * Starts connecting to the server
+     * @param onConnect Run on every (re)connect, before any frame is sent over the new connection
+     */
+    void open(Runnable onConnect);
+
+    /**
+     * @return Whether frames currently reach the server
+     */
+    boolean isConnected();
+
+    /**
+     * Sends one frame without waiting for it to be written
+     * @param event Name of the socket event, which tells the server how to decode the frame
+     * @return False if the frame was dropped instead, e.g. as the receiver
+     *         cannot keep up, so that the frames which follow must not
+     *         rely on anything it carried
+     */
+    boolean send(String event, byte[] frame);
+
+    /**
+     * Registers the handler of a request the server sends to the
+     * interceptor, e.g. which actors it displays. Sinks which cannot
+     * receive anything ignore the handler.
+     * @param request Name of the socket event the server sends
+     * @param handler Called with the arguments of every such request
+     */
+    default void onRequest(String request, Consumer<Object[]> handler) {
+    }
+
+    /**
+     * Releases the connection once the interceptor is closed
+     */
+    @Override
+    default void close() {
+    }
+}
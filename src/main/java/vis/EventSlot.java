@@ -0,0 +1,76 @@
+package vis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pre-allocated, reusable entry of the event ring buffer.
+ * Producers fill in the fields of a claimed slot and the flusher
+ * clears them again once the event has been written to a batch,
+ * so enqueuing an event does not allocate anything.
+ */
+final class EventSlot {
+    EventType type;
+    /** Microseconds since the epoch */
+    long time;
+    /** Strictly increasing number of the event within its client */
+    long seq;
+    String name;
+    String label;
+    String from;
+    String to;
+    Map<String, Object> state;
+    long count;
+
+    void set(EventType type, long time, String name, String label, String from, String to,
+             Map<String, Object> state, long count) {
+        this.type = type;
+        this.time = time;
+        this.name = name;
+        this.label = label;
+        this.from = from;
+        this.to = to;
+        this.state = state;
+        this.count = count;
+    }
+
+    void copyFrom(EventSlot other) {
+        this.set(other.type, other.time, other.name, other.label, other.from, other.to, other.state, other.count);
+        this.seq = other.seq;
+    }
+
+    void clear() {
+        this.set(null, 0, null, null, null, null, null, 0);
+        this.seq = 0;
+    }
+
+    /**
+     * Copies a state which is serialized on another thread later on, as
+     * actors tend to pass their live (and later mutated or reused) maps
+     * and collections. The values themselves have to be immutable.
+     * @return Copy of the state and of the collections it holds
+     */
+    static Map<String, Object> copyState(Map<String, Object> state) {
+        if (state == null) return null;
+        Map<String, Object> copy = new LinkedHashMap<>(Math.max(4, state.size() * 4 / 3 + 1));
+        for (Map.Entry<String, Object> entry : state.entrySet()) copy.put(entry.getKey(), copyValue(entry.getValue()));
+        return copy;
+    }
+
+    /**
+     * @return Copy of a collection, map or array, in the same order, or the value itself
+     */
+    static Object copyValue(Object value) {
+        if (value instanceof Set) return new LinkedHashSet<>((Set<?>)value);
+        if (value instanceof List) return new ArrayList<>((List<?>)value);
+        if (value instanceof Map) return new LinkedHashMap<>((Map<?, ?>)value);
+        if (value instanceof Collection) return new ArrayList<>((Collection<?>)value);
+        if (value instanceof Object[]) return ((Object[])value).clone();
+        return value;
+    }
+}
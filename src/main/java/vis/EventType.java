@@ -0,0 +1,27 @@
+package vis;
+
+/**
+ * Kinds of actor system events that the interceptor emits, along
+ * with the name of the socket event that the server listens on
+ */
+enum EventType {
+    SPAWN("spawn"),
+    RECEIVE("receive"),
+    STATE("setState"),
+    DESTROY("destroyNode"),
+    EDGE_DELTA("edgeDelta"),
+    STATE_PATCH("statePatch"),
+    EDGE_LATENCY("edgeLatency"),
+    HOT_ACTOR("hotActor"),
+    METRICS("metrics");
+
+    private final String socketEvent;
+
+    EventType(String socketEvent) {
+        this.socketEvent = socketEvent;
+    }
+
+    public String getSocketEvent() {
+        return this.socketEvent;
+    }
+}
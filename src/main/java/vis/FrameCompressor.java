@@ -0,0 +1,178 @@
+package vis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses batch frames with deflate, primed with a preset dictionary of
+ * the registered actor names, the message labels seen so far and, for the
+ * JSON wire format, the skeleton of the common events, so that even a
+ * small batch compresses well. Frames below a size threshold, or which do
+ * not get any smaller, are left alone. A compressed frame is emitted under
+ * the batch event name with {@link #DEFLATED_SUFFIX} appended, and is
+ * preceded by a {@link #DICTIONARY_EVENT} frame carrying the raw dictionary
+ * whenever the receiver does not have it yet; the zlib header of every
+ * compressed frame names its dictionary by its Adler-32 checksum.
+ * {@link FrameInflater} reads these frames. Instances are only used by the
+ * flusher thread, and compress with one Deflater, which is reset rather
+ * than recreated for every frame.
+ */
+final class FrameCompressor implements AutoCloseable {
+    static final String DICTIONARY_EVENT = "frameDictionary";
+    static final String DEFLATED_SUFFIX = "Deflated";
+    /* deflate only looks back 32K, so anything before is dead weight */
+    private static final int MAX_DICTIONARY_BYTES = 32 << 10;
+    private static final int MAX_LABELS = 1024;
+
+    private final ActorRegistry registry;
+    private final boolean json;
+    private final int minBytes;
+    private final int dictionaryBytes;
+    private final long refreshNanos;
+    private final Set<String> labels = new LinkedHashSet<>();
+    private final Deflater deflater;
+    private byte[] dictionary;
+    private long builtNanos;
+    private int builtNames = -1;
+    private int builtLabels = -1;
+    private byte[] out = new byte[4096];
+
+    /**
+     * @param registry Registry of the actors whose names go into the dictionary
+     * @param json Whether the frames are JSON, so that event skeletons go into the dictionary
+     */
+    FrameCompressor(VisSettings settings, ActorRegistry registry, boolean json) {
+        this.registry = registry;
+        this.json = json;
+        this.deflater = new Deflater(settings.getCompressionLevel());
+        this.minBytes = settings.getCompressionMinBytes();
+        this.dictionaryBytes = Math.min(settings.getCompressionDictionaryBytes(), MAX_DICTIONARY_BYTES);
+        this.refreshNanos = settings.getCompressionDictionaryRefreshMs() * 1000000L;
+    }
+
+    /**
+     * @return Name of the event a compressed frame of the given batch event is emitted under
+     */
+    static String deflated(String event) {
+        return event + DEFLATED_SUFFIX;
+    }
+
+    /**
+     * @return Name of the batch event of a compressed frame, or null if the event is not compressed
+     */
+    static String inflated(String event) {
+        return event.endsWith(DEFLATED_SUFFIX) ? event.substring(0, event.length() - DEFLATED_SUFFIX.length()) : null;
+    }
+
+    /**
+     * Notes the label of an event written to a batch, so that it goes into the next dictionary
+     */
+    void observe(EventSlot slot) {
+        if (slot.label != null && this.labels.size() < MAX_LABELS) this.labels.add(slot.label);
+    }
+
+    /**
+     * @return The frame compressed with the current dictionary, or null if
+     *         it is below the threshold or would not get any smaller
+     */
+    byte[] compress(byte[] frame) {
+        if (frame.length < this.minBytes) return null;
+        byte[] dictionary = getDictionary();
+        Deflater deflater = this.deflater;
+        deflater.reset();
+        if (dictionary.length > 0) deflater.setDictionary(dictionary);
+        deflater.setInput(frame);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == this.out.length) this.out = Arrays.copyOf(this.out, size << 1);
+            size += deflater.deflate(this.out, size, this.out.length - size);
+            if (size >= frame.length) return null;
+        }
+        return Arrays.copyOf(this.out, size);
+    }
+
+    /**
+     * @return The dictionary frames are compressed with, which is rebuilt
+     *         at most once per refresh interval when actors or labels were
+     *         added. A new dictionary is a new array, so the receivers
+     *         which have the current one can be told by identity.
+     */
+    byte[] getDictionary() {
+        long now = System.nanoTime();
+        if (this.dictionary != null && (now - this.builtNanos < this.refreshNanos
+                || this.registry.size() == this.builtNames && this.labels.size() == this.builtLabels))
+            return this.dictionary;
+        this.builtNanos = now;
+        this.builtNames = this.registry.size();
+        this.builtLabels = this.labels.size();
+        this.dictionary = buildDictionary();
+        return this.dictionary;
+    }
+
+    /**
+     * Deflate prefers the most recent matches, so the names go first, then
+     * the labels, and the skeletons, which every event matches, go last
+     */
+    private byte[] buildDictionary() {
+        byte[] skeleton = this.json ? skeleton() : new byte[0];
+        ReusableByteBuffer labels = new ReusableByteBuffer();
+        for (String label : this.labels) quote(labels, label);
+        ReusableByteBuffer dictionary = new ReusableByteBuffer();
+        int budget = Math.max(0, this.dictionaryBytes - skeleton.length - labels.size());
+        for (String name : this.registry.nameToKey().keySet()) {
+            int mark = dictionary.size();
+            quote(dictionary, name);
+            if (dictionary.size() > budget) {
+                dictionary.truncate(mark);
+                break;
+            }
+        }
+        dictionary.write(labels.array(), 0, Math.min(labels.size(), this.dictionaryBytes - dictionary.size()));
+        dictionary.write(skeleton, 0, Math.min(skeleton.length, this.dictionaryBytes - dictionary.size()));
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Writes the string as it appears in the frames, i.e. within quotes in JSON
+     */
+    private void quote(ReusableByteBuffer buffer, String value) {
+        if (this.json) buffer.write('"');
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+        if (this.json) buffer.write('"');
+    }
+
+    /**
+     * @return A batch of the most common events with empty names, as the JSON
+     *         wire format writes them now, so the timestamps share their prefix
+     */
+    private static byte[] skeleton() {
+        EventSerializer serializer = new EventSerializer();
+        EventSlot slot = new EventSlot();
+        long time = System.currentTimeMillis() * 1000;
+        try {
+            serializer.beginBatch();
+            for (EventType type : new EventType[] {EventType.SPAWN, EventType.STATE, EventType.RECEIVE, EventType.RECEIVE}) {
+                slot.set(type, time, "", "", "", "", null, 0);
+                serializer.writeBatchEntry(slot);
+            }
+            return serializer.endBatch();
+        }
+        catch(IOException ex) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Releases the native memory of the Deflater, once the flusher has stopped
+     */
+    @Override
+    public void close() {
+        this.deflater.end();
+    }
+}
@@ -0,0 +1,83 @@
+package vis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames compressed by {@link FrameCompressor} on the receiving
+ * end. The dictionaries arrive in frames of their own ahead of the frames
+ * compressed with them, and are looked up by the Adler-32 checksum the zlib
+ * header of a compressed frame names. One inflater has to be used per
+ * connection, and instances are not thread-safe.
+ */
+final class FrameInflater implements AutoCloseable {
+    /* frames compressed with an older dictionary may still be on their way */
+    private static final int MAX_DICTIONARIES = 4;
+
+    private final Inflater inflater = new Inflater();
+    private final Map<Integer, byte[]> dictionaries = new LinkedHashMap<Integer, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > MAX_DICTIONARIES;
+        }
+    };
+    private final int maxBytes;
+    private byte[] out = new byte[8192];
+
+    /**
+     * @param maxBytes Largest frame which is inflated
+     */
+    FrameInflater(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keeps the payload of a {@link FrameCompressor#DICTIONARY_EVENT} frame
+     */
+    void addDictionary(byte[] dictionary) {
+        Adler32 checksum = new Adler32();
+        checksum.update(dictionary);
+        this.dictionaries.put((int)checksum.getValue(), dictionary);
+    }
+
+    /**
+     * @return The frame as it was before it was compressed
+     * @throws IOException If the frame is malformed or too large, or its dictionary is unknown
+     */
+    byte[] inflate(byte[] frame) throws IOException {
+        this.inflater.reset();
+        this.inflater.setInput(frame);
+        int size = 0;
+        try {
+            while (!this.inflater.finished()) {
+                if (size == this.out.length) {
+                    if (size >= this.maxBytes) throw new IOException("Inflated frame exceeds " + this.maxBytes + " bytes");
+                    this.out = Arrays.copyOf(this.out, (int)Math.min((long)size << 1, this.maxBytes));
+                }
+                int inflated = this.inflater.inflate(this.out, size, this.out.length - size);
+                size += inflated;
+                if (inflated > 0) continue;
+                if (this.inflater.needsDictionary()) {
+                    byte[] dictionary = this.dictionaries.get(this.inflater.getAdler());
+                    if (dictionary == null) throw new IOException(String.format("Unknown dictionary %08x", this.inflater.getAdler()));
+                    this.inflater.setDictionary(dictionary);
+                }
+                else if (this.inflater.needsInput()) throw new IOException("Truncated compressed frame");
+            }
+        }
+        catch(DataFormatException ex) {
+            throw new IOException("Malformed compressed frame", ex);
+        }
+        return Arrays.copyOf(this.out, size);
+    }
+
+    @Override
+    public void close() {
+        this.inflater.end();
+    }
+}
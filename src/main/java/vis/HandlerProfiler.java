@@ -0,0 +1,204 @@
+package vis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the handlers of traced actors per (actor, message class), so that
+ * the handlers which took the most time can be emitted periodically. Every
+ * actor gets a profile of its own, an open-addressing table from message
+ * classes to counters, which only its interceptor records into. Recording
+ * a message of a class the actor has handled before does not allocate.
+ */
+final class HandlerProfiler {
+
+    /**
+     * Receives the hottest handlers since the previous drain, hottest first
+     */
+    interface HotConsumer {
+        /**
+         * @param count Number of messages the actor handled
+         * @param totalMicros Time the actor spent handling them in microseconds
+         * @param maxMicros Longest time the actor spent handling one of them in microseconds
+         */
+        void accept(String name, String label, long count, long totalMicros, long maxMicros);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Counters of the handlers of one actor. The lock is only contended
+     * while the profile is drained.
+     */
+    final class ActorProfile {
+        private final String name;
+        private Class<?>[] types = new Class<?>[INITIAL_CAPACITY];
+        private long[] counts = new long[INITIAL_CAPACITY];
+        private long[] totals = new long[INITIAL_CAPACITY];
+        private long[] maxes = new long[INITIAL_CAPACITY];
+        private int size;
+        private volatile boolean closed;
+
+        private ActorProfile(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records the time the actor took to handle one message
+         * @param type Class of the message
+         * @param nanos Time spent in the handler
+         */
+        synchronized void record(Class<?> type, long nanos) {
+            int index = indexOf(type);
+            this.counts[index]++;
+            this.totals[index] += nanos;
+            if (nanos > this.maxes[index]) this.maxes[index] = nanos;
+        }
+
+        /**
+         * Stops profiling the actor. What it recorded is still handed
+         * over by the next drain, after which the profile is forgotten.
+         */
+        void close() {
+            this.closed = true;
+        }
+
+        private int indexOf(Class<?> type) {
+            int mask = this.types.length - 1;
+            int index = System.identityHashCode(type) & mask;
+            Class<?> existing;
+            while ((existing = this.types[index]) != null) {
+                if (existing == type) return index;
+                index = (index+1) & mask;
+            }
+            if ((this.size+1)*2 > this.types.length) {
+                grow();
+                return indexOf(type);
+            }
+            this.types[index] = type;
+            this.size++;
+            return index;
+        }
+
+        private void grow() {
+            Class<?>[] types = this.types;
+            long[] counts = this.counts, totals = this.totals, maxes = this.maxes;
+            int capacity = types.length << 1, mask = capacity - 1;
+            this.types = new Class<?>[capacity];
+            this.counts = new long[capacity];
+            this.totals = new long[capacity];
+            this.maxes = new long[capacity];
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == null) continue;
+                int index = System.identityHashCode(types[i]) & mask;
+                while (this.types[index] != null) index = (index+1) & mask;
+                this.types[index] = types[i];
+                this.counts[index] = counts[i];
+                this.totals[index] = totals[i];
+                this.maxes[index] = maxes[i];
+            }
+        }
+
+        /**
+         * Offers the handlers which ran since the previous drain to the
+         * ranking and resets their counters. Only handlers which make it
+         * into the ranking cost an allocation.
+         */
+        synchronized void drainTo(PriorityQueue<Hot> ranking, int topK) {
+            for (int i = 0; i < this.types.length; i++) {
+                if (this.counts[i] == 0) continue;
+                if (ranking.size() < topK || this.totals[i] > ranking.peek().total) {
+                    ranking.add(new Hot(this.name, this.types[i], this.counts[i], this.totals[i], this.maxes[i]));
+                    if (ranking.size() > topK) ranking.poll();
+                }
+                this.counts[i] = 0;
+                this.totals[i] = 0;
+                this.maxes[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * One handler of the ranking, with its times in nanoseconds
+     */
+    private static final class Hot {
+        final String name;
+        final Class<?> type;
+        final long count, total, max;
+
+        Hot(String name, Class<?> type, long count, long total, long max) {
+            this.name = name;
+            this.type = type;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+    }
+
+    private static final Comparator<Hot> BY_TOTAL = Comparator.comparingLong(hot -> hot.total);
+
+    private final Set<ActorProfile> profiles = ConcurrentHashMap.newKeySet();
+    private final int topK;
+
+    /**
+     * @param topK Number of handlers handed over by every drain
+     */
+    HandlerProfiler(int topK) {
+        this.topK = Math.max(1, topK);
+    }
+
+    /**
+     * @return New profile of an actor, which is drained until it is closed
+     */
+    ActorProfile profile(String name) {
+        ActorProfile profile = new ActorProfile(name);
+        this.profiles.add(profile);
+        return profile;
+    }
+
+    /**
+     * Hands the handlers which took the most time since the previous
+     * drain over to the consumer, hottest first, and resets every profile
+     * @return Number of handlers handed over
+     */
+    synchronized int drain(HotConsumer consumer) {
+        PriorityQueue<Hot> ranking = new PriorityQueue<>(this.topK + 1, BY_TOTAL);
+        for (ActorProfile profile : this.profiles) {
+            /* a profile closed after this check is drained once more next time */
+            boolean closed = profile.closed;
+            profile.drainTo(ranking, this.topK);
+            if (closed) this.profiles.remove(profile);
+        }
+        List<Hot> hottest = new ArrayList<>(ranking);
+        hottest.sort(BY_TOTAL.reversed());
+        for (Hot hot : hottest) {
+            consumer.accept(hot.name, MessageLabels.ofType(hot.type), hot.count,
+                    TimeUnit.NANOSECONDS.toMicros(hot.total), TimeUnit.NANOSECONDS.toMicros(hot.max));
+        }
+        return hottest.size();
+    }
+
+    /**
+     * @return Number of actors being profiled
+     */
+    int size() {
+        return this.profiles.size();
+    }
+
+    /**
+     * @return The times of a handler as the body of its hot actor event
+     */
+    static Map<String, Object> toMap(long totalMicros, long maxMicros) {
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("total", totalMicros);
+        profile.put("max", maxMicros);
+        return profile;
+    }
+}
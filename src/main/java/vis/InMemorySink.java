@@ -0,0 +1,115 @@
+package vis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every frame in memory instead of sending it anywhere, so tests can
+ * inspect what the interceptor emits without a server. The sink is
+ * connected once opened, and outages can be simulated with setConnected.
+ * Requests of the server can be simulated with request.
+ */
+public final class InMemorySink implements EventSink {
+
+    /**
+     * One frame along with the socket event it was sent as
+     */
+    public static final class Frame {
+        private final String event;
+        private final byte[] bytes;
+
+        Frame(String event, byte[] bytes) {
+            this.event = event;
+            this.bytes = bytes;
+        }
+
+        public String getEvent() {
+            return this.event;
+        }
+
+        public byte[] getBytes() {
+            return this.bytes;
+        }
+    }
+
+    private final String name;
+    private final List<Frame> frames = new ArrayList<>();
+    private final Map<String, Consumer<Object[]>> handlers = new ConcurrentHashMap<>();
+    private Runnable onConnect;
+    private volatile boolean connected;
+
+    public InMemorySink() {
+        this("in-memory");
+    }
+
+    /**
+     * @param name Identifies the sink among the shards of the interceptor
+     */
+    public InMemorySink(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void open(Runnable onConnect) {
+        this.onConnect = onConnect;
+        setConnected(true);
+    }
+
+    /**
+     * Connects or disconnects the sink. Reconnecting runs the connect callback again.
+     */
+    public void setConnected(boolean connected) {
+        if (connected && !this.connected && this.onConnect != null) this.onConnect.run();
+        this.connected = connected;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public void onRequest(String request, Consumer<Object[]> handler) {
+        this.handlers.put(request, handler);
+    }
+
+    /**
+     * Hands a request to the interceptor as if the server had sent it
+     * @return False if the interceptor does not handle the request
+     */
+    public boolean request(String request, Object... args) {
+        Consumer<Object[]> handler = this.handlers.get(request);
+        if (handler == null) return false;
+        handler.accept(args);
+        return true;
+    }
+
+    /**
+     * Keeps the frame, unless the sink is disconnected
+     */
+    @Override
+    public synchronized boolean send(String event, byte[] frame) {
+        if (!this.connected) return false;
+        this.frames.add(new Frame(event, frame));
+        return true;
+    }
+
+    /**
+     * @return Copy of the frames sent so far
+     */
+    public synchronized List<Frame> getFrames() {
+        return new ArrayList<>(this.frames);
+    }
+
+    public synchronized void clear() {
+        this.frames.clear();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
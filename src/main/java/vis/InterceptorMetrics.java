@@ -0,0 +1,152 @@
+package vis;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Default metrics of the interceptor, kept in lock-free counters and
+ * histograms and exposed over JMX
+ */
+public final class InterceptorMetrics implements VisMetrics, InterceptorMetricsMXBean {
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Map<String, LongAdder> events = new ConcurrentHashMap<>();
+    /* durations of a minute and beyond are all the same to the metrics */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final LatencyHistogram serialization = new LatencyHistogram(3, HIGHEST_TRACKABLE_NANOS);
+    private final LatencyHistogram emits = new LatencyHistogram(3, HIGHEST_TRACKABLE_NANOS);
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile IntSupplier queueDepth = () -> 0;
+    private volatile IntSupplier registrySize = () -> 0;
+
+    /**
+     * Registers the metrics with the platform MBean server under a name of their own
+     * @return Name the metrics were registered under
+     */
+    ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(String.format("vis:type=Interceptor,id=%d", instances.getAndIncrement()));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    static void unregister(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    @Override
+    public void bindGauges(IntSupplier queueDepth, IntSupplier registrySize) {
+        this.queueDepth = queueDepth;
+        this.registrySize = registrySize;
+    }
+
+    @Override
+    public void onEvent(String event) {
+        LongAdder count = this.events.get(event);
+        if (count == null) count = this.events.computeIfAbsent(event, e -> new LongAdder());
+        count.increment();
+    }
+
+    @Override
+    public void onSerialized(long nanos) {
+        this.serialization.record(nanos);
+    }
+
+    @Override
+    public void onEmitted(long nanos, int bytes) {
+        this.emits.record(nanos);
+        this.bytesSent.add(bytes);
+    }
+
+    @Override
+    public void onDropped(String event) {
+        this.dropped.increment();
+    }
+
+    @Override
+    public Map<String, Long> getEventCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        this.events.forEach((event, count) -> counts.put(event, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getSerializationCount() {
+        return this.serialization.getCount();
+    }
+
+    @Override
+    public double getSerializationMeanMicros() {
+        return this.serialization.getMean() / 1000;
+    }
+
+    @Override
+    public double getSerializationP99Micros() {
+        return this.serialization.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSerializationMaxMicros() {
+        return this.serialization.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getEmitCount() {
+        return this.emits.getCount();
+    }
+
+    @Override
+    public double getEmitMeanMicros() {
+        return this.emits.getMean() / 1000;
+    }
+
+    @Override
+    public double getEmitP99Micros() {
+        return this.emits.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getEmitMaxMicros() {
+        return this.emits.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queueDepth.getAsInt();
+    }
+
+    @Override
+    public int getRegistrySize() {
+        return this.registrySize.getAsInt();
+    }
+
+    @Override
+    public void reset() {
+        this.events.values().forEach(LongAdder::reset);
+        this.serialization.reset();
+        this.emits.reset();
+        this.bytesSent.reset();
+        this.dropped.reset();
+    }
+}
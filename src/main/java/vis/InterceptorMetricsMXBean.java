@@ -0,0 +1,44 @@
+package vis;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link InterceptorMetrics}, which is registered
+ * with the platform MBean server as "vis:type=Interceptor,id=&lt;n&gt;".
+ * Durations are reported in microseconds.
+ */
+public interface InterceptorMetricsMXBean {
+    /**
+     * @return Number of intercepted events per socket event name
+     */
+    Map<String, Long> getEventCounts();
+
+    long getSerializationCount();
+
+    double getSerializationMeanMicros();
+
+    double getSerializationP99Micros();
+
+    double getSerializationMaxMicros();
+
+    long getEmitCount();
+
+    double getEmitMeanMicros();
+
+    double getEmitP99Micros();
+
+    double getEmitMaxMicros();
+
+    long getBytesSent();
+
+    long getDroppedEvents();
+
+    int getQueueDepth();
+
+    int getRegistrySize();
+
+    /**
+     * Starts every counter and histogram over
+     */
+    void reset();
+}
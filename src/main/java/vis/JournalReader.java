@@ -0,0 +1,132 @@
+package vis;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Reads the events of a recording made by {@link EventJournal} in the
+ * order they were recorded, optionally starting at a point in time which
+ * is looked up in the sparse index. Instances are not thread-safe.
+ */
+final class JournalReader {
+    private static final EventType[] TYPES = EventType.values();
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    private final Path directory;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final long[] indexTimes;
+    private final int[] indexSegments;
+    private final int[] indexPositions;
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private int startPosition = EventJournal.HEADER_SIZE;
+    private long skipBefore = Long.MIN_VALUE;
+
+    JournalReader(Path directory) throws IOException {
+        this.directory = directory;
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(EventJournal.INDEX_FILE)));
+        int entries = index.remaining() / EventJournal.INDEX_ENTRY_SIZE;
+        this.indexTimes = new long[entries];
+        this.indexSegments = new int[entries];
+        this.indexPositions = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            this.indexTimes[i] = index.getLong();
+            this.indexSegments[i] = index.getInt();
+            this.indexPositions[i] = index.getInt();
+        }
+    }
+
+    /**
+     * Positions the reader at the last indexed record which is not later
+     * than the given time, and skips any record before that time
+     * @param time Epoch microseconds to start reading at
+     */
+    void seek(long time) {
+        int entry = -1;
+        /* the index is small and times of concurrent producers may be slightly out of order */
+        for (int i = 0; i < this.indexTimes.length; i++) {
+            if (this.indexTimes[i] <= time) entry = i;
+        }
+        this.segment = null;
+        this.segmentNumber = entry < 0 ? 0 : this.indexSegments[entry];
+        this.startPosition = entry < 0 ? EventJournal.HEADER_SIZE : this.indexPositions[entry];
+        this.skipBefore = time;
+    }
+
+    /**
+     * Reads the next event of the recording into the slot
+     * @return False once the end of the recording is reached
+     */
+    boolean next(EventSlot slot) throws IOException {
+        while (true) {
+            if (this.segment == null && !open()) return false;
+
+            int length = this.segment.remaining() < Integer.BYTES ? 0 : this.segment.getInt();
+            if (length == 0) {
+                this.segment = null;
+                this.segmentNumber++;
+                this.startPosition = EventJournal.HEADER_SIZE;
+                continue;
+            }
+            int end = this.segment.position() + length;
+            EventType type = TYPES[this.segment.get()];
+            long time = readVarLong();
+            long seq = readVarLong();
+            long count = readVarLong();
+            String name = readString(), label = readString(), from = readString(), to = readString();
+            byte[] state = readBytes();
+            this.segment.position(end);
+            if (time < this.skipBefore) continue;
+
+            slot.set(type, time, name, label, from, to,
+                    state == null ? null : this.mapper.readValue(state, STATE_TYPE), count);
+            slot.seq = seq;
+            return true;
+        }
+    }
+
+    private boolean open() throws IOException {
+        Path path = EventJournal.segmentPath(this.directory, this.segmentNumber);
+        if (!Files.exists(path)) return false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (this.segment.getInt() != EventJournal.MAGIC || this.segment.getInt() != EventJournal.VERSION)
+            throw new IOException(String.format("%s is not a recording segment of version %d", path, EventJournal.VERSION));
+        this.segment.position(this.startPosition);
+        return true;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = this.segment.get() & 0xFF;
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in recording");
+    }
+
+    private byte[] readBytes() throws IOException {
+        long length = readVarLong();
+        if (length == 0) return null;
+        byte[] bytes = new byte[(int)(length - 1)];
+        this.segment.get(bytes);
+        return bytes;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = readBytes();
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
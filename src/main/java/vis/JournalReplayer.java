@@ -0,0 +1,92 @@
+package vis;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a recording made in journal mode back into the visualizer,
+ * either at the pace it was recorded, scaled by a speed factor, or as
+ * fast as possible. Usage:
+ * <pre>
+ * JournalReplayer &lt;recording directory&gt; [speed | max] [start time in epoch ms]
+ * </pre>
+ */
+public final class JournalReplayer {
+
+    /**
+     * Receives the replayed events. The slot is reused for the next event.
+     */
+    interface Target {
+        void accept(EventSlot event) throws IOException;
+    }
+
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+
+    private final Path directory;
+
+    /**
+     * @param directory Directory of the recording
+     */
+    public JournalReplayer(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replays the recording into the target
+     * @param fromTime Epoch microseconds to start at, or Long.MIN_VALUE for the beginning
+     * @param speed Factor by which the recorded pace is sped up,
+     *              or Double.POSITIVE_INFINITY for no pacing at all
+     * @return Number of replayed events
+     */
+    long replay(long fromTime, double speed, Target target) throws IOException, InterruptedException {
+        JournalReader reader = new JournalReader(this.directory);
+        if (fromTime != Long.MIN_VALUE) reader.seek(fromTime);
+
+        EventSlot slot = new EventSlot();
+        long replayed = 0, firstTime = 0, start = 0;
+        while (reader.next(slot)) {
+            if (replayed == 0) {
+                firstTime = slot.time;
+                start = System.nanoTime();
+            }
+            else if (!Double.isInfinite(speed)) {
+                long due = start + (long)(TimeUnit.MICROSECONDS.toNanos(slot.time - firstTime) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            target.accept(slot);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplayer <recording directory> [speed | max] [start time in epoch ms]");
+            System.exit(1);
+        }
+        double speed = args.length < 2 ? 1 :
+                "max".equalsIgnoreCase(args[1]) ? Double.POSITIVE_INFINITY : Double.parseDouble(args[1]);
+        long fromTime = args.length < 3 ? Long.MIN_VALUE : TimeUnit.MILLISECONDS.toMicros(Long.parseLong(args[2]));
+
+        VisSettings settings = VisSettings.load();
+        EventEncoder encoder = settings.getWireFormat() == VisSettings.WireFormat.BINARY ?
+                new BinaryEventEncoder() : new EventSerializer(settings.isJsonPreciseTime());
+        EventSink sink = MyVisualizerClient.createSink(settings);
+        sink.open(encoder::onConnect);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (!sink.isConnected() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        if (!sink.isConnected()) {
+            System.err.println(String.format("Could not connect to %s", sink));
+            System.exit(1);
+        }
+
+        SinkTarget target = new SinkTarget(sink, encoder);
+        long replayed = new JournalReplayer(Paths.get(args[0])).replay(fromTime, speed, target);
+        System.out.println(String.format("Replayed %d events, of which %d were dropped", replayed, target.getDropped()));
+        sink.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,113 @@
+package vis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations of a fixed size in the manner of an HDR
+ * histogram: every power of two range of values is split into the same
+ * number of linear buckets, so every recorded value is known within a fixed
+ * relative error (1/8 with three precision bits) however large it is, while
+ * the memory stays fixed at a few hundred counters. Values beyond the
+ * highest trackable value are recorded as that value. Recording costs a few
+ * atomic increments only, and percentiles are reported as the upper bound
+ * of their bucket.
+ */
+final class LatencyHistogram {
+    private final int precisionBits;
+    private final long subBucketMask;
+    private final long highestTrackable;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param precisionBits Bits of every value which are kept, i.e. 2^bits buckets per power of two
+     * @param highestTrackable Highest value which is told apart from larger ones
+     */
+    LatencyHistogram(int precisionBits, long highestTrackable) {
+        this.precisionBits = Math.max(1, Math.min(precisionBits, 10));
+        this.subBucketMask = (1L << this.precisionBits) - 1;
+        this.highestTrackable = Math.max(highestTrackable, 1L << this.precisionBits);
+        this.buckets = new AtomicLongArray(index(this.highestTrackable) + 1);
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        this.buckets.incrementAndGet(index(Math.min(value, this.highestTrackable)));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        if (value > this.max.get()) this.max.accumulateAndGet(value, Math::max);
+    }
+
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return Mean of the recorded values, or zero if nothing was recorded
+     */
+    double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double)this.sum.get() / count;
+    }
+
+    long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Highest value of the bucket the percentile falls in, but at most the maximum
+     */
+    long getPercentile(double percentile) {
+        int buckets = this.buckets.length();
+        long[] counts = new long[buckets];
+        long total = 0;
+        for (int i = 0; i < buckets; i++) total += counts[i] = this.buckets.get(i);
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) this.buckets.set(i, 0);
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * @return Number of buckets, which is what the histogram takes in memory besides its header
+     */
+    int buckets() {
+        return this.buckets.length();
+    }
+
+    /**
+     * Values below 2^bits have a bucket each. Above, the bucket is chosen
+     * by the power of two of the value and its next highest bits.
+     */
+    int index(long value) {
+        if (value <= this.subBucketMask) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - this.precisionBits;
+        return ((shift + 1) << this.precisionBits) + (int)((value >>> shift) & this.subBucketMask);
+    }
+
+    /**
+     * @return Highest value which falls into the bucket
+     */
+    long upperBound(int index) {
+        if (index <= this.subBucketMask) return index;
+        int shift = (index >>> this.precisionBits) - 1;
+        long mantissa = (index & this.subBucketMask) + (1L << this.precisionBits);
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,230 @@
+package vis;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.dispatch.Dispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the messages sent to, received and processed by every registered
+ * actor, so that a sample of what every actor went through since the
+ * previous one, along with the load of the default dispatcher, can be
+ * emitted periodically. Akka does not tell the depth of a mailbox, so the
+ * backlog of an actor is derived from the messages told to it through
+ * traced references which it has not received yet.
+ */
+final class MailboxSampler {
+
+    /**
+     * Counters of one actor. Sends are counted by any thread, while receipts
+     * are only counted by the actor itself, one message at a time.
+     */
+    static final class Counters {
+        private final LongAdder sent = new LongAdder();
+        /* written by the actor alone, so the increments need not be atomic */
+        private volatile long received;
+        private volatile long receivedSent;
+        private volatile long processed;
+        private volatile boolean closed;
+        /* the counts of the previous sample, only touched by the sampler */
+        private long sampledReceived;
+        private long sampledProcessed;
+
+        /**
+         * Counts a message told through a traced reference, before it is told
+         */
+        void onSent() {
+            this.sent.increment();
+        }
+
+        /**
+         * @param counted Whether the message was counted as sent
+         */
+        void onReceived(boolean counted) {
+            this.received++;
+            if (counted) this.receivedSent++;
+        }
+
+        void onProcessed() {
+            this.processed++;
+        }
+
+        /**
+         * @return Whether the actor has been destroyed, so its counters are stale
+         */
+        boolean isClosed() {
+            return this.closed;
+        }
+
+        /**
+         * @return Messages told through traced references which the actor has not received yet
+         */
+        long getBacklog() {
+            /* the receipt is read first, so a message received meanwhile cannot make the backlog negative */
+            long receivedSent = this.receivedSent;
+            return Math.max(0, this.sent.sum() - receivedSent);
+        }
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(MailboxSampler.class);
+    private final Map<String, Counters> actors = new ConcurrentHashMap<>();
+    private final LongAdder busyNanos = new LongAdder();
+    private volatile Executor dispatcher;
+    private long sampledNanos = System.nanoTime();
+
+    /**
+     * @return New counters of a registered actor, replacing those of a destroyed actor of the same name
+     */
+    Counters register(String actorName) {
+        Counters counters = new Counters();
+        Counters previous = this.actors.put(actorName, counters);
+        if (previous != null) previous.closed = true;
+        return counters;
+    }
+
+    /**
+     * @return Counters of the actor, or null if it is not registered
+     */
+    Counters get(String actorName) {
+        return actorName == null ? null : this.actors.get(actorName);
+    }
+
+    void unregister(String actorName) {
+        Counters counters = this.actors.remove(actorName);
+        if (counters != null) counters.closed = true;
+    }
+
+    /**
+     * Adds the time a traced actor spent handling a message to the busy
+     * time of the dispatcher
+     */
+    void onBusy(long nanos) {
+        this.busyNanos.add(nanos);
+    }
+
+    /**
+     * Samples the thread pool of the default dispatcher of the system from
+     * now on. Only the first system bound is sampled. The pool is reached
+     * through Dispatcher.executorService(), which Akka does not count as
+     * public API, so if another version of Akka moves it, only the actors
+     * are sampled from then on.
+     */
+    void bind(ActorSystem<?> system) {
+        if (this.dispatcher != null) return;
+        Executor executor = system.dispatchers().lookup(DispatcherSelector.defaultDispatcher());
+        if (executor instanceof Dispatcher) {
+            try {
+                executor = ((Dispatcher)executor).executorService().executor();
+            }
+            catch(LinkageError | RuntimeException ex) {
+                logger.warn("The thread pool of the default dispatcher cannot be sampled", ex);
+            }
+        }
+        this.dispatcher = executor;
+    }
+
+    /**
+     * Takes a sample of every actor which received messages since the
+     * previous sample or still has a backlog, as a map from the actor names
+     * to arrays of the messages received, the messages processed and the
+     * backlog, along with the load of the dispatcher
+     * @return The body of the metrics event
+     */
+    synchronized Map<String, Object> sample() {
+        long now = System.nanoTime(), elapsed = Math.max(1, now - this.sampledNanos);
+        this.sampledNanos = now;
+
+        Map<String, Object> actors = new LinkedHashMap<>();
+        for (Map.Entry<String, Counters> entry : this.actors.entrySet()) {
+            Counters counters = entry.getValue();
+            long received = counters.received, processed = counters.processed, backlog = counters.getBacklog();
+            if (received == counters.sampledReceived && processed == counters.sampledProcessed && backlog == 0) continue;
+            List<Long> sample = Arrays.asList(received - counters.sampledReceived,
+                    processed - counters.sampledProcessed, backlog);
+            counters.sampledReceived = received;
+            counters.sampledProcessed = processed;
+            actors.put(entry.getKey(), sample);
+        }
+
+        return toMap(sampleDispatcher(this.busyNanos.sumThenReset(), elapsed), actors);
+    }
+
+    /**
+     * @return The size and the load of the dispatcher's thread pool. The
+     *         utilization is the share of the pool's time which traced
+     *         actors spent handling messages, while the active threads and
+     *         queued tasks are read right now.
+     */
+    private Map<String, Object> sampleDispatcher(long busy, long elapsed) {
+        Map<String, Object> dispatcher = new LinkedHashMap<>();
+        Executor executor = this.dispatcher;
+        int parallelism = 0;
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool)executor;
+            parallelism = pool.getParallelism();
+            dispatcher.put("threads", pool.getPoolSize());
+            dispatcher.put("active", pool.getActiveThreadCount());
+            dispatcher.put("queued", pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+        else if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
+            parallelism = pool.getMaximumPoolSize();
+            dispatcher.put("threads", pool.getPoolSize());
+            dispatcher.put("active", pool.getActiveCount());
+            dispatcher.put("queued", pool.getQueue().size());
+        }
+        if (parallelism > 0) {
+            dispatcher.put("parallelism", parallelism);
+            /* rounded to a permille, which is plenty to size the nodes by */
+            dispatcher.put("utilization", Math.min(1000, busy * 1000 / (elapsed * parallelism)) / 1000.0);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * @return Number of actors whose messages are counted
+     */
+    int size() {
+        return this.actors.size();
+    }
+
+    /**
+     * @param dispatcher Load of the dispatcher by the name of every measure
+     * @param actors Lists of the messages received, the messages processed and the backlog by actor name
+     * @return The body of a metrics event
+     */
+    static Map<String, Object> toMap(Map<String, Object> dispatcher, Map<String, Object> actors) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("dispatcher", dispatcher);
+        metrics.put("actors", actors);
+        return metrics;
+    }
+
+    /**
+     * @return Load of the dispatcher in the body of a metrics event
+     */
+    static Map<?, ?> dispatcherOf(Map<String, Object> metrics) {
+        Object dispatcher = metrics == null ? null : metrics.get("dispatcher");
+        return dispatcher instanceof Map ? (Map<?, ?>)dispatcher : Collections.emptyMap();
+    }
+
+    /**
+     * @return Counts of the actors in the body of a metrics event
+     */
+    static Map<?, ?> actorsOf(Map<String, Object> metrics) {
+        Object actors = metrics == null ? null : metrics.get("actors");
+        return actors instanceof Map ? (Map<?, ?>)actors : Collections.emptyMap();
+    }
+}
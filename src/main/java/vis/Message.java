@@ -1,11 +1,27 @@
 package vis;
 
 /**
- * Every message should implement this interface
- * in order for vis to get the sender's key and find
- * the actor ref of the sender of the message.
+ * Messages which are notified with MessageWrapper should implement
+ * this interface in order for vis to get the sender's key and find
+ * the actor ref of the sender of the message. Messages between traced
+ * actors need not, as their traced refs carry the sender.
  * @author Siddhanth Venkateshwaran
  */
 public interface Message {
+    /**
+     * Send time of a message which was not stamped
+     */
+    long UNSTAMPED = Long.MIN_VALUE;
+
     long getSenderKey();
+
+    /**
+     * Messages which take System.nanoTime() when they are created, i.e.
+     * sent, let vis record how long they were queued once edge latencies
+     * are enabled
+     * @return System.nanoTime() when the message was sent, or UNSTAMPED
+     */
+    default long getSendTimeNanos() {
+        return UNSTAMPED;
+    }
 }
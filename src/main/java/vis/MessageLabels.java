@@ -0,0 +1,26 @@
+package vis;
+
+/**
+ * Caches the label of every message class, i.e. its simple name, so
+ * that the reflective lookup only happens once per class instead of
+ * once per intercepted message
+ */
+final class MessageLabels {
+    private static final ClassValue<String> LABELS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName();
+        }
+    };
+
+    private MessageLabels() {
+    }
+
+    static String of(Object message) {
+        return LABELS.get(message.getClass());
+    }
+
+    static String ofType(Class<?> type) {
+        return LABELS.get(type);
+    }
+}
@@ -1,173 +1,441 @@
 package vis;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.socket.client.IO;
-import io.socket.client.Socket;
+import akka.actor.typed.ActorSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.URI;
-import java.util.Date;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * This class intercepts all required actor system events
- * and emits socket events to the node JS server for each of them
+ * and emits socket events to the node JS server for each of them.
+ * In pipeline mode the events are only enqueued on the calling actor's
+ * thread and are sent as "eventBatch" frames by a background flusher.
+ * In aggregation mode message receipts are only counted per edge and
+ * are emitted as periodic "edgeDelta" events instead.
+ * In journal mode the events are recorded to memory-mapped files, which
+ * JournalReplayer can stream into the visualizer later on.
+ * With several servers configured, the events are sharded across them by
+ * the actor they belong to, see ShardRing.
+ * With the emitter enabled, events which are not pipelined are emitted by
+ * an EmitterExecutor rather than on the calling actor's thread.
+ * Actors may register a supplier of their state instead of syncing it
+ * themselves, which the client samples at a rate of its own, e.g. only
+ * for the actors the server currently displays.
  * @author Siddhanth Venkateshwaran
  */
-public class MyVisualizerClient {
+public class MyVisualizerClient implements AutoCloseable {
 
     /**
-     * Represents a generic actor event with the timestamp and state
-     * being serialized
+     * This class is used to access the sender of a message using
+     * the unique key of the actor entity which was inserted at the
+     * time of creation.
      */
-    static class Event implements Serializable {
-        private final long time;
-        private final Map<String, Object> state;
+    public class MessageWrapper {
+        Message message;
+        String receiver;
+        long timestamp = -1;
+        long timestampMicros = -1;
+        long sequence = -1;
 
-        public Event(long time) {
-            this(time, new HashMap<>());
+        public void setReceiver(String receiver) {
+            this.receiver = receiver;
         }
 
-        @JsonCreator
-        public Event(@JsonProperty("time") long time,
-                     @JsonProperty("state") Map<String, Object> state) {
-            this.time = time;
-            this.state = state;
+        public Message getMessage() {
+            return this.message;
         }
 
-        public long getTime() {
-            return this.time;
+        public void setMessage(Message msg) {
+            this.message = msg;
         }
 
-        public Map<String, Object> getState() {
-            return this.state;
+        public void emit(String event) {
+            String label = MessageLabels.of(this.message), sender = getActorName(this.message.getSenderKey());
+            this.timestampMicros = receive(label, sender, this.receiver, this);
+            this.timestamp = this.timestampMicros / 1000;
+            /* the message is only being received, so its latency is the time it was queued */
+            recordLatency(label, sender, this.receiver, this.message.getSendTimeNanos());
+            MailboxSampler.Counters counters = mailboxes == null ? null : mailboxes.get(this.receiver);
+            if (counters != null) counters.onReceived(false);
         }
-    }
 
-    /**
-     * This represents the spawn/destroy event of an actor entity
-     */
-    static class ActorEvent extends Event implements Serializable {
-        private final String name;
+        public void notify(String receiver, String event, Message msg) {
+            this.setReceiver(receiver);
+            this.setMessage(msg);
+            this.emit(event);
+        }
+
+        public void notify(String receiver, Message m) {
+            this.notify(receiver, "receive", m);
+        }
 
-        @JsonCreator
-        public ActorEvent(@JsonProperty("name") String name,
-                          @JsonProperty("time") long time) {
-            super(time);
-            this.name = name;
+        public long getTimestamp() {
+            return this.timestamp;
         }
 
-        public long getTime() {
-            return super.getTime();
+        /**
+         * @return Timestamp of the last notified receipt in microseconds since the epoch
+         */
+        public long getTimestampMicros() {
+            return this.timestampMicros;
         }
 
-        public String getName() {
-            return this.name;
+        /**
+         * @return Sequence number of the last notified receipt, or -1 if it was
+         *         not emitted on its own (e.g. in aggregation mode)
+         */
+        public long getSequence() {
+            return this.sequence;
         }
     }
 
     /**
-     * This represents the message receipt event notified by one
-     * registered actor entity
+     * Connection to one visualizer server, along with the encoder of its
+     * stream, as the binary dictionaries are kept per connection
      */
-    static class MessageEvent extends Event implements Serializable {
-        private final String label, to, event;
-        private final String from;
+    private static final class Shard {
+        final EventSink sink;
+        final EventEncoder encoder;
+        /* actors the server displays, or null for every actor */
+        volatile Set<String> displayed;
+        /* compression dictionary the server has, or null if it has to be sent first */
+        volatile byte[] dictionary;
 
-        @JsonCreator
-        public MessageEvent(@JsonProperty("event") String event,
-                            @JsonProperty("label") String label,
-                            @JsonProperty("from") String from,
-                            @JsonProperty("to") String to,
-                            @JsonProperty("time") long time) {
-            super(time);
-            this.event = event;
-            this.label = label;
-            this.to = to;
-            this.from = from;
+        Shard(EventSink sink, EventEncoder encoder) {
+            this.sink = sink;
+            this.encoder = encoder;
         }
+    }
 
-        public String getEvent() {
-            return event;
-        }
+    /**
+     * Writes the events drained by the pipeline's flusher thread into
+     * one batch frame per shard and emits them once the batch is complete
+     */
+    private class BatchEmitter implements EventPipeline.BatchHandler {
 
-        public String getLabel() {
-            return label;
+        public void onEvent(EventSlot slot) {
+            if (!prepare(slot) || !record(slot)) return;
+            if (compressor != null) compressor.observe(slot);
+            boolean patch = slot.type == EventType.STATE_PATCH;
+            int primary = primaryShard(slot), secondary = secondaryShard(slot, primary);
+            for (int i = 0; i < shards.length; i++) {
+                if (primary >= 0 && i != primary && i != secondary) continue;
+                EventEncoder encoder = shards[i].encoder;
+                long start = metricsTime();
+                try {
+                    if (!encoder.inBatch()) encoder.beginBatch();
+                    encoder.writeBatchEntry(slot);
+                }
+                catch(IOException ex) {
+                    ex.printStackTrace();
+                }
+                metrics.onSerialized(metricsTime() - start);
+            }
+            if (patch) onPatchEncoded(slot);
         }
 
-        public String getFrom() {
-            return from;
+        public void onFlush() {
+            for (Shard shard : shards) {
+                /* a shard without entries, e.g. as the whole batch was filtered out, keeps its frame open */
+                if (shard.encoder.batched() == 0) continue;
+                int entries = shard.encoder.batched();
+                long start = metricsTime();
+                byte[] frame = shard.encoder.endBatch();
+                String event = shard.encoder.getBatchEvent();
+                byte[] deflated = compressor == null ? null : compressor.compress(frame);
+                if (deflated != null) {
+                    byte[] dictionary = compressor.getDictionary();
+                    /* without the dictionary the server could not inflate the frame, so it goes out as it is */
+                    if (shard.dictionary != dictionary && shard.sink.send(FrameCompressor.DICTIONARY_EVENT, dictionary))
+                        shard.dictionary = dictionary;
+                    if (shard.dictionary == dictionary) {
+                        frame = deflated;
+                        event = FrameCompressor.deflated(event);
+                    }
+                }
+                long encoded = metricsTime();
+                metrics.onSerialized(encoded - start);
+                if (shard.sink.send(event, frame)) metrics.onEmitted(metricsTime() - encoded, frame.length);
+                else onDropped(shard, event, entries);
+            }
         }
+    }
 
-        public String getTo() {
-            return to;
-        }
+    private final static Logger logger = LoggerFactory.getLogger(MyVisualizerClient.class);
+    /* one line per intercepted event, far too costly to be on by default */
+    private final static Logger eventLogger = LoggerFactory.getLogger("vis.events");
+    private final Shard[] shards;
+    private final ShardRing ring;
+    private final ActorRegistry registry;
+    private final StateValueSerializers stateValues;
+    private final long maxStateBytes;
+    private final boolean copyStates;
+    private final EventPipeline pipeline;
+    private final FrameCompressor compressor;
+    private final EmitterExecutor emitter;
+    private final Map<String, Supplier<Map<String, Object>>> stateSuppliers = new ConcurrentHashMap<>();
+    /* actors whose suppliers failed at the last sample, so that a supplier which keeps failing is logged once */
+    private final Set<String> failingSuppliers = ConcurrentHashMap.newKeySet();
+    private final VisSettings.StateSampling sampling;
+    private final long samplingIntervalMs;
+    private boolean samplingStarted;
+    private final EdgeAggregator aggregator;
+    private final EdgeLatencies latencies;
+    private final HandlerProfiler profiler;
+    private final MailboxSampler mailboxes;
+    private final StateDiffer stateDiffer;
+    private final StateCoalescer coalescer;
+    private final SendBuffer sendBuffer;
+    private final EventJournal journal;
+    private final boolean live;
+    private final VisClock clock = new VisClock();
+    private final VisMetrics metrics;
+    private final boolean timed;
+    private final ObjectName metricsName;
+    private final EventSlot scratch = new EventSlot();
+    /* events of the frames the sinks dropped */
+    private final LongAdder sinkDropped = new LongAdder();
+    private ScheduledExecutorService scheduler;
 
-        public long getTime() {
-            return super.getTime();
-        }
+    public MyVisualizerClient() {
+        this(VisSettings.load());
+    }
+
+    public MyVisualizerClient(VisSettings settings) {
+        this(settings, null);
     }
 
     /**
-     * This class is used to access the sender of a message using
-     * the unique key of the actor entity which was inserted at the
-     * time of creation.
+     * @param metrics Receives the measurements of the interceptor, or null
+     *                for the default metrics as configured in the settings
      */
-    public class MessageWrapper {
-        Message message;
-        String receiver;
-        long timestamp = -1;
+    public MyVisualizerClient(VisSettings settings, VisMetrics metrics) {
+        this(settings, metrics, createSinks(settings));
+    }
 
-        public void setReceiver(String receiver) {
-            this.receiver = receiver;
-        }
+    /**
+     * @param metrics Receives the measurements of the interceptor, or null
+     *                for the default metrics as configured in the settings
+     * @param sink Transport of the encoded frames, instead of the configured one
+     */
+    public MyVisualizerClient(VisSettings settings, VisMetrics metrics, EventSink sink) {
+        this(settings, metrics, Collections.singletonList(sink));
+    }
 
-        public Message getMessage() {
-            return this.message;
-        }
+    /**
+     * @param metrics Receives the measurements of the interceptor, or null
+     *                for the default metrics as configured in the settings
+     * @param sinks Transports to the servers the events are sharded across,
+     *              instead of the configured ones. The events of an actor
+     *              go to the sink its name hashes to on a ring of the sinks,
+     *              which are identified by their toString().
+     */
+    public MyVisualizerClient(VisSettings settings, VisMetrics metrics, List<? extends EventSink> sinks) {
+        this(settings, metrics, sinks, null);
+    }
 
-        public void setMessage(Message msg) {
-            this.message = msg;
+    /**
+     * @param metrics Receives the measurements of the interceptor, or null
+     *                for the default metrics as configured in the settings
+     * @param sinks Transports to the servers the events are sharded across
+     * @param emitterExecutor Runs the emitter when it is enabled, e.g. an Akka
+     *                        dispatcher, instead of the configured threads
+     */
+    public MyVisualizerClient(VisSettings settings, VisMetrics metrics, List<? extends EventSink> sinks,
+                              Executor emitterExecutor) {
+        if (sinks.isEmpty()) throw new IllegalArgumentException("There has to be at least one sink");
+        this.registry = settings.getRegistryType() == VisSettings.RegistryType.COMPACT ?
+                new CompactActorRegistry() : new ConcurrentActorRegistry();
+        this.stateValues = StateValueSerializers.create(settings, this.registry::keyOf);
+        this.maxStateBytes = settings.getStateMaxBytes();
+        this.copyStates = settings.isStateCopyEnabled();
+        this.shards = new Shard[sinks.size()];
+        List<String> endpoints = new ArrayList<>(sinks.size());
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(sinks.get(i), createEncoder(settings));
+            endpoints.add(String.valueOf(sinks.get(i)));
         }
-
-        public void emit(String event) {
-            this.timestamp =
-                    receive(this.message.getClass().getSimpleName(), getActorName(this.message.getSenderKey()), this.receiver);
+        this.ring = this.shards.length > 1 ? new ShardRing(endpoints, settings.getSinkVirtualNodes()) : null;
+        if (metrics == null) metrics = settings.isMetricsEnabled() ? new InterceptorMetrics() : VisMetrics.NOOP;
+        this.metrics = metrics;
+        this.timed = metrics != VisMetrics.NOOP;
+        this.metricsName = metrics instanceof InterceptorMetrics && settings.isMetricsJmxEnabled() ?
+                registerMetrics((InterceptorMetrics)metrics) : null;
+        this.journal = settings.isJournalEnabled() ? openJournal(settings) : null;
+        this.live = this.journal == null || settings.isJournalLive();
+        this.sendBuffer = new SendBuffer(settings.getSendBufferBytes(), settings.getOverflowPolicy(),
+                settings.getBlockTimeoutMs(), this::onDropped);
+        this.coalescer = settings.isPipelineEnabled() && settings.isStateCoalescingEnabled() ? new StateCoalescer() : null;
+        /* a recording keeps full states, so that replaying it from any point shows complete nodes */
+        this.stateDiffer = settings.isStateDiffEnabled() && this.journal == null ?
+                new StateDiffer(settings.getFullSnapshotIntervalMs()) : null;
+        /* only the batch frames of the pipeline are large enough to be worth compressing */
+        this.compressor = settings.isPipelineEnabled() && settings.isCompressionEnabled() ?
+                new FrameCompressor(settings, this.registry, settings.getWireFormat() == VisSettings.WireFormat.JSON) : null;
+        this.pipeline = settings.isPipelineEnabled() ?
+                new EventPipeline(settings.getPipelineCapacity(), settings.getBatchSize(),
+                        settings.getFlushIntervalMs(), new BatchEmitter(),
+                        this.sendBuffer, this.live ? this::isConnected : () -> true) : null;
+        /* the flusher already emits the pipelined events on a thread of its own */
+        this.emitter = settings.isEmitterEnabled() && this.pipeline == null ?
+                new EmitterExecutor(settings, emitterExecutor) : null;
+        this.metrics.bindGauges(this::getQueueDepth, this.registry::size);
+        this.sampling = settings.getStateSampling();
+        this.samplingIntervalMs = settings.getStateSamplingIntervalMs();
+        this.aggregator = settings.isAggregationEnabled() ? new EdgeAggregator() : null;
+        if (this.aggregator != null) {
+            long interval = settings.getAggregationIntervalMs();
+            scheduler().scheduleAtFixedRate(this::flushEdges, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        this.latencies = settings.isEdgeLatencyEnabled() ?
+                new EdgeLatencies(settings.getEdgeLatencyPrecisionBits(), settings.getEdgeLatencyMaxEdges()) : null;
+        if (this.latencies != null) {
+            long interval = settings.getEdgeLatencyIntervalMs();
+            scheduler().scheduleAtFixedRate(this::flushLatencies, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        this.profiler = settings.isProfilingEnabled() ? new HandlerProfiler(settings.getProfilingTopK()) : null;
+        if (this.profiler != null) {
+            long interval = settings.getProfilingIntervalMs();
+            scheduler().scheduleAtFixedRate(this::flushProfiles, interval, interval, TimeUnit.MILLISECONDS);
         }
+        this.mailboxes = settings.isMailboxSamplingEnabled() ? new MailboxSampler() : null;
+        if (this.mailboxes != null) {
+            long interval = settings.getMailboxSamplingIntervalMs();
+            scheduler().scheduleAtFixedRate(this::flushMetrics, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (!this.live) return;
 
-        public void notify(String receiver, String event, Message msg) {
-            this.setReceiver(receiver);
-            this.setMessage(msg);
-            this.emit(event);
+        for (Shard shard : this.shards) {
+            shard.sink.onRequest("displayActors", args -> shard.displayed = args.length == 0 ? null : names(args[0]));
+            shard.sink.onRequest("requestState", args -> {
+                if (args.length == 0 || args[0] == null) requestStates();
+                else for (String name : names(args[0])) requestState(name);
+            });
+            shard.sink.open(() -> {
+                shard.encoder.onConnect();
+                /* a server which restarted displays nothing yet, and a new one has to say what it displays */
+                shard.displayed = null;
+                shard.dictionary = null;
+                this.sendBuffer.onConnect();
+                if (this.stateDiffer != null) this.stateDiffer.invalidate();
+            });
         }
+    }
 
-        public void notify(String receiver, Message m) {
-            this.notify(receiver, "receive", m);
+    /**
+     * @param value A name, or a list of names, as sent by the server
+     * @return The names, or null for every actor
+     */
+    private static Set<String> names(Object value) {
+        if (value == null) return null;
+        Set<String> names = new HashSet<>();
+        if (value instanceof Collection) {
+            for (Object name : (Collection<?>)value) names.add(String.valueOf(name));
         }
+        else names.add(String.valueOf(value));
+        return names;
+    }
 
-        public long getTimestamp() {
-            return this.timestamp;
+    private EventEncoder createEncoder(VisSettings settings) {
+        EventSerializer serializer = new EventSerializer(this.stateValues, this.maxStateBytes, settings.isJsonPreciseTime());
+        return settings.getWireFormat() == VisSettings.WireFormat.BINARY ? new BinaryEventEncoder(serializer) : serializer;
+    }
+
+    /**
+     * Creates the transports to every server configured in the settings,
+     * which are not connected yet
+     */
+    static List<EventSink> createSinks(VisSettings settings) {
+        List<String> endpoints = settings.getSinkEndpoints();
+        if (endpoints.isEmpty()) return Collections.singletonList(createSink(settings));
+        List<EventSink> sinks = new ArrayList<>(endpoints.size());
+        for (String endpoint : endpoints) sinks.add(createSink(settings, endpoint));
+        return sinks;
+    }
+
+    /**
+     * Creates the transport to the single server configured in the settings,
+     * which is not connected yet
+     */
+    static EventSink createSink(VisSettings settings) {
+        return createSink(settings, null);
+    }
+
+    /**
+     * @param endpoint URI of a socket.io server or "host:port" of a TCP
+     *                 receiver, or null for the one configured by itself
+     */
+    private static EventSink createSink(VisSettings settings, String endpoint) {
+        switch (settings.getSinkType()) {
+            case IN_MEMORY:
+                return endpoint == null ? new InMemorySink() : new InMemorySink(endpoint);
+            case TCP: {
+                String nodeId = settings.getSinkNodeId().isEmpty() ?
+                        ManagementFactory.getRuntimeMXBean().getName() : settings.getSinkNodeId();
+                InetSocketAddress address;
+                if (endpoint == null) address = new InetSocketAddress(settings.getSinkHost(), settings.getSinkPort());
+                else {
+                    int colon = endpoint.lastIndexOf(':');
+                    if (colon < 0) throw new IllegalArgumentException(String.format("Endpoint %s is not host:port", endpoint));
+                    address = new InetSocketAddress(endpoint.substring(0, colon),
+                            Integer.parseInt(endpoint.substring(colon + 1)));
+                }
+                return new TcpEventSink(address, nodeId, settings.getSinkMaxPendingBytes());
+            }
+            default:
+                return new SocketIoSink(URI.create(endpoint == null ? settings.getSinkUri() : endpoint), settings);
         }
     }
 
-    private final static Socket socket = IO.socket(URI.create("http://localhost:3001"));
-    private final static Logger logger = LoggerFactory.getLogger(MyVisualizerClient.class);
-    private long key;
-    private final Map<Long, String> keyRef;
-    private final Map<String, Long> invertedKeyRef;
+    private static ObjectName registerMetrics(InterceptorMetrics metrics) {
+        try {
+            return metrics.register();
+        }
+        catch(JMException ex) {
+            logger.warn("Could not register the interceptor metrics with JMX", ex);
+            return null;
+        }
+    }
 
-    public MyVisualizerClient() {
-        socket.connect();
-        socket.emit("setSocketId", "actorHandler");
-        this.key = 0;
-        this.keyRef = new HashMap<>();
-        this.invertedKeyRef = new HashMap<>();
+    /**
+     * Starts a new recording in a directory named after the current time
+     */
+    private EventJournal openJournal(VisSettings settings) {
+        Path directory = Paths.get(settings.getJournalDirectory(), String.valueOf(System.currentTimeMillis()));
+        try {
+            /* recorded states are not capped, the segment size bounds them */
+            EventJournal journal = new EventJournal(directory, settings.getJournalSegmentBytes(),
+                    settings.getJournalIndexIntervalMs(), new EventSerializer(this.stateValues, 0));
+            logger.info(String.format("Recording events to %s", directory));
+            return journal;
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(String.format("Could not start recording to %s", directory), ex);
+        }
     }
 
     /**
@@ -177,42 +445,44 @@ public class MyVisualizerClient {
      */
     public long submit(String actorName) {
         /* get unique key for this new actor and store it */
-        long key = getUniqueKey();
-        this.keyRef.put(key, actorName);
-        this.invertedKeyRef.put(actorName, key);
+        long key = this.registry.register(actorName);
+        if (this.mailboxes != null) this.mailboxes.register(actorName);
 
-        logger.info(String.format("submitting %s(key=%d)", actorName, key));
+        if (eventLogger.isTraceEnabled()) eventLogger.trace("event=spawn actor={} key={}", actorName, key);
 
-        long time = new Date().getTime();
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            socket.emit("spawn", mapper.writeValueAsString(new ActorEvent(actorName, time)));
-        }
-        catch(JsonProcessingException ex) {
-            ex.printStackTrace();
-        }
+        emit(EventType.SPAWN, this.clock.currentTimeMicros(), actorName, null, null, null, null, 0);
         return key;
     }
 
     /**
      * This intercepts the receipt of a message by an actor and emits
-     * a corresponding receive event to the server
+     * a corresponding receive event to the server, or only counts it
+     * when edges are aggregated
      * @param label Name of the message sent
      * @param sender Sender actor name of the message
      * @param receiver Receiver actor name of the message
-     * @return Timestamp of the event
+     * @return Timestamp of the event in milliseconds since the epoch
      */
     public long receive(String label, String sender, String receiver) {
-        long time = new Date().getTime();
-        logger.info(String.format("%s sent %s to %s (t=%d)%n", sender, label, receiver, time));
+        return receive(label, sender, receiver, null) / 1000;
+    }
 
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            socket.emit("receive", mapper.writeValueAsString(new MessageEvent("receive", label, sender, receiver, time)));
-        }
-        catch(JsonProcessingException ex) {
-            ex.printStackTrace();
+    /**
+     * @param wrapper Wrapper which is told the sequence number of the event, if any
+     * @return Timestamp of the event in microseconds since the epoch
+     */
+    private long receive(String label, String sender, String receiver, MessageWrapper wrapper) {
+        long time = this.clock.currentTimeMicros();
+        if (eventLogger.isTraceEnabled())
+            eventLogger.trace("event=receive label={} from={} to={} time={}", label, sender, receiver, time);
+
+        long seq = -1;
+        if (this.aggregator != null) {
+            this.metrics.onEvent(EventType.RECEIVE.getSocketEvent());
+            this.aggregator.increment(sender, receiver, label);
         }
+        else seq = emit(EventType.RECEIVE, time, null, label, sender, receiver, null, 0);
+        if (wrapper != null) wrapper.sequence = seq;
         return time;
     }
 
@@ -222,56 +492,595 @@ public class MyVisualizerClient {
      * @param actorName Path name of the actor which was terminated
      */
     public void destroy(String actorName) {
-        long time = new Date().getTime();
-        ObjectMapper mapper = new ObjectMapper();
-        try {
-            socket.emit("destroyNode", mapper.writeValueAsString(new ActorEvent(actorName, time)));
-        }
-        catch(JsonProcessingException ex) {
-            ex.printStackTrace();
-        }
-        this.keyRef.remove(this.invertedKeyRef.get(actorName));
-        this.invertedKeyRef.remove(actorName);
-        logger.info(String.format("Destroyed %s", actorName));
+        this.stateSuppliers.remove(actorName);
+        this.failingSuppliers.remove(actorName);
+        emit(EventType.DESTROY, this.clock.currentTimeMicros(), actorName, null, null, null, null, 0);
+        this.registry.unregister(actorName);
+        if (this.mailboxes != null) this.mailboxes.unregister(actorName);
+        if (eventLogger.isTraceEnabled()) eventLogger.trace("event=destroy actor={}", actorName);
     }
 
     /**
      * This method is called by the relevant actor program to
      * sync the state of the actor entity with the visualizer
-     * It emits an state update event to the server
+     * It emits an state update event to the server, which belongs
+     * to the actor named by the "name" property of the state if present
      * @param state Map of property names to object values
      */
     public void setState(Map<String, Object> state) {
-        long time = new Date().getTime();
+        Object name = state.get("name");
+        if (name instanceof String) {
+            setState((String)name, state);
+            return;
+        }
+        emit(EventType.STATE, this.clock.currentTimeMicros(), null, null, null, null, state, 0);
+    }
+
+    /**
+     * Syncs the state of the actor entity with the given key
+     * @param key Key of the actor entity, as returned by submit
+     * @param state Map of property names to object values
+     */
+    public void setState(long key, Map<String, Object> state) {
+        String name = this.registry.nameOf(key);
+        if (name == null) {
+            logger.warn(String.format("Dropping state of unknown actor key %d", key));
+            return;
+        }
+        setState(name, state);
+    }
+
+    /**
+     * Syncs the state of the actor entity with the given name.
+     * In pipeline mode only the latest state of an actor is kept while its
+     * state event is pending, so an actor that syncs faster than the flush
+     * interval only emits one update per flush.
+     * When state diffs are enabled, only the properties which changed since
+     * the last update are emitted as a patch, and nothing at all if none of
+     * them changed.
+     * @param actorName Path name of the actor entity
+     * @param state Map of property names to object values
+     */
+    public void setState(String actorName, Map<String, Object> state) {
+        long time = this.clock.currentTimeMicros();
+        if (state == null) state = new HashMap<>(0);
+        if (this.coalescer != null) {
+            long seq = this.clock.nextSequence();
+            this.metrics.onEvent(EventType.STATE.getSocketEvent());
+            /* the state itself is only taken on the flusher thread, see prepare */
+            if (this.coalescer.offer(actorName, state, time, seq))
+                this.pipeline.publish(EventType.STATE, time, seq, actorName, null, null, null, null, 0);
+            return;
+        }
+        emit(EventType.STATE, time, actorName, null, null, null, state, 0);
+    }
+
+    /**
+     * Registers the supplier of the state of an actor, which the client
+     * calls whenever it samples the actor, instead of the actor syncing its
+     * state with messages to itself. The supplier is called on a thread of
+     * the client, so it must only read state which is safe to read from
+     * other threads, e.g. volatile fields or immutable values. It is dropped
+     * again when the actor is destroyed.
+     * @param actorName Path name of the actor entity
+     * @param supplier Current state of the actor, or null to skip a sample
+     */
+    public void registerState(String actorName, Supplier<Map<String, Object>> supplier) {
+        this.stateSuppliers.put(actorName, supplier);
+        this.failingSuppliers.remove(actorName);
+        if (this.sampling != VisSettings.StateSampling.ON_DEMAND) startSampling();
+    }
+
+    /**
+     * Registers the supplier of the state of the actor entity with the given key
+     * @param key Key of the actor entity, as returned by submit
+     */
+    public void registerState(long key, Supplier<Map<String, Object>> supplier) {
+        String name = this.registry.nameOf(key);
+        if (name == null) {
+            logger.warn(String.format("Not sampling the state of unknown actor key %d", key));
+            return;
+        }
+        registerState(name, supplier);
+    }
+
+    /**
+     * Restricts the periodic sampling to the given actors, as the server
+     * does with a "displayActors" request
+     * @param actorNames Names of the displayed actors, or null for every actor
+     */
+    public void setDisplayedActors(Collection<String> actorNames) {
+        Set<String> displayed = actorNames == null ? null : new HashSet<>(actorNames);
+        for (Shard shard : this.shards) shard.displayed = displayed;
+    }
+
+    /**
+     * Samples the state of the actor right away, on a thread of the client
+     */
+    public void requestState(String actorName) {
+        scheduler().execute(() -> sampleState(actorName));
+    }
+
+    /**
+     * Samples the states of every actor with a registered supplier right away
+     */
+    public void requestStates() {
+        scheduler().execute(() -> {
+            for (String actorName : this.stateSuppliers.keySet()) sampleState(actorName);
+        });
+    }
+
+    private synchronized void startSampling() {
+        if (this.samplingStarted) return;
+        this.samplingStarted = true;
+        scheduler().scheduleAtFixedRate(this::sampleStates, this.samplingIntervalMs, this.samplingIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Samples the states of the registered actors which the servers display
+     */
+    private void sampleStates() {
+        for (String actorName : this.stateSuppliers.keySet()) {
+            if (this.sampling == VisSettings.StateSampling.DISPLAYED) {
+                int shard = this.ring == null ? 0 : this.ring.shardOf(actorName);
+                Set<String> displayed = this.shards[shard].displayed;
+                if (displayed != null && !displayed.contains(actorName)) continue;
+            }
+            sampleState(actorName);
+        }
+    }
+
+    private void sampleState(String actorName) {
+        Supplier<Map<String, Object>> supplier = this.stateSuppliers.get(actorName);
+        if (supplier == null) return;
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            socket.emit("setState", mapper.writeValueAsString(new Event(time, state)));
+            Map<String, Object> state = supplier.get();
+            this.failingSuppliers.remove(actorName);
+            if (state != null) setState(actorName, state);
         }
-        catch(JsonProcessingException ex) {
+        catch(RuntimeException ex) {
+            if (this.failingSuppliers.add(actorName))
+                logger.warn(String.format("Could not sample the state of %s, nor will it be logged until it succeeds: %s",
+                        actorName, ex));
+            else logger.debug("Could not sample the state of {}: {}", actorName, ex.toString());
+        }
+    }
+
+    /**
+     * Emits the edge counts which are still pending, flushes the events
+     * which are still pending in the pipeline and stops the background threads
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.scheduler != null) this.scheduler.shutdownNow();
+        }
+        if (this.aggregator != null) this.flushEdges();
+        if (this.emitter != null) this.emitter.close();
+        if (this.pipeline != null) this.pipeline.close();
+        if (this.compressor != null) this.compressor.close();
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            }
+            catch(IOException ex) {
+                logger.error("Could not close the recording", ex);
+            }
+        }
+        if (this.live) {
+            for (Shard shard : this.shards) shard.sink.close();
+        }
+        if (this.metricsName != null) {
+            try {
+                InterceptorMetrics.unregister(this.metricsName);
+            }
+            catch(JMException ex) {
+                logger.warn("Could not unregister the interceptor metrics", ex);
+            }
+        }
+    }
+
+    /**
+     * Lazily starts the single daemon thread which runs the periodic
+     * tasks of this client
+     */
+    synchronized ScheduledExecutorService scheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "vis-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.scheduler;
+    }
+
+    /**
+     * Emits one edge delta event for every edge which carried
+     * messages since the previous flush
+     */
+    private void flushEdges() {
+        long time = this.clock.currentTimeMicros();
+        this.aggregator.drain((from, to, label, count) ->
+                emit(EventType.EDGE_DELTA, time, null, label, from, to, null, count));
+    }
+
+    /**
+     * Emits one latency event for every edge which carried messages
+     * since the previous flush
+     */
+    private void flushLatencies() {
+        long time = this.clock.currentTimeMicros();
+        this.latencies.drain((from, to, label, count, p50, p99, max) ->
+                emit(EventType.EDGE_LATENCY, time, null, label, from, to, EdgeLatencies.toMap(p50, p99, max), count));
+    }
+
+    /**
+     * Records the latency of a message, i.e. the time since it was sent,
+     * on the edge it was passed along, if edge latencies are enabled
+     * @param sentNanos System.nanoTime() when the message was sent, or Message.UNSTAMPED
+     */
+    void recordLatency(String label, String sender, String receiver, long sentNanos) {
+        if (this.latencies == null || sentNanos == Message.UNSTAMPED) return;
+        this.latencies.record(sender, receiver, label, System.nanoTime() - sentNanos);
+    }
+
+    /**
+     * @return Whether the latencies of messages are recorded, so their send times are worth stamping
+     */
+    boolean isEdgeLatencyEnabled() {
+        return this.latencies != null;
+    }
+
+    /**
+     * Emits one hot actor event for every handler among the ones which
+     * took the most time since the previous flush, hottest first
+     */
+    private void flushProfiles() {
+        long time = this.clock.currentTimeMicros();
+        this.profiler.drain((name, label, count, total, max) ->
+                emit(EventType.HOT_ACTOR, time, name, label, null, null, HandlerProfiler.toMap(total, max), count));
+    }
+
+    /**
+     * Emits a metrics event with the messages of every actor which was
+     * busy since the previous sample and the load of the dispatcher
+     */
+    private void flushMetrics() {
+        emit(EventType.METRICS, this.clock.currentTimeMicros(), null, null, null, null, this.mailboxes.sample(), 0);
+    }
+
+    /**
+     * @return Counters of the messages of the actor, or null if mailbox
+     *         sampling is disabled or the actor is not registered
+     */
+    MailboxSampler.Counters counters(String actorName) {
+        return this.mailboxes == null ? null : this.mailboxes.get(actorName);
+    }
+
+    /**
+     * @return Whether the messages of the actors are counted
+     */
+    boolean isMailboxSamplingEnabled() {
+        return this.mailboxes != null;
+    }
+
+    /**
+     * Adds the time a traced actor spent handling a message to the busy
+     * time of the dispatcher, if mailbox sampling is enabled
+     */
+    void onBusy(long nanos) {
+        if (this.mailboxes != null) this.mailboxes.onBusy(nanos);
+    }
+
+    /**
+     * Samples the default dispatcher of the system the traced actors run
+     * in, if mailbox sampling is enabled
+     */
+    void bind(ActorSystem<?> system) {
+        if (this.mailboxes != null) this.mailboxes.bind(system);
+    }
+
+    /**
+     * @return New profile the interceptor of the actor times its handlers into,
+     *         or null if profiling is disabled
+     */
+    HandlerProfiler.ActorProfile profile(String actorName) {
+        return this.profiler == null ? null : this.profiler.profile(actorName);
+    }
+
+    /**
+     * Resolves the state of a coalesced state event and turns state events
+     * into patches, right before the event is serialized
+     * @return False if the event does not have to be emitted at all
+     */
+    private boolean prepare(EventSlot slot) {
+        if (slot.type == EventType.DESTROY) {
+            if (this.stateDiffer != null) this.stateDiffer.forget(slot.name);
+            return true;
+        }
+        if (slot.type != EventType.STATE || slot.name == null) return true;
+
+        if (slot.state == null && this.coalescer != null) {
+            StateCoalescer.Pending pending = this.coalescer.take(slot.name);
+            if (pending == null) return false;
+            slot.state = pending.state;
+            slot.time = pending.time;
+            slot.seq = pending.seq;
+        }
+        if (this.stateDiffer == null) return true;
+
+        Map<String, Object> patch = this.stateDiffer.diff(slot.name, slot.state, slot.time / 1000);
+        if (patch == StateDiffer.UNCHANGED) return false;
+        if (patch != null) {
+            slot.type = EventType.STATE_PATCH;
+            slot.state = patch;
+        }
+        return true;
+    }
+
+    /**
+     * A patch which took more than the maximum of bytes is encoded as a
+     * state holding a placeholder instead, after which the server no longer
+     * knows the properties of the actor, so its next update has to be a
+     * full snapshot again
+     */
+    private void onPatchEncoded(EventSlot slot) {
+        if (slot.type != EventType.STATE_PATCH) this.stateDiffer.forget(slot.name);
+    }
+
+    /**
+     * Appends the event to the recording in journal mode
+     * @return False if the event does not have to be sent to the server
+     */
+    private boolean record(EventSlot slot) {
+        if (this.journal != null) this.journal.append(slot);
+        return this.live;
+    }
+
+    /**
+     * Releases the pending state of a coalesced state event which was
+     * dropped, so that the next update of the actor is enqueued again
+     */
+    private void onDropped(EventSlot slot) {
+        this.metrics.onDropped(slot.type.getSocketEvent());
+        if (this.coalescer != null && slot.type == EventType.STATE && slot.state == null && slot.name != null)
+            this.coalescer.take(slot.name);
+    }
+
+    /**
+     * @return Whether every shard is connected. Events are held back while
+     *         any of them is not, so that no shard misses an actor.
+     */
+    private boolean isConnected() {
+        for (Shard shard : this.shards) {
+            if (!shard.sink.isConnected()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Shard of the actor, or -1 if the actor is unknown
+     */
+    private int shardOf(String actorName) {
+        if (actorName == null || actorName.isEmpty()) return -1;
+        return this.ring == null ? 0 : this.ring.shardOf(actorName);
+    }
+
+    /**
+     * @return Shard of the actor the event belongs to, i.e. the receiver of
+     *         a message, or -1 if the event goes to every shard as it does
+     *         not name its actor
+     */
+    private int primaryShard(EventSlot slot) {
+        if (this.ring == null) return 0;
+        return shardOf(isEdge(slot.type) ? slot.to : slot.name);
+    }
+
+    /**
+     * @return Shard of the sender of a message, if the edge crosses over
+     *         to another shard than the receiver's, otherwise -1
+     */
+    private int secondaryShard(EventSlot slot, int primary) {
+        if (this.ring == null || primary < 0) return -1;
+        if (!isEdge(slot.type)) return -1;
+        int sender = shardOf(slot.from);
+        return sender == primary ? -1 : sender;
+    }
+
+    /**
+     * @return Whether events of the type belong to an edge rather than an actor
+     */
+    private static boolean isEdge(EventType type) {
+        return type == EventType.RECEIVE || type == EventType.EDGE_DELTA || type == EventType.EDGE_LATENCY;
+    }
+
+    /**
+     * Enqueues the event into the pipeline if it is enabled, hands it to
+     * the emitter if that is enabled, otherwise serializes and emits it to
+     * the server right away
+     * @param time Timestamp in microseconds since the epoch
+     * @return Sequence number of the event
+     */
+    private long emit(EventType type, long time, String name, String label, String from, String to,
+                      Map<String, Object> state, long count) {
+        long seq = this.clock.nextSequence();
+        this.metrics.onEvent(type.getSocketEvent());
+        if (this.pipeline != null) {
+            /* the flusher serializes the state later on, while the actor goes on with its map */
+            this.pipeline.publish(type, time, seq, name, label, from, to, queuedState(type, state), count);
+            return seq;
+        }
+        if (this.emitter != null) {
+            /* the emitter serializes the state later on, while the actor goes on with its map */
+            Map<String, Object> queued = queuedState(type, state);
+            if (!this.emitter.execute(type, () -> emit(type, time, seq, name, label, from, to, queued, count)))
+                this.metrics.onDropped(type.getSocketEvent());
+            return seq;
+        }
+        emit(type, time, seq, name, label, from, to, state, count);
+        return seq;
+    }
+
+    /**
+     * Copies a state which is serialized after the actor went on, on the
+     * actor's thread, which costs about one allocation per entry and per
+     * collection it holds, unless the program promised not to modify it
+     */
+    private Map<String, Object> queuedState(EventType type, Map<String, Object> state) {
+        return type == EventType.STATE && this.copyStates ? EventSlot.copyState(state) : state;
+    }
+
+    /**
+     * Serializes and emits the event to the server right away
+     */
+    private void emit(EventType type, long time, long seq, String name, String label, String from, String to,
+                      Map<String, Object> state, long count) {
+        /* waits for the server outside the lock, so that only the actors which emit are held back */
+        if (!isConnected()) this.sendBuffer.awaitUnsentRoom(this::isConnected);
+        /* one lock for every shard, as the scratch slot, the differ and the aggregators are shared between them,
+           and frames are emitted under it too, as binary frames must arrive in encoding order */
+        synchronized (this.shards) {
+            this.scratch.set(type, time, name, label, from, to, state, count);
+            this.scratch.seq = seq;
+            try {
+                if (!prepare(this.scratch) || !record(this.scratch)) return;
+                /* a disconnected sink buffers the event itself, so it is only accounted for */
+                if (!isConnected() && !this.sendBuffer.admitUnsent(this.scratch)) return;
+                boolean patch = this.scratch.type == EventType.STATE_PATCH;
+                int primary = primaryShard(this.scratch), secondary = secondaryShard(this.scratch, primary);
+                for (int i = 0; i < this.shards.length; i++) {
+                    if (primary < 0 || i == primary || i == secondary) send(this.shards[i], this.scratch);
+                }
+                if (patch) onPatchEncoded(this.scratch);
+            }
+            finally {
+                this.scratch.clear();
+            }
+        }
+    }
+
+    /**
+     * @return System.nanoTime(), unless the metrics are the no-op ones, which
+     *         are not worth reading the clock twice per event for
+     */
+    private long metricsTime() {
+        return this.timed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Serializes the event into a frame of its own and emits it to the shard
+     */
+    private void send(Shard shard, EventSlot slot) {
+        byte[] payload;
+        long start = metricsTime();
+        try {
+            payload = shard.encoder.serialize(slot);
+        }
+        catch(IOException ex) {
             ex.printStackTrace();
+            return;
         }
+        long serialized = metricsTime();
+        this.metrics.onSerialized(serialized - start);
+        String event = shard.encoder.getSocketEvent(slot.type);
+        if (shard.sink.send(event, payload)) this.metrics.onEmitted(metricsTime() - serialized, payload.length);
+        else onDropped(shard, event, 1);
+    }
+
+    /**
+     * Accounts for the events of a frame the sink of the shard dropped, and
+     * makes the encoder of the shard start over, as the server missed the
+     * dictionary records and the state the frame may have carried
+     */
+    private void onDropped(Shard shard, String event, int events) {
+        shard.encoder.onDropped();
+        if (this.stateDiffer != null) this.stateDiffer.invalidate();
+        this.sinkDropped.add(events);
+        for (int i = 0; i < events; i++) this.metrics.onDropped(event);
+    }
+
+    /**
+     * @return Number of events dropped because the server could not keep up or was unreachable
+     */
+    public long getDroppedEvents() {
+        return this.sendBuffer.getDropped() + (this.emitter == null ? 0 : this.emitter.getDropped()) + this.sinkDropped.sum();
+    }
+
+    /**
+     * @return Number of events waiting in the pipeline or the emitter, or held back in the send buffer
+     */
+    private int getQueueDepth() {
+        return (this.pipeline == null ? 0 : this.pipeline.pending()) + (this.emitter == null ? 0 : this.emitter.pending())
+                + this.sendBuffer.getQueued();
+    }
+
+    /**
+     * @return Measurements of the interceptor
+     */
+    public VisMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return Number of events held back in the send buffer until the server is reachable
+     */
+    public int getQueuedEvents() {
+        return this.sendBuffer.getQueued();
+    }
+
+    /**
+     * @return Estimated size in bytes of the events held back in the send buffer
+     */
+    public long getQueuedBytes() {
+        return this.sendBuffer.getQueuedBytes();
+    }
+
+    /**
+     * @return Registry of the serializers of state values, where serializers
+     *         of the program's own types can be registered
+     */
+    public StateValueSerializers getStateValueSerializers() {
+        return this.stateValues;
+    }
+
+    /**
+     * @return Transport to the first, or only, shard
+     */
+    EventSink getSink() {
+        return this.shards[0].sink;
+    }
+
+    ActorRegistry getRegistry() {
+        return this.registry;
     }
 
     public long getUniqueKey() {
-        long key = this.getKey();
-        this.setKey(key+1);
-        return key;
+        return this.registry.nextKey();
     }
 
     public String getActorName(long key) {
-        if (this.keyRef.containsKey(key)) return this.keyRef.get(key);
-        return "";
+        String name = this.registry.nameOf(key);
+        return name == null ? "" : name;
     }
 
     public Map<String, Long> getInvertedKeyRef() {
-        return this.invertedKeyRef;
+        return this.registry.nameToKey();
+    }
+
+    /**
+     * @return Number of actor entities which are currently registered
+     */
+    public int getActorCount() {
+        return this.registry.size();
     }
 
     public long getKey() {
-        return this.key;
+        return this.registry.peekNextKey();
     }
 
     public void setKey(long key) {
-        this.key = key;
+        this.registry.setNextKey(key);
     }
 }
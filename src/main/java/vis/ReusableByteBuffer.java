@@ -0,0 +1,72 @@
+package vis;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable output buffer which keeps its backing array between frames,
+ * so that encoding an event only allocates the final copy of the frame
+ */
+final class ReusableByteBuffer extends OutputStream {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int count;
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(this.count + 1);
+        this.buffer[this.count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(this.count + length);
+        System.arraycopy(bytes, offset, this.buffer, this.count, length);
+        this.count += length;
+    }
+
+    /**
+     * Writes an unsigned LEB128 variable-length integer
+     */
+    void writeVarLong(long value) {
+        ensureCapacity(this.count + 10);
+        while ((value & ~0x7FL) != 0) {
+            this.buffer[this.count++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.count++] = (byte)value;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.count);
+    }
+
+    /**
+     * @return Backing array, which holds the written bytes up to size()
+     *         until the buffer is written to or reset again
+     */
+    byte[] array() {
+        return this.buffer;
+    }
+
+    int size() {
+        return this.count;
+    }
+
+    void truncate(int size) {
+        this.count = Math.min(this.count, size);
+    }
+
+    void reset() {
+        this.count = 0;
+        /* do not hold on to the memory of an exceptionally large frame */
+        if (this.buffer.length > MAX_RETAINED_BUFFER_SIZE) this.buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length << 1));
+    }
+}
@@ -0,0 +1,254 @@
+package vis;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Bounded backlog of the events which could not be sent yet, because the
+ * visualizer server is unreachable. It is only used in pipeline mode, while
+ * events which are emitted directly are merely accounted for. The backlog
+ * accounts for the estimated size of every event, and once that exceeds the
+ * limit it applies the configured overflow policy, instead of letting the
+ * socket buffer every event in memory until the heap is full. Events are kept unencoded, so
+ * dropping one never breaks the dictionaries of the binary wire format.
+ * Only the pipeline's flusher thread may modify the backlog, while the
+ * counters can be read from any thread.
+ */
+final class SendBuffer {
+
+    /**
+     * Copy of a queued event, along with the size it was accounted with
+     */
+    private static final class Entry {
+        final EventSlot slot = new EventSlot();
+        final long size;
+
+        Entry(EventSlot slot, long size) {
+            this.slot.copyFrom(slot);
+            this.size = size;
+        }
+    }
+
+    private static final long BLOCK_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ArrayDeque<Entry> events = new ArrayDeque<>();
+    private final long maxBytes;
+    private final VisSettings.OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final Consumer<EventSlot> dropListener;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int queued;
+    private volatile long queuedBytes;
+    private int droppable;
+    private volatile long unsentBytes;
+
+    /**
+     * @param maxBytes Estimated size of the queued events above which the policy applies
+     * @param policy What to do with events that do not fit anymore
+     * @param blockTimeoutMs Longest an actor waits under the block policy for the socket to reconnect
+     * @param dropListener Notified of every event which is dropped
+     */
+    SendBuffer(long maxBytes, VisSettings.OverflowPolicy policy, long blockTimeoutMs,
+               Consumer<EventSlot> dropListener) {
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Queues a copy of the event, making room for it as the policy demands.
+     * Under the block policy the event is always queued, as the pipeline
+     * stops taking events once the backlog is full.
+     * @return False if the event itself was dropped
+     */
+    boolean offer(EventSlot slot) {
+        long size = estimate(slot);
+        if (this.queuedBytes + size > this.maxBytes) {
+            switch (this.policy) {
+                case DROP_NEWEST:
+                    drop(slot);
+                    return false;
+                case DROP_OLDEST:
+                    while (!this.events.isEmpty() && this.queuedBytes + size > this.maxBytes) drop(remove().slot);
+                    break;
+                case DROP_RECEIVES:
+                    if (isDroppable(slot)) {
+                        drop(slot);
+                        return false;
+                    }
+                    /* lifecycle events are kept even beyond the limit, there are at most two per actor */
+                    dropDroppable(this.queuedBytes + size - this.maxBytes);
+                    break;
+                default:
+            }
+        }
+        this.events.add(new Entry(slot, size));
+        if (isDroppable(slot)) this.droppable++;
+        this.queued++;
+        this.queuedBytes += size;
+        return true;
+    }
+
+    /**
+     * @return Oldest queued event, or null if the backlog is empty
+     */
+    EventSlot poll() {
+        return this.events.isEmpty() ? null : remove().slot;
+    }
+
+    boolean isEmpty() {
+        return this.events.isEmpty();
+    }
+
+    /**
+     * @return True if the estimated size of the queued events reached the limit
+     */
+    boolean isFull() {
+        return this.queuedBytes >= this.maxBytes;
+    }
+
+    /**
+     * Drops every queued event, e.g. once the client is closed
+     * while the server is still unreachable
+     */
+    void clear() {
+        while (!this.events.isEmpty()) drop(remove().slot);
+    }
+
+    /**
+     * Under the block policy, waits while the socket buffers as much as the
+     * limit allows, until it is connected again or the block timeout passed.
+     * It must be called without holding any lock, so that the other actors
+     * are only held back once they emit themselves.
+     * @param connected Tells whether the socket is connected again
+     */
+    void awaitUnsentRoom(BooleanSupplier connected) {
+        if (this.policy != VisSettings.OverflowPolicy.BLOCK) return;
+        long deadline = System.nanoTime() + this.blockTimeoutNanos;
+        while (this.unsentBytes >= this.maxBytes && !connected.getAsBoolean() && deadline - System.nanoTime() > 0)
+            LockSupport.parkNanos(BLOCK_POLL_NANOS);
+    }
+
+    /**
+     * Accounts for an event which is about to be handed to a disconnected
+     * socket, which buffers it internally until it is connected again.
+     * As the socket's own buffer cannot be trimmed, both drop policies drop
+     * the new event. The block policy takes events until the limit is
+     * reached, like the backlog does, and drops the new event if the socket
+     * did not reconnect within the block timeout.
+     * @return False if the event has to be dropped
+     */
+    synchronized boolean admitUnsent(EventSlot slot) {
+        long size = estimate(slot);
+        boolean block = this.policy == VisSettings.OverflowPolicy.BLOCK;
+        if (block ? this.unsentBytes >= this.maxBytes : this.unsentBytes + size > this.maxBytes) {
+            if (this.policy != VisSettings.OverflowPolicy.DROP_RECEIVES || isDroppable(slot)) {
+                drop(slot);
+                return false;
+            }
+        }
+        this.unsentBytes += size;
+        return true;
+    }
+
+    /**
+     * Called once the socket is connected and has sent what it buffered
+     */
+    synchronized void onConnect() {
+        this.unsentBytes = 0;
+    }
+
+    VisSettings.OverflowPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * @return Number of events dropped since the client was created
+     */
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return Number of events waiting in the backlog
+     */
+    int getQueued() {
+        return this.queued;
+    }
+
+    /**
+     * @return Estimated size of the events waiting in the backlog
+     */
+    long getQueuedBytes() {
+        return this.queuedBytes;
+    }
+
+    /**
+     * Message receipts and state updates may be dropped under the drop-receives
+     * policy, but spawn and destroy events are needed to keep the graph intact
+     */
+    static boolean isDroppable(EventSlot slot) {
+        return isDroppable(slot.type);
+    }
+
+    static boolean isDroppable(EventType type) {
+        return type != EventType.SPAWN && type != EventType.DESTROY;
+    }
+
+    /**
+     * Roughly estimates the memory retained by an event, counting two
+     * bytes per character and a fixed amount per state property
+     */
+    static long estimate(EventSlot slot) {
+        long size = 64 + 2*(length(slot.name) + length(slot.label) + length(slot.from) + length(slot.to));
+        if (slot.state != null) {
+            for (Map.Entry<String, Object> entry : slot.state.entrySet()) {
+                size += 48 + 2*length(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof String) size += 2*((String)value).length();
+            }
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private void dropDroppable(long bytes) {
+        long freed = 0;
+        Iterator<Entry> it = this.events.iterator();
+        while (freed < bytes && this.droppable > 0 && it.hasNext()) {
+            Entry entry = it.next();
+            if (!isDroppable(entry.slot)) continue;
+            it.remove();
+            release(entry);
+            freed += entry.size;
+            drop(entry.slot);
+        }
+    }
+
+    private Entry remove() {
+        Entry entry = this.events.remove();
+        release(entry);
+        return entry;
+    }
+
+    private void release(Entry entry) {
+        if (isDroppable(entry.slot)) this.droppable--;
+        this.queued--;
+        this.queuedBytes -= entry.size;
+    }
+
+    private void drop(EventSlot slot) {
+        this.dropped.incrementAndGet();
+        this.dropListener.accept(slot);
+    }
+}
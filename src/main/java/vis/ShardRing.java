@@ -0,0 +1,77 @@
+package vis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns actors to the visualizer servers they are sharded across by
+ * consistent hashing. Every server takes a number of points on a ring of
+ * 64 bit hashes, derived from its endpoint, and an actor belongs to the
+ * server owning the first point at or after the hash of its name. So every
+ * event of one actor lands on the same server, and when a server is added
+ * or removed only the actors next to its points move, instead of nearly
+ * every actor as with a plain modulo of the hash. The points are kept in a
+ * sorted array, so a lookup is a binary search without any allocation.
+ */
+final class ShardRing {
+    private final long[] points;
+    private final int[] shards;
+
+    /**
+     * @param endpoints Identities of the servers, which have to be the same
+     *                  in every interceptor routing to them
+     * @param virtualNodes Points every server takes on the ring
+     */
+    ShardRing(List<String> endpoints, int virtualNodes) {
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("There has to be at least one shard");
+        int perShard = Math.max(1, virtualNodes);
+        long[] entries = new long[endpoints.size() * perShard];
+        int[] owners = new int[entries.length];
+        for (int shard = 0, i = 0; shard < endpoints.size(); shard++) {
+            for (int point = 0; point < perShard; point++, i++) {
+                entries[i] = hash(endpoints.get(shard) + "#" + point);
+                owners[i] = shard;
+            }
+        }
+        /* sort the points along with their owners, ties going to the lower shard */
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> entries[a] != entries[b] ?
+                Long.compare(entries[a], entries[b]) : Integer.compare(owners[a], owners[b]));
+        this.points = new long[entries.length];
+        this.shards = new int[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            this.points[i] = entries[order[i]];
+            this.shards[i] = owners[order[i]];
+        }
+    }
+
+    /**
+     * @return Index of the server the actor belongs to
+     */
+    int shardOf(String actorName) {
+        int i = Arrays.binarySearch(this.points, hash(actorName));
+        if (i < 0) i = -i - 1;
+        /* past the last point the ring wraps around to the first one */
+        return this.shards[i == this.points.length ? 0 : i];
+    }
+
+    /**
+     * FNV-1a over the characters, followed by the finalizer of MurmurHash3,
+     * which spreads names sharing a long common prefix (as actor paths do)
+     * evenly over the ring
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,35 @@
+package vis;
+
+import java.io.IOException;
+
+/**
+ * Encodes every event of a stream into a frame of its own and sends it to
+ * a sink, for the tools which forward recorded or merged events to the
+ * server. A frame which the sink drops is counted, and the encoder starts
+ * over, as the server missed whatever the frame carried.
+ * Instances are not thread-safe.
+ */
+final class SinkTarget implements JournalReplayer.Target, StreamMerger.Target {
+    private final EventSink sink;
+    private final EventEncoder encoder;
+    private long dropped;
+
+    SinkTarget(EventSink sink, EventEncoder encoder) {
+        this.sink = sink;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public void accept(EventSlot event) throws IOException {
+        if (this.sink.send(this.encoder.getSocketEvent(event.type), this.encoder.serialize(event))) return;
+        this.encoder.onDropped();
+        this.dropped++;
+    }
+
+    /**
+     * @return Number of events the sink dropped
+     */
+    long getDropped() {
+        return this.dropped;
+    }
+}
@@ -0,0 +1,88 @@
+package vis;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import org.json.JSONArray;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sends the frames as socket.io events to the node JS server. A socket
+ * which is not connected buffers the frames itself until it reconnects.
+ * Frames of the JSON wire format are emitted as strings, as the server has
+ * always parsed them, unless binary payloads are configured, which spares
+ * decoding every frame into a String.
+ */
+final class SocketIoSink implements EventSink {
+    private final URI uri;
+    private final Socket socket;
+    private final boolean strings;
+
+    SocketIoSink(URI uri, VisSettings settings) {
+        this.uri = uri;
+        this.socket = IO.socket(uri);
+        this.strings = settings.getWireFormat() == VisSettings.WireFormat.JSON && !settings.isJsonBinaryPayloads();
+    }
+
+    @Override
+    public void open(Runnable onConnect) {
+        this.socket.on(Socket.EVENT_CONNECT, args -> {
+            /* the server tells the interceptor apart from the browsers by this id */
+            this.socket.emit("setSocketId", "actorHandler");
+            onConnect.run();
+        });
+        this.socket.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.socket.connected();
+    }
+
+    @Override
+    public boolean send(String event, byte[] frame) {
+        if (this.strings && isJson(event)) this.socket.emit(event, new String(frame, StandardCharsets.UTF_8));
+        else this.socket.emit(event, frame);
+        return true;
+    }
+
+    /**
+     * @return Whether the frame of the event is JSON, rather than compressed or a dictionary
+     */
+    private static boolean isJson(String event) {
+        return !event.endsWith(FrameCompressor.DEFLATED_SUFFIX) && !event.equals(FrameCompressor.DICTIONARY_EVENT);
+    }
+
+    /**
+     * Hands JSON arrays to the handler as lists
+     */
+    @Override
+    public void onRequest(String request, Consumer<Object[]> handler) {
+        this.socket.on(request, args -> {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) values[i] = args[i] instanceof JSONArray ? list((JSONArray)args[i]) : args[i];
+            handler.accept(values);
+        });
+    }
+
+    private static List<Object> list(JSONArray array) {
+        List<Object> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) list.add(array.opt(i));
+        return list;
+    }
+
+    @Override
+    public void close() {
+        this.socket.off();
+        this.socket.close();
+    }
+
+    @Override
+    public String toString() {
+        return this.uri.toString();
+    }
+}
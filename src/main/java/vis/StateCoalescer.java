@@ -0,0 +1,56 @@
+package vis;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the latest state of every actor whose state event is still waiting
+ * in the pipeline. Only the first update of an actor enqueues an event,
+ * while any further update before that event is flushed merely replaces the
+ * pending state, so superseded states are dropped before they are ever
+ * serialized (last writer wins).
+ */
+final class StateCoalescer {
+
+    /**
+     * Latest state of one actor, along with the time and sequence number it was set with
+     */
+    static final class Pending {
+        final Map<String, Object> state;
+        final long time;
+        final long seq;
+
+        Pending(Map<String, Object> state, long time, long seq) {
+            this.state = state;
+            this.time = time;
+            this.seq = seq;
+        }
+    }
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the pending state of the actor with a copy of the state, as
+     * it is only serialized once its event is flushed
+     * @return True if no state of the actor was pending before, in which
+     *         case the caller has to enqueue a state event for it
+     */
+    boolean offer(String name, Map<String, Object> state, long time, long seq) {
+        return this.pending.put(name, new Pending(EventSlot.copyState(state), time, seq)) == null;
+    }
+
+    /**
+     * Removes the latest state of the actor once its event is flushed
+     * @return Latest state, or null if none is pending
+     */
+    Pending take(String name) {
+        return this.pending.remove(name);
+    }
+
+    /**
+     * @return Number of actors whose state is pending
+     */
+    int size() {
+        return this.pending.size();
+    }
+}
@@ -0,0 +1,122 @@
+package vis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the last state which was sent for every actor, so that a state
+ * update only has to carry the properties which were added, changed or
+ * removed since then. A full snapshot is still sent for the first update of
+ * an actor and periodically afterwards, which keeps the server in sync even
+ * if it missed a patch.
+ */
+final class StateDiffer {
+
+    /**
+     * Returned by {@link #diff} when the state did not change at all
+     */
+    static final Map<String, Object> UNCHANGED = new HashMap<>(0);
+
+    static final String SET = "set";
+    static final String REMOVED = "removed";
+
+    /**
+     * Last state sent for one actor. Its values are copies, as actors
+     * tend to pass their live (and later mutated) collections.
+     */
+    private static final class Snapshot {
+        final Map<String, Object> values = new HashMap<>();
+        boolean sent;
+        long fullTime;
+    }
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final long fullSnapshotIntervalMs;
+
+    /**
+     * @param fullSnapshotIntervalMs Minimum time between two full snapshots of an actor
+     */
+    StateDiffer(long fullSnapshotIntervalMs) {
+        this.fullSnapshotIntervalMs = fullSnapshotIntervalMs;
+    }
+
+    /**
+     * Compares the state with the one last sent for the actor and
+     * remembers it as the new last state
+     * @param name Name of the actor the state belongs to
+     * @param state New state of the actor
+     * @param time Timestamp of the state update
+     * @return {@code null} if the full state has to be sent, {@link #UNCHANGED}
+     *         if nothing has to be sent, otherwise a patch holding the map of
+     *         added or changed properties under "set" and the list of removed
+     *         property names under "removed"
+     */
+    Map<String, Object> diff(String name, Map<String, Object> state, long time) {
+        Snapshot snapshot = this.snapshots.computeIfAbsent(name, n -> new Snapshot());
+        synchronized (snapshot) {
+            if (!snapshot.sent || time - snapshot.fullTime >= this.fullSnapshotIntervalMs) {
+                snapshot.values.clear();
+                for (Map.Entry<String, Object> entry : state.entrySet())
+                    snapshot.values.put(entry.getKey(), EventSlot.copyValue(entry.getValue()));
+                snapshot.sent = true;
+                snapshot.fullTime = time;
+                return null;
+            }
+
+            Map<String, Object> set = null;
+            for (Map.Entry<String, Object> entry : state.entrySet()) {
+                Object previous = snapshot.values.get(entry.getKey());
+                if (Objects.deepEquals(previous, entry.getValue())
+                        && (previous != null || snapshot.values.containsKey(entry.getKey()))) continue;
+                if (set == null) set = new LinkedHashMap<>();
+                set.put(entry.getKey(), entry.getValue());
+                snapshot.values.put(entry.getKey(), EventSlot.copyValue(entry.getValue()));
+            }
+            List<String> removed = null;
+            /* every property of the new state is in the snapshot by now, so any extra one was removed */
+            if (snapshot.values.size() > state.size()) {
+                for (String key : snapshot.values.keySet()) {
+                    if (state.containsKey(key)) continue;
+                    if (removed == null) removed = new ArrayList<>();
+                    removed.add(key);
+                }
+                if (removed != null) snapshot.values.keySet().removeAll(removed);
+            }
+            if (set == null && removed == null) return UNCHANGED;
+
+            Map<String, Object> patch = new LinkedHashMap<>(4);
+            patch.put(SET, set == null ? new HashMap<>(0) : set);
+            patch.put(REMOVED, removed == null ? new ArrayList<>(0) : removed);
+            return patch;
+        }
+    }
+
+    /**
+     * Drops the last state of the actor, once it terminated, or to make its
+     * next update a full snapshot again, e.g. once the server could not be
+     * sent a patch of it
+     */
+    void forget(String name) {
+        this.snapshots.remove(name);
+    }
+
+    /**
+     * Makes the next update of every actor a full snapshot again,
+     * e.g. once the server may have lost its state
+     */
+    void invalidate() {
+        this.snapshots.clear();
+    }
+
+    /**
+     * @return Number of actors whose last state is remembered
+     */
+    int size() {
+        return this.snapshots.size();
+    }
+}
@@ -0,0 +1,190 @@
+package vis;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+
+/**
+ * Registry of the serializers which write the values of actor state maps.
+ * Jackson would reflect over every value it does not know, which for an
+ * ActorRef means walking Akka's internals on every sync and writing huge
+ * payloads. So actor refs are written as the name the visualizer knows the
+ * actor by (or its path or key), and collections past a threshold are only
+ * summarized by their size and their first elements, which keeps a state
+ * from growing with e.g. the number of sessions in a chat room. Strings,
+ * numbers and booleans are written directly, nested maps and collections
+ * value by value, and only values no serializer is registered for are left
+ * to Jackson. Serializers of further types can be registered at any time,
+ * and take precedence over the ones registered before them.
+ */
+public final class StateValueSerializers {
+
+    /**
+     * Writes one value of a state map
+     */
+    public interface ValueSerializer<T> {
+        /**
+         * @param serializers Registry to write nested values with
+         */
+        void write(T value, JsonGenerator generator, StateValueSerializers serializers) throws IOException;
+    }
+
+    private static final class Registration {
+        final Class<?> type;
+        final ValueSerializer<?> serializer;
+
+        Registration(Class<?> type, ValueSerializer<?> serializer) {
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+
+    /* marks the types which are left to Jackson */
+    private static final ValueSerializer<Object> FALLBACK = (value, generator, serializers) -> generator.writeObject(value);
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, ValueSerializer<?>> resolved = new ConcurrentHashMap<>();
+    private final int maxElements;
+    private final int previewElements;
+
+    /**
+     * Serializers of plain values and collections only
+     * @param maxElements Most elements of a collection or map written in full
+     * @param previewElements Elements written along with the size of a larger collection
+     */
+    public StateValueSerializers(int maxElements, int previewElements) {
+        this.maxElements = Math.max(0, maxElements);
+        this.previewElements = Math.max(0, Math.min(previewElements, this.maxElements));
+    }
+
+    /**
+     * The built-in serializers, with actor refs written as configured
+     * @param keyOf Key of a registered actor name, or -1, for actor refs written as keys
+     */
+    static StateValueSerializers create(VisSettings settings, ToLongFunction<String> keyOf) {
+        StateValueSerializers serializers = new StateValueSerializers(settings.getStateMaxElements(),
+                settings.getStatePreviewElements());
+        switch (settings.getActorRefFormat()) {
+            case PATH:
+                serializers.register(akka.actor.typed.ActorRef.class,
+                        (ref, g, s) -> g.writeString(ref.path().toString()));
+                serializers.register(akka.actor.ActorRef.class,
+                        (ref, g, s) -> g.writeString(ref.path().toString()));
+                break;
+            case KEY:
+                serializers.register(akka.actor.typed.ActorRef.class,
+                        (ref, g, s) -> writeKey(ref.path().name(), keyOf, g));
+                serializers.register(akka.actor.ActorRef.class,
+                        (ref, g, s) -> writeKey(ref.path().name(), keyOf, g));
+                break;
+            default:
+                serializers.register(akka.actor.typed.ActorRef.class,
+                        (ref, g, s) -> g.writeString(ref.path().name()));
+                serializers.register(akka.actor.ActorRef.class,
+                        (ref, g, s) -> g.writeString(ref.path().name()));
+        }
+        return serializers;
+    }
+
+    /**
+     * Writes the key of a registered actor, or its name if it has none
+     */
+    private static void writeKey(String name, ToLongFunction<String> keyOf, JsonGenerator g) throws IOException {
+        long key = keyOf.applyAsLong(name);
+        if (key < 0) g.writeString(name);
+        else g.writeNumber(key);
+    }
+
+    /**
+     * Registers the serializer of the values of the type and its subtypes
+     * @return This registry
+     */
+    public <T> StateValueSerializers register(Class<T> type, ValueSerializer<? super T> serializer) {
+        this.registrations.add(0, new Registration(type, serializer));
+        this.resolved.clear();
+        return this;
+    }
+
+    /**
+     * Writes a value of a state map
+     */
+    @SuppressWarnings("unchecked")
+    public void write(Object value, JsonGenerator g) throws IOException {
+        if (value == null) g.writeNull();
+        else if (value instanceof String) g.writeString((String)value);
+        else if (value instanceof Integer || value instanceof Long) g.writeNumber(((Number)value).longValue());
+        else if (value instanceof Double) g.writeNumber((Double)value);
+        else if (value instanceof Boolean) g.writeBoolean((Boolean)value);
+        else ((ValueSerializer<Object>)serializerOf(value.getClass())).write(value, g, this);
+    }
+
+    /**
+     * Writes the entries of a small map, or {size, first} with the size
+     * and the first entries of a larger one
+     */
+    public void writeMap(Map<?, ?> map, JsonGenerator g) throws IOException {
+        int size = map.size();
+        boolean summarized = beginSummary(size, g);
+        g.writeStartObject();
+        Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+        for (int i = 0, n = summarized ? this.previewElements : size; i < n && it.hasNext(); i++) {
+            Map.Entry<?, ?> entry = it.next();
+            g.writeFieldName(String.valueOf(entry.getKey()));
+            write(entry.getValue(), g);
+        }
+        g.writeEndObject();
+        if (summarized) g.writeEndObject();
+    }
+
+    /**
+     * Writes the elements of a small collection, or {size, first} with the
+     * size and the first elements of a larger one
+     */
+    public void writeCollection(Collection<?> collection, JsonGenerator g) throws IOException {
+        int size = collection.size();
+        boolean summarized = beginSummary(size, g);
+        g.writeStartArray();
+        Iterator<?> it = collection.iterator();
+        for (int i = 0, n = summarized ? this.previewElements : size; i < n && it.hasNext(); i++) write(it.next(), g);
+        g.writeEndArray();
+        if (summarized) g.writeEndObject();
+    }
+
+    /**
+     * Starts the summary of a collection which has too many elements
+     * @return False if the collection is written in full
+     */
+    private boolean beginSummary(int size, JsonGenerator g) throws IOException {
+        if (size <= this.maxElements) return false;
+        g.writeStartObject();
+        g.writeNumberField("size", size);
+        g.writeFieldName("first");
+        return true;
+    }
+
+    private ValueSerializer<?> serializerOf(Class<?> type) {
+        ValueSerializer<?> serializer = this.resolved.get(type);
+        if (serializer != null) return serializer;
+        serializer = FALLBACK;
+        for (Registration registration : this.registrations) {
+            if (registration.type.isAssignableFrom(type)) {
+                serializer = registration.serializer;
+                break;
+            }
+        }
+        if (serializer == FALLBACK) {
+            if (Map.class.isAssignableFrom(type)) serializer = (ValueSerializer<Map<?, ?>>)(map, g, s) -> s.writeMap(map, g);
+            else if (Collection.class.isAssignableFrom(type))
+                serializer = (ValueSerializer<Collection<?>>)(collection, g, s) -> s.writeCollection(collection, g);
+        }
+        this.resolved.put(type, serializer);
+        return serializer;
+    }
+}
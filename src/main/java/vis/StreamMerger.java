@@ -0,0 +1,228 @@
+package vis;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the event streams of several interceptors into one stream ordered
+ * by timestamp. Every stream is assumed to be ordered by itself, so only the
+ * head of each stream has to be compared, which is done with a heap of the
+ * streams keyed by their head event (a k-way merge). The head of the heap is
+ * released once no open stream can deliver an earlier event anymore, i.e.
+ * once every stream without queued events has already passed its time (the
+ * watermark), or once it has been held back for longer than the maximum
+ * delay, so that a stream which falls silent stalls the others for a
+ * bounded time only. The total number of held back events is bounded too.
+ * <p>
+ * Actor names of every stream are prefixed with the node id of the stream,
+ * so actors of different machines never collide, and the released events
+ * are renumbered with one sequence across all streams. Offering and closing
+ * streams is thread-safe, while draining has to be done by a single thread.
+ */
+final class StreamMerger {
+
+    /**
+     * Receives the released events in order
+     */
+    interface Target {
+        void accept(EventSlot event) throws IOException;
+    }
+
+    /**
+     * Event stream of one interceptor
+     */
+    final class Input {
+        private final String nodeId;
+        private final int index;
+        private final ArrayDeque<EventSlot> events = new ArrayDeque<>();
+        private final ArrayDeque<Long> arrivals = new ArrayDeque<>();
+        private long lastTime = Long.MIN_VALUE;
+        private boolean closed;
+
+        private Input(String nodeId, int index) {
+            this.nodeId = nodeId;
+            this.index = index;
+        }
+
+        String getNodeId() {
+            return this.nodeId;
+        }
+    }
+
+    private static final Comparator<Input> BY_HEAD = (a, b) -> {
+        EventSlot x = a.events.peekFirst(), y = b.events.peekFirst();
+        if (x.time != y.time) return Long.compare(x.time, y.time);
+        if (x.seq != y.seq) return Long.compare(x.seq, y.seq);
+        return Integer.compare(a.index, b.index);
+    };
+
+    private final long maxDelayNanos;
+    private final int maxBuffered;
+    private final Map<String, Input> inputs = new HashMap<>();
+    private final PriorityQueue<Input> heads = new PriorityQueue<>(BY_HEAD);
+    private final List<EventSlot> released = new ArrayList<>();
+    private int nextIndex;
+    private int buffered;
+    private long nextSeq;
+    private long lastReleasedTime = Long.MIN_VALUE;
+    private long late;
+
+    /**
+     * @param maxDelayMs Longest time an event is held back waiting for the other streams
+     * @param maxBuffered Most events held back across all streams before the earliest is released anyway
+     */
+    StreamMerger(long maxDelayMs, int maxBuffered) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.maxBuffered = Math.max(1, maxBuffered);
+    }
+
+    /**
+     * Opens the stream of a node
+     * @throws IllegalArgumentException If a stream of the node is already open
+     */
+    synchronized Input open(String nodeId) {
+        Input input = this.inputs.get(nodeId);
+        if (input != null && !input.closed)
+            throw new IllegalArgumentException(String.format("Node %s is already connected", nodeId));
+        input = new Input(nodeId, this.nextIndex++);
+        this.inputs.put(nodeId, input);
+        return input;
+    }
+
+    /**
+     * Closes the stream of a node. Its held back events are still released,
+     * but it no longer holds back the events of the other streams.
+     */
+    synchronized void close(Input input) {
+        input.closed = true;
+        if (input.events.isEmpty() && this.inputs.get(input.nodeId) == input) this.inputs.remove(input.nodeId);
+    }
+
+    /**
+     * Queues a copy of the event with the actor names namespaced by the node id
+     * @param arrivalNanos System.nanoTime() at which the event arrived
+     */
+    synchronized void offer(Input input, EventSlot event, long arrivalNanos) {
+        EventSlot copy = new EventSlot();
+        copy.copyFrom(event);
+        copy.name = namespace(input, copy.name);
+        copy.from = namespace(input, copy.from);
+        copy.to = namespace(input, copy.to);
+        if (copy.type == EventType.STATE && copy.name == null && copy.state != null
+                && copy.state.get("name") instanceof String) {
+            Map<String, Object> state = new HashMap<>(copy.state);
+            state.put("name", namespace(input, (String)state.get("name")));
+            copy.state = state;
+        }
+        else if (copy.type == EventType.METRICS && copy.state != null && copy.state.get("actors") instanceof Map) {
+            Map<String, Object> actors = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)copy.state.get("actors")).entrySet())
+                actors.put(namespace(input, String.valueOf(entry.getKey())), entry.getValue());
+            Map<String, Object> state = new HashMap<>(copy.state);
+            state.put("actors", actors);
+            copy.state = state;
+        }
+
+        boolean wasEmpty = input.events.isEmpty();
+        input.events.addLast(copy);
+        input.arrivals.addLast(arrivalNanos);
+        input.lastTime = Math.max(input.lastTime, copy.time);
+        this.buffered++;
+        if (wasEmpty) this.heads.add(input);
+    }
+
+    /**
+     * Hands every event which can be released by now over to the target
+     * @param nowNanos Current System.nanoTime()
+     * @return Number of released events
+     */
+    int drainTo(Target target, long nowNanos) throws IOException {
+        return drain(target, nowNanos, false);
+    }
+
+    /**
+     * Hands every held back event over to the target, in order, without
+     * waiting for the other streams any longer
+     * @return Number of released events
+     */
+    int drainAll(Target target) throws IOException {
+        return drain(target, 0, true);
+    }
+
+    private int drain(Target target, long nowNanos, boolean all) throws IOException {
+        List<EventSlot> events = this.released;
+        synchronized (this) {
+            while (!this.heads.isEmpty()) {
+                Input input = this.heads.peek();
+                EventSlot head = input.events.peekFirst();
+                if (!all && head.time > watermark() && this.buffered <= this.maxBuffered
+                        && nowNanos - input.arrivals.peekFirst() < this.maxDelayNanos) break;
+
+                this.heads.poll();
+                input.events.pollFirst();
+                input.arrivals.pollFirst();
+                this.buffered--;
+                if (!input.events.isEmpty()) this.heads.add(input);
+                else if (input.closed && this.inputs.get(input.nodeId) == input) this.inputs.remove(input.nodeId);
+
+                if (head.time < this.lastReleasedTime) this.late++;
+                else this.lastReleasedTime = head.time;
+                head.seq = this.nextSeq++;
+                events.add(head);
+            }
+        }
+        /* the target may be slow, so it is called without holding back the producers */
+        try {
+            for (EventSlot event : events) target.accept(event);
+            return events.size();
+        }
+        finally {
+            events.clear();
+        }
+    }
+
+    /**
+     * @return Number of events which were released after a later event
+     *         because their stream fell behind by more than the maximum delay
+     */
+    synchronized long getLate() {
+        return this.late;
+    }
+
+    /**
+     * @return Number of streams which are open or still have held back events
+     */
+    synchronized int getStreams() {
+        return this.inputs.size();
+    }
+
+    /**
+     * @return Number of events held back
+     */
+    synchronized int getBuffered() {
+        return this.buffered;
+    }
+
+    /**
+     * @return Earliest time at which an open stream without held back events may still deliver an event
+     */
+    private long watermark() {
+        long watermark = Long.MAX_VALUE;
+        for (Input input : this.inputs.values()) {
+            if (!input.closed && input.events.isEmpty()) watermark = Math.min(watermark, input.lastTime);
+        }
+        return watermark;
+    }
+
+    private static String namespace(Input input, String name) {
+        return name == null ? null : input.nodeId + "/" + name;
+    }
+}
@@ -0,0 +1,343 @@
+package vis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the frames over a plain TCP connection, which spares the socket.io
+ * and engine.io framing when the receiving end (e.g. {@link VisAggregator})
+ * runs next to the actor program. Every frame is prefixed by its length:
+ * <pre>
+ * int    length of the rest of the frame
+ * byte   length of the event name
+ * bytes  UTF-8 event name
+ * bytes  payload
+ * </pre>
+ * The first frame of every connection is a "setSocketId" frame carrying the
+ * node id of the interceptor. Frames are queued by the sending thread and
+ * written by a single I/O thread over a non-blocking channel, several at a
+ * time with one gathering write, with the headers in a direct buffer. Frames
+ * sent while the sink is disconnected, or while more than the maximum of
+ * bytes is still waiting to be written, are dropped, which send reports so
+ * that the interceptor starts its dictionaries over. So are the frames
+ * still waiting when the connection is lost, as they may refer to
+ * dictionaries which the receiving end loses along with the connection.
+ * Every frame is tagged with the connection it was sent for, so a frame
+ * which a sender queues just as the connection is lost is dropped too,
+ * rather than written ahead of the id on the next connection.
+ */
+final class TcpEventSink implements EventSink {
+    private final static Logger logger = LoggerFactory.getLogger(TcpEventSink.class);
+    private static final int MAX_EVENT_NAME_BYTES = 255;
+    private static final int HEADER_BYTES = Integer.BYTES + 1 + MAX_EVENT_NAME_BYTES;
+    /* well below IOV_MAX, as every frame takes two buffers */
+    private static final int MAX_GATHERED_FRAMES = 128;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private static final class Frame {
+        final int generation;
+        final byte[] event;
+        final byte[] payload;
+
+        Frame(int generation, byte[] event, byte[] payload) {
+            this.generation = generation;
+            this.event = event;
+            this.payload = payload;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final String nodeId;
+    private final long maxPendingBytes;
+    private final Map<String, byte[]> eventNames = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Frame> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean connected;
+    /* counts the connections, only the I/O thread increments it */
+    private volatile int generation;
+    private volatile boolean running = true;
+    private Runnable onConnect;
+    private Thread writer;
+
+    /* owned by the I/O thread */
+    private Selector selector;
+    private SocketChannel channel;
+    private final ByteBuffer headers = ByteBuffer.allocateDirect(MAX_GATHERED_FRAMES * HEADER_BYTES);
+    private final ByteBuffer input = ByteBuffer.allocateDirect(256);
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_FRAMES * 2];
+    private int gatheredCount;
+    private int gatheredOffset;
+
+    /**
+     * @param nodeId Id the interceptor introduces itself with on every connection
+     * @param maxPendingBytes Most bytes of frames waiting to be written before new frames are dropped
+     */
+    TcpEventSink(InetSocketAddress address, String nodeId, long maxPendingBytes) {
+        this.address = address;
+        this.nodeId = nodeId;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    @Override
+    public synchronized void open(Runnable onConnect) {
+        if (this.writer != null) throw new IllegalStateException("The sink is already open");
+        this.onConnect = onConnect;
+        try {
+            this.selector = Selector.open();
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException("Could not open a selector", ex);
+        }
+        this.writer = new Thread(this::ioLoop, "vis-tcp-sink");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public boolean send(String event, byte[] frame) {
+        /* read ahead of the flag, so a frame sent for a lost connection never passes for one of the next */
+        int generation = this.generation;
+        if (!this.connected) {
+            this.dropped.increment();
+            return false;
+        }
+        if (this.pendingBytes.addAndGet(frame.length) > this.maxPendingBytes) {
+            this.pendingBytes.addAndGet(-frame.length);
+            this.dropped.increment();
+            return false;
+        }
+        this.pending.add(new Frame(generation, eventName(event), frame));
+        /* the I/O thread only has to be woken up when it may have run out of frames */
+        if (this.pendingFrames.getAndIncrement() == 0) this.selector.wakeup();
+        return true;
+    }
+
+    /**
+     * @return Number of frames dropped because the sink was disconnected or the receiver could not keep up
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    private byte[] eventName(String event) {
+        byte[] name = this.eventNames.get(event);
+        if (name != null) return name;
+        name = event.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_EVENT_NAME_BYTES)
+            throw new IllegalArgumentException(String.format("Event name %s is too long", event));
+        this.eventNames.put(event, name);
+        return name;
+    }
+
+    /**
+     * Writes the frames still waiting, for a bounded time, and closes the connection
+     */
+    @Override
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            writer = this.writer;
+        }
+        this.running = false;
+        if (writer == null) return;
+        this.selector.wakeup();
+        try {
+            writer.join(CLOSE_TIMEOUT_MS + RECONNECT_DELAY_MS);
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ioLoop() {
+        long closeDeadline = 0;
+        try {
+            while (true) {
+                if (!this.running) {
+                    if (closeDeadline == 0) closeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+                    if (!this.connected || !hasUnwritten() || System.nanoTime() > closeDeadline) break;
+                }
+                try {
+                    if (this.channel == null) connect();
+                    if (this.connected) write();
+                    this.selector.select(this.running ? 0 : 10);
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        if (key.isValid() && key.isConnectable()) finishConnect();
+                        else if (key.isValid() && key.isReadable()) discardInput();
+                    }
+                    this.selector.selectedKeys().clear();
+                }
+                catch(IOException ex) {
+                    if (this.running) logger.warn(String.format("Connection to %s lost: %s", this.address, ex.getMessage()));
+                    disconnect();
+                    if (!this.running) break;
+                    this.selector.select(RECONNECT_DELAY_MS);
+                    this.selector.selectedKeys().clear();
+                }
+            }
+        }
+        catch(IOException | ClosedSelectorException ex) {
+            logger.error("TCP sink stopped", ex);
+        }
+        finally {
+            disconnect();
+            try {
+                this.selector.close();
+            }
+            catch(IOException ex) {
+                logger.warn("Could not close the selector", ex);
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        if (this.channel.connect(this.address)) onConnected();
+        else this.channel.register(this.selector, SelectionKey.OP_CONNECT);
+    }
+
+    private void finishConnect() throws IOException {
+        if (this.channel.finishConnect()) onConnected();
+    }
+
+    private void onConnected() throws IOException {
+        /* nothing is expected to arrive, but reading is how a closed connection shows up */
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+        /* the id goes first, as whatever is still queued ahead of it belongs to the previous connection */
+        int generation = this.generation + 1;
+        this.generation = generation;
+        byte[] id = this.nodeId.getBytes(StandardCharsets.UTF_8);
+        this.pendingBytes.addAndGet(id.length);
+        this.pending.add(new Frame(generation, eventName("setSocketId"), id));
+        this.pendingFrames.incrementAndGet();
+        this.onConnect.run();
+        this.connected = true;
+        logger.info(String.format("Connected to %s as %s", this.address, this.nodeId));
+    }
+
+    private void disconnect() {
+        this.connected = false;
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            }
+            catch(IOException ex) {
+                logger.warn("Could not close the connection", ex);
+            }
+            this.channel = null;
+        }
+        int lost = 0;
+        for (int i = this.gatheredOffset; i < this.gatheredCount; i++) {
+            if ((i & 1) == 1) {
+                this.pendingBytes.addAndGet(-this.gathered[i].capacity());
+                lost++;
+            }
+            this.gathered[i] = null;
+        }
+        this.gatheredCount = 0;
+        this.gatheredOffset = 0;
+        Frame frame;
+        while ((frame = this.pending.poll()) != null) {
+            this.pendingFrames.decrementAndGet();
+            this.pendingBytes.addAndGet(-frame.payload.length);
+            lost++;
+        }
+        if (lost > 0) this.dropped.add(lost);
+    }
+
+    private boolean hasUnwritten() {
+        return this.gatheredOffset < this.gatheredCount || this.pendingFrames.get() > 0;
+    }
+
+    /**
+     * Writes as many frames as the socket accepts without blocking, and asks
+     * to be selected once it accepts more if some are left over
+     */
+    private void write() throws IOException {
+        while (true) {
+            if (this.gatheredOffset == this.gatheredCount && !gather()) break;
+
+            this.channel.write(this.gathered, this.gatheredOffset, this.gatheredCount - this.gatheredOffset);
+            while (this.gatheredOffset < this.gatheredCount && !this.gathered[this.gatheredOffset].hasRemaining()) {
+                /* payloads sit at odd positions, their bytes are no longer pending once written */
+                if ((this.gatheredOffset & 1) == 1) this.pendingBytes.addAndGet(-this.gathered[this.gatheredOffset].capacity());
+                this.gathered[this.gatheredOffset++] = null;
+            }
+            if (this.gatheredOffset < this.gatheredCount) {
+                this.channel.keyFor(this.selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        this.channel.keyFor(this.selector).interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Skips whatever the receiving end sends
+     * @throws IOException Once the receiving end has closed the connection
+     */
+    private void discardInput() throws IOException {
+        this.input.clear();
+        while (this.channel.read(this.input) > 0) this.input.clear();
+        if (this.channel.read(this.input) < 0) throw new IOException("Connection closed by the receiver");
+    }
+
+    /**
+     * Takes the next frames off the queue into the buffers of one gathering write
+     * @return False if no frame is waiting
+     */
+    private boolean gather() {
+        this.headers.clear();
+        this.gatheredCount = 0;
+        this.gatheredOffset = 0;
+        Frame frame;
+        while (this.gatheredCount < this.gathered.length && (frame = this.pending.poll()) != null) {
+            this.pendingFrames.decrementAndGet();
+            if (frame.generation != this.generation) {
+                this.pendingBytes.addAndGet(-frame.payload.length);
+                this.dropped.increment();
+                continue;
+            }
+            int start = this.headers.position();
+            this.headers.putInt(1 + frame.event.length + frame.payload.length);
+            this.headers.put((byte)frame.event.length);
+            this.headers.put(frame.event);
+            ByteBuffer header = this.headers.duplicate();
+            header.position(start).limit(this.headers.position());
+            this.gathered[this.gatheredCount++] = header;
+            this.gathered[this.gatheredCount++] = ByteBuffer.wrap(frame.payload);
+        }
+        return this.gatheredCount > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tcp://%s:%d", this.address.getHostString(), this.address.getPort());
+    }
+}
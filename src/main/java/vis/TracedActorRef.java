@@ -0,0 +1,115 @@
+package vis;
+
+import akka.actor.ActorPath;
+import akka.actor.typed.ActorRef;
+
+/**
+ * Reference to a traced actor which records the actor that tells it a
+ * message. A message told from within a traced actor is delivered in an
+ * envelope along with the sender's name, which the receiver's tracing
+ * interceptor takes off again, so the receiver knows its sender without
+ * the message carrying its key. Messages told from anywhere else are
+ * delivered as they are. Like the references of Akka, it equals every
+ * reference to the same actor, whichever of the two is asked. Akka only
+ * watches, stops and asks its own references though, so those are handed
+ * the reference it wraps, see {@link VisBehaviors#unwrap}.
+ */
+final class TracedActorRef<T> implements ActorRef<T> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A message along with the name of the actor which sent it
+     */
+    static final class Sent {
+        final String sender;
+        /* System.nanoTime() when the message was sent, or Message.UNSTAMPED */
+        final long sentNanos;
+        /* whether the message was counted as sent to the receiver, so its receipt is counted against it */
+        final boolean counted;
+        final Object message;
+
+        Sent(String sender, long sentNanos, boolean counted, Object message) {
+            this.sender = sender;
+            this.sentNanos = sentNanos;
+            this.counted = counted;
+            this.message = message;
+        }
+    }
+
+    private final ActorRef<T> ref;
+    /* counters of the receiver, looked up again once its actor is destroyed */
+    private transient MailboxSampler.Counters counters;
+
+    TracedActorRef(ActorRef<T> ref) {
+        this.ref = ref;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void tell(T message) {
+        VisBehaviors.TracingInterceptor<?> sender = VisBehaviors.currentActor();
+        if (sender == null) this.ref.tell(message);
+        else this.ref.<Object>unsafeUpcast().tell(sender.send(this, message));
+    }
+
+    /**
+     * @return Reference this one wraps
+     */
+    ActorRef<T> unwrap() {
+        return this.ref;
+    }
+
+    /**
+     * @return Counters of the messages of the receiver, or null if they are not counted
+     */
+    MailboxSampler.Counters counters(MyVisualizerClient vis) {
+        if (!vis.isMailboxSamplingEnabled()) return null;
+        MailboxSampler.Counters counters = this.counters;
+        if (counters == null || counters.isClosed()) {
+            /* racing threads look the same counters up, so the field needs no synchronization */
+            counters = vis.counters(this.ref.path().name());
+            this.counters = counters;
+        }
+        return counters;
+    }
+
+    @Override
+    public <U extends T> ActorRef<U> narrow() {
+        return new TracedActorRef<>(this.ref.<U>narrow());
+    }
+
+    @Override
+    public <U> ActorRef<U> unsafeUpcast() {
+        return new TracedActorRef<>(this.ref.<U>unsafeUpcast());
+    }
+
+    @Override
+    public ActorPath path() {
+        return this.ref.path();
+    }
+
+    @Override
+    public int compareTo(ActorRef<?> other) {
+        return this.ref.compareTo(other);
+    }
+
+    /**
+     * Compares the paths along with their uids, the way the references of Akka compare with any other reference
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ActorRef)) return false;
+        ActorPath path = ((ActorRef<?>)other).path();
+        return path().uid() == path.uid() && path().equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path().uid();
+    }
+
+    @Override
+    public String toString() {
+        return this.ref.toString();
+    }
+}
@@ -0,0 +1,327 @@
+package vis;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Standalone process which sits between the interceptors of several actor
+ * systems (e.g. the nodes of a cluster) and the server. Every interceptor
+ * connects with a {@link TcpEventSink}, so the first frame of a connection
+ * carries the node id of the interceptor, and every further frame has to be
+ * a binary frame as encoded by {@link BinaryEventEncoder}, which may be
+ * compressed by a {@link FrameCompressor}. The streams are merged in timestamp order by a
+ * {@link StreamMerger}, which prefixes every actor name with its node id,
+ * and forwarded as one stream. Usage:
+ * <pre>
+ * VisAggregator [port]
+ * </pre>
+ */
+public final class VisAggregator implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(VisAggregator.class);
+    private static final int MAX_FRAME_BYTES = 64 << 20;
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long FORWARD_INTERVAL_MS = 10;
+    private static final Set<String> BINARY_EVENTS = new HashSet<>(Arrays.asList("binaryEvent", "binaryBatch"));
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    private final StreamMerger merger;
+    private final StreamMerger.Target target;
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final Thread forwarder;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    /**
+     * Starts listening for interceptors
+     * @param port Port to listen on, or 0 for any free port
+     * @param maxDelayMs Longest time an event is held back waiting for the other nodes
+     * @param maxBuffered Most events held back across all nodes
+     * @param target Receives the merged stream on a single thread
+     */
+    VisAggregator(int port, long maxDelayMs, int maxBuffered, StreamMerger.Target target) throws IOException {
+        this.merger = new StreamMerger(maxDelayMs, maxBuffered);
+        this.target = target;
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(port));
+        this.acceptor = new Thread(this::acceptLoop, "vis-aggregator-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        this.forwarder = new Thread(this::forwardLoop, "vis-aggregator-forwarder");
+        this.forwarder.setDaemon(true);
+        this.forwarder.start();
+    }
+
+    /**
+     * @return Port the aggregator listens on
+     */
+    int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    StreamMerger getMerger() {
+        return this.merger;
+    }
+
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                Socket connection = this.server.accept();
+                this.connections.add(connection);
+                Thread reader = new Thread(() -> readLoop(connection), "vis-aggregator-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            catch(IOException ex) {
+                if (this.running) logger.error("Could not accept interceptor connection", ex);
+            }
+        }
+    }
+
+    /**
+     * Decodes the frames of one interceptor into the merger until it disconnects
+     */
+    private void readLoop(Socket connection) {
+        StreamMerger.Input input = null;
+        try (Socket socket = connection; FrameInflater inflater = new FrameInflater(MAX_FRAME_BYTES)) {
+            FrameInput in = new FrameInput(socket.getInputStream());
+            byte[] frame = in.next();
+            if (frame == null) return;
+            if (!"setSocketId".equals(in.event)) throw new IOException("The first frame does not carry a node id");
+            input = this.merger.open(new String(frame, StandardCharsets.UTF_8));
+            logger.info(String.format("Node %s connected from %s", input.getNodeId(), socket.getRemoteSocketAddress()));
+
+            FrameReader reader = new FrameReader(input);
+            while ((frame = in.next()) != null) {
+                String event = in.event;
+                if (FrameCompressor.DICTIONARY_EVENT.equals(event)) {
+                    inflater.addDictionary(frame);
+                    continue;
+                }
+                String inflated = FrameCompressor.inflated(event);
+                if (inflated != null) {
+                    frame = inflater.inflate(frame);
+                    event = inflated;
+                }
+                if (!BINARY_EVENTS.contains(event))
+                    throw new IOException(String.format("Unsupported %s frame, the interceptor has to use the binary wire format", event));
+                reader.decode(frame);
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            if (this.running) logger.warn(String.format("Dropping interceptor connection: %s", ex.getMessage()));
+        }
+        finally {
+            this.connections.remove(connection);
+            if (input != null) {
+                this.merger.close(input);
+                logger.info(String.format("Node %s disconnected", input.getNodeId()));
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of one connection in the format written by {@link TcpEventSink}
+     */
+    private static final class FrameInput {
+        private final DataInputStream in;
+        /** Event name of the last frame read */
+        String event;
+
+        FrameInput(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+        }
+
+        /**
+         * @return Payload of the next frame, or null once the stream has ended
+         */
+        byte[] next() throws IOException {
+            int length;
+            try {
+                length = this.in.readInt();
+            }
+            catch(EOFException ex) {
+                return null;
+            }
+            if (length < 1 || length > MAX_FRAME_BYTES)
+                throw new IOException(String.format("Invalid frame length %d", length));
+            int eventLength = this.in.readUnsignedByte();
+            if (eventLength > length - 1) throw new IOException(String.format("Invalid event name length %d", eventLength));
+            byte[] event = new byte[eventLength];
+            this.in.readFully(event);
+            this.event = new String(event, StandardCharsets.UTF_8);
+            byte[] payload = new byte[length - 1 - eventLength];
+            this.in.readFully(payload);
+            return payload;
+        }
+    }
+
+    private void forwardLoop() {
+        while (this.running || this.merger.getBuffered() > 0) {
+            try {
+                if (this.running) {
+                    this.merger.drainTo(this.target, System.nanoTime());
+                    TimeUnit.MILLISECONDS.sleep(FORWARD_INTERVAL_MS);
+                }
+                /* on shutdown nothing arrives anymore, so whatever is left is released at once */
+                else this.merger.drainAll(this.target);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch(IOException | RuntimeException ex) {
+                logger.error("Could not forward merged events", ex);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting interceptors and forwards the events still held back
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        try {
+            this.server.close();
+            for (Socket connection : this.connections) connection.close();
+            this.acceptor.join();
+            this.forwarder.join();
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Turns the decoded records of one connection back into events
+     */
+    private final class FrameReader implements BinaryEventDecoder.Listener {
+        private final StreamMerger.Input input;
+        private final BinaryEventDecoder decoder = new BinaryEventDecoder();
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final EventSlot slot = new EventSlot();
+        private long arrival;
+
+        FrameReader(StreamMerger.Input input) {
+            this.input = input;
+        }
+
+        void decode(byte[] frame) {
+            this.arrival = System.nanoTime();
+            this.decoder.decode(frame, this);
+        }
+
+        private void offer(EventType type, long time, String name, String label, String from, String to,
+                           String json, long count) {
+            try {
+                this.slot.set(type, time, name, label, from, to,
+                        json == null ? null : this.mapper.readValue(json, STATE_TYPE), count);
+            }
+            catch(IOException ex) {
+                throw new IllegalArgumentException("Malformed state record", ex);
+            }
+            this.slot.seq = this.decoder.getSequence();
+            merger.offer(this.input, this.slot, this.arrival);
+        }
+
+        public void onSpawn(long time, String name) {
+            offer(EventType.SPAWN, time, name, null, null, null, null, 0);
+        }
+
+        public void onReceive(long time, String label, String from, String to) {
+            offer(EventType.RECEIVE, time, null, label, from, to, null, 0);
+        }
+
+        public void onState(long time, String state) {
+            offer(EventType.STATE, time, null, null, null, null, state, 0);
+        }
+
+        public void onDestroy(long time, String name) {
+            offer(EventType.DESTROY, time, name, null, null, null, null, 0);
+        }
+
+        public void onEdgeDelta(long time, String label, String from, String to, long count) {
+            offer(EventType.EDGE_DELTA, time, null, label, from, to, null, count);
+        }
+
+        public void onActorState(long time, String name, String state) {
+            offer(EventType.STATE, time, name, null, null, null, state, 0);
+        }
+
+        public void onStatePatch(long time, String name, String patch) {
+            offer(EventType.STATE_PATCH, time, name, null, null, null, patch, 0);
+        }
+
+        public void onEdgeLatency(long time, String label, String from, String to, long count,
+                                  long p50, long p99, long max) {
+            this.slot.set(EventType.EDGE_LATENCY, time, null, label, from, to, EdgeLatencies.toMap(p50, p99, max), count);
+            this.slot.seq = this.decoder.getSequence();
+            merger.offer(this.input, this.slot, this.arrival);
+        }
+
+        public void onHotActor(long time, String name, String label, long count, long total, long max) {
+            this.slot.set(EventType.HOT_ACTOR, time, name, label, null, null, HandlerProfiler.toMap(total, max), count);
+            this.slot.seq = this.decoder.getSequence();
+            merger.offer(this.input, this.slot, this.arrival);
+        }
+
+        public void onMetrics(long time, Map<String, Object> metrics) {
+            this.slot.set(EventType.METRICS, time, null, null, null, null, metrics, 0);
+            this.slot.seq = this.decoder.getSequence();
+            merger.offer(this.input, this.slot, this.arrival);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        VisSettings settings = VisSettings.load();
+        int port = args.length < 1 ? settings.getAggregatorPort() : Integer.parseInt(args[0]);
+
+        EventEncoder encoder = settings.getWireFormat() == VisSettings.WireFormat.BINARY ?
+                new BinaryEventEncoder() : new EventSerializer(settings.isJsonPreciseTime());
+        /* the interceptors may well be configured to send to the aggregator, so it always forwards over socket.io */
+        EventSink sink = new SocketIoSink(URI.create(settings.getSinkUri()), settings);
+        sink.open(encoder::onConnect);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (!sink.isConnected() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        if (!sink.isConnected()) {
+            System.err.println(String.format("Could not connect to %s", sink));
+            System.exit(1);
+        }
+
+        SinkTarget target = new SinkTarget(sink, encoder);
+        VisAggregator aggregator = new VisAggregator(port, settings.getAggregatorMaxDelayMs(),
+                settings.getAggregatorMaxBuffered(), target);
+        System.out.println(String.format("Aggregating interceptors on port %d", aggregator.getPort()));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            aggregator.close();
+            /* the forwarder has stopped, so its count is final */
+            if (target.getDropped() > 0) logger.warn(String.format("Dropped %d events", target.getDropped()));
+            sink.close();
+        }));
+        aggregator.acceptor.join();
+    }
+}
@@ -0,0 +1,215 @@
+package vis;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.BehaviorInterceptor;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.PreRestart;
+import akka.actor.typed.Signal;
+import akka.actor.typed.TypedActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.util.function.LongFunction;
+
+/**
+ * Wraps actor behaviors so that the visualizer is notified of their
+ * spawn, of every message they receive and of their termination, without
+ * the actor having to call submit, MessageWrapper.notify or destroy itself.
+ * <pre>
+ * Behavior&lt;Command&gt; create(MyVisualizerClient vis) {
+ *     return VisBehaviors.traced(vis, key -&gt; Behaviors.setup(context -&gt; new MyActor(key, context)));
+ * }
+ * </pre>
+ * The sender of a message is captured when it is told: while a traced
+ * actor handles a message, it is the current actor of its thread, and
+ * references wrapped with {@link #ref} deliver what it tells them along
+ * with its name. So the messages of traced actors need not implement
+ * {@link Message}, and the receiver finds its sender without looking its
+ * key up. Messages told through plain references fall back to their
+ * sender key, if they have one. With edge latencies enabled, the envelope
+ * also carries the send time, and the receiver records the time from the
+ * send until the message has been handled. With profiling enabled, the
+ * time every handler takes is recorded per message class, and with
+ * mailbox sampling enabled, the messages told through traced references,
+ * received and processed are counted per actor. Tracing is local to the
+ * actor system: the envelopes are not serializable, so references of
+ * actors of other systems are not wrapped, and their messages carry no
+ * sender unless they implement {@link Message}.
+ */
+public final class VisBehaviors {
+
+    /* interceptor of the traced actor running on the thread, if any */
+    private static final ThreadLocal<TracingInterceptor<?>> CURRENT_ACTOR = new ThreadLocal<>();
+
+    /**
+     * Emits a receive event before the wrapped behavior handles each message
+     * and a destroy event once the actor has stopped, and makes the actor the
+     * current actor of its thread meanwhile. The actor name is resolved once
+     * when the actor starts.
+     */
+    static final class TracingInterceptor<T> extends BehaviorInterceptor<Object, T> {
+        private final MyVisualizerClient vis;
+        private final String name;
+        private final HandlerProfiler.ActorProfile profile;
+        private final MailboxSampler.Counters counters;
+
+        TracingInterceptor(MyVisualizerClient vis, String name) {
+            super(Object.class);
+            this.vis = vis;
+            this.name = name;
+            this.profile = vis.profile(name);
+            this.counters = vis.counters(name);
+        }
+
+        @Override
+        public Behavior<T> aroundStart(TypedActorContext<Object> ctx, PreStartTarget<T> target) {
+            TracingInterceptor<?> previous = enter(this);
+            try {
+                return target.start(ctx);
+            }
+            finally {
+                CURRENT_ACTOR.set(previous);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Behavior<T> aroundReceive(TypedActorContext<Object> ctx, Object msg, ReceiveTarget<T> target) {
+            String sender;
+            long sentNanos = Message.UNSTAMPED;
+            if (this.counters != null)
+                this.counters.onReceived(msg instanceof TracedActorRef.Sent && ((TracedActorRef.Sent)msg).counted);
+            if (msg instanceof TracedActorRef.Sent) {
+                TracedActorRef.Sent sent = (TracedActorRef.Sent)msg;
+                sender = sent.sender;
+                sentNanos = sent.sentNanos;
+                msg = sent.message;
+            }
+            else if (msg instanceof Message) {
+                sender = this.vis.getActorName(((Message)msg).getSenderKey());
+                sentNanos = ((Message)msg).getSendTimeNanos();
+            }
+            else sender = "";
+            String label = MessageLabels.of(msg);
+            this.vis.receive(label, sender, this.name);
+            TracingInterceptor<?> previous = enter(this);
+            boolean timed = this.profile != null || this.counters != null;
+            long start = timed ? System.nanoTime() : 0;
+            try {
+                return target.apply(ctx, (T)msg);
+            }
+            finally {
+                if (timed) {
+                    long handled = System.nanoTime() - start;
+                    if (this.profile != null) this.profile.record(msg.getClass(), handled);
+                    if (this.counters != null) {
+                        this.counters.onProcessed();
+                        this.vis.onBusy(handled);
+                    }
+                }
+                CURRENT_ACTOR.set(previous);
+                /* the latency covers the time the message was queued and the time it took to handle it */
+                this.vis.recordLatency(label, sender, this.name, sentNanos);
+            }
+        }
+
+        @Override
+        public Behavior<T> aroundSignal(TypedActorContext<Object> ctx, Signal signal, SignalTarget<T> target) {
+            TracingInterceptor<?> previous = enter(this);
+            try {
+                return target.apply(ctx, signal);
+            }
+            finally {
+                CURRENT_ACTOR.set(previous);
+                /* a restarted actor starts over with a new interceptor and so with a new profile */
+                if (this.profile != null && (signal instanceof PostStop || signal instanceof PreRestart)) this.profile.close();
+                if (signal instanceof PostStop) this.vis.destroy(this.name);
+            }
+        }
+
+        /**
+         * Wraps a message told by this actor in an envelope along with its
+         * name, after counting it as sent to the receiver. A receiver which
+         * has not registered yet only counts the messages sent afterwards.
+         */
+        Object send(TracedActorRef<?> receiver, Object message) {
+            MailboxSampler.Counters counters = receiver.counters(this.vis);
+            if (counters != null) counters.onSent();
+            return new TracedActorRef.Sent(this.name,
+                    this.vis.isEdgeLatencyEnabled() ? System.nanoTime() : Message.UNSTAMPED, counters != null, message);
+        }
+
+        private static TracingInterceptor<?> enter(TracingInterceptor<?> interceptor) {
+            TracingInterceptor<?> previous = CURRENT_ACTOR.get();
+            CURRENT_ACTOR.set(interceptor);
+            return previous;
+        }
+    }
+
+    private VisBehaviors() {
+    }
+
+    /**
+     * Submits the actor to the visualizer when it is spawned and traces its behavior
+     * @param vis Visualizer client to notify
+     * @param behavior Behavior of the actor
+     */
+    public static <T> Behavior<T> traced(MyVisualizerClient vis, Behavior<T> behavior) {
+        return traced(vis, key -> behavior);
+    }
+
+    /**
+     * Submits the actor to the visualizer when it is spawned and traces the behavior
+     * created for it, which gets the actor's key e.g. to put it in the messages it sends
+     * @param vis Visualizer client to notify
+     * @param factory Creates the behavior of the actor from its key
+     */
+    public static <T> Behavior<T> traced(MyVisualizerClient vis, LongFunction<Behavior<T>> factory) {
+        return acceptingEnvelopes(Behaviors.setup(context -> {
+            String name = context.getSelf().path().name();
+            vis.bind(context.getSystem());
+            long key = vis.submit(name);
+            return Behaviors.intercept(() -> new TracingInterceptor<T>(vis, name), factory.apply(key));
+        }));
+    }
+
+    /**
+     * Passes a behavior which takes any message off as one which takes the
+     * actor's own messages. The actor also accepts the envelopes of traced
+     * references, which its interceptor opens before the behavior sees them,
+     * so this is the one place where the message type of an actor is widened.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Behavior<T> acceptingEnvelopes(Behavior<Object> behavior) {
+        return (Behavior<T>)(Behavior<?>)behavior;
+    }
+
+    /**
+     * Wraps the reference of a traced actor, so that the actor learns who
+     * tells it a message. Only references of traced actors may be wrapped,
+     * as no other actor understands the envelopes the messages arrive in.
+     * @param ref Reference to a traced actor, e.g. as returned by spawn
+     * @return Reference which delivers every message along with its sender
+     * @throws IllegalArgumentException If the actor belongs to another actor system
+     */
+    public static <T> ActorRef<T> ref(ActorRef<T> ref) {
+        if (ref.path().address().hasGlobalScope())
+            throw new IllegalArgumentException(String.format("%s is remote, only local actors are traced", ref));
+        return ref instanceof TracedActorRef ? ref : new TracedActorRef<>(ref);
+    }
+
+    /**
+     * @param ref Reference to an actor, traced or not
+     * @return Reference Akka can watch, stop or ask, i.e. the one a traced reference wraps
+     */
+    public static <T> ActorRef<T> unwrap(ActorRef<T> ref) {
+        return ref instanceof TracedActorRef ? ((TracedActorRef<T>)ref).unwrap() : ref;
+    }
+
+    /**
+     * @return Interceptor of the traced actor which is handling a message on this thread, or null
+     */
+    static TracingInterceptor<?> currentActor() {
+        return CURRENT_ACTOR.get();
+    }
+}
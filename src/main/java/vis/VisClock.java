@@ -0,0 +1,38 @@
+package vis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stamps events with microsecond timestamps and sequence numbers without
+ * allocating anything. The wall clock is only read once, when the clock is
+ * created, and every timestamp is derived from System.nanoTime() relative
+ * to that anchor, so timestamps never go backwards even if the wall clock
+ * is adjusted in the meantime. The sequence number strictly increases with
+ * every stamped event, which orders events exactly even when they share
+ * the same timestamp.
+ */
+final class VisClock {
+    private final long anchorMicros;
+    private final long anchorNanos;
+    private final AtomicLong sequence = new AtomicLong();
+
+    VisClock() {
+        this.anchorNanos = System.nanoTime();
+        this.anchorMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    /**
+     * @return Microseconds since the epoch
+     */
+    long currentTimeMicros() {
+        return this.anchorMicros + (System.nanoTime() - this.anchorNanos) / 1000;
+    }
+
+    /**
+     * @return Next sequence number, starting at zero
+     */
+    long nextSequence() {
+        return this.sequence.getAndIncrement();
+    }
+}
@@ -0,0 +1,52 @@
+package vis;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Receives the measurements of the interceptor, so they can be handed
+ * over to whatever metrics library the actor program already uses. The
+ * callbacks are invoked on the hot path, concurrently from actor threads
+ * and the flusher, so implementations have to be thread-safe and must not
+ * block. Every callback does nothing unless overridden.
+ */
+public interface VisMetrics {
+    /** Discards every measurement */
+    VisMetrics NOOP = new VisMetrics() {};
+
+    /**
+     * Called once with the gauges of the interceptor
+     * @param queueDepth Number of events waiting to be sent
+     * @param registrySize Number of registered actors
+     */
+    default void bindGauges(IntSupplier queueDepth, IntSupplier registrySize) {
+    }
+
+    /**
+     * An event was intercepted
+     * @param event Name of the socket event, e.g. "receive"
+     */
+    default void onEvent(String event) {
+    }
+
+    /**
+     * An event or a batch of events was encoded
+     * @param nanos Time spent encoding
+     */
+    default void onSerialized(long nanos) {
+    }
+
+    /**
+     * A frame was handed over to the socket
+     * @param nanos Time spent in socket.emit
+     * @param bytes Size of the frame
+     */
+    default void onEmitted(long nanos, int bytes) {
+    }
+
+    /**
+     * An event was dropped because the server could not keep up or was unreachable
+     * @param event Name of the socket event
+     */
+    default void onDropped(String event) {
+    }
+}
@@ -0,0 +1,619 @@
+package vis;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the tunables of the interceptor which are read from the
+ * "conf.vis" section of the input configuration file.
+ * Any missing property falls back to its default value.
+ */
+public class VisSettings {
+
+    /**
+     * Encoding of the frames which are emitted to the server
+     */
+    public enum WireFormat {
+        /** One JSON object per event, or a JSON array per batch */
+        JSON,
+        /** Dictionary-compressed binary records, see BinaryEventDecoder */
+        BINARY
+    }
+
+    /**
+     * Implementation of the actor key registry
+     */
+    public enum RegistryType {
+        /** Pair of concurrent hash maps, fastest lookups */
+        CONCURRENT,
+        /** Primitive tables and a byte arena of names, smallest footprint */
+        COMPACT
+    }
+
+    /**
+     * What happens to new events once the send buffer is full
+     */
+    public enum OverflowPolicy {
+        /** Hold the producing actors back until the server accepts events again */
+        BLOCK,
+        /** Drop the new event */
+        DROP_NEWEST,
+        /** Drop the oldest buffered events to make room for the new one */
+        DROP_OLDEST,
+        /** Drop receive and state events, but keep spawn and destroy events */
+        DROP_RECEIVES
+    }
+
+    /**
+     * Transport of the frames to the server
+     */
+    public enum SinkType {
+        /** socket.io events to the node JS server */
+        SOCKET_IO,
+        /** Kept in memory, for tests */
+        IN_MEMORY,
+        /** Length-prefixed frames over a plain TCP connection, e.g. to VisAggregator */
+        TCP
+    }
+
+    /**
+     * Threads the emitter runs on
+     */
+    public enum EmitterType {
+        /** A platform thread */
+        THREAD,
+        /** Virtual threads, where the JDK has them, otherwise platform threads */
+        VIRTUAL
+    }
+
+    /**
+     * How actor refs in actor states are written
+     */
+    public enum ActorRefFormat {
+        /** Name of the actor, which is what the visualizer knows it by */
+        NAME,
+        /** Full path of the actor */
+        PATH,
+        /** Key of the actor, or its name if it is not registered */
+        KEY
+    }
+
+    /**
+     * Which registered state suppliers are sampled periodically
+     */
+    public enum StateSampling {
+        /** Every actor with a supplier */
+        ALL,
+        /** Only the actors the server displays, or every actor until it says which */
+        DISPLAYED,
+        /** None, states are only sampled when the server requests them */
+        ON_DEMAND
+    }
+
+    private static final String CONFIG_FILE = "src/main/resources/input.conf";
+    private static final String ROOT = "conf.vis";
+
+    private final boolean pipelineEnabled;
+    private final int pipelineCapacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final boolean stateCoalescingEnabled;
+    private final WireFormat wireFormat;
+    private final RegistryType registryType;
+    private final boolean aggregationEnabled;
+    private final long aggregationIntervalMs;
+    private final boolean stateDiffEnabled;
+    private final long fullSnapshotIntervalMs;
+    private final long sendBufferBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean jsonPreciseTime;
+    private final boolean jsonBinaryPayloads;
+    private final long blockTimeoutMs;
+    private final boolean journalEnabled;
+    private final boolean journalLive;
+    private final String journalDirectory;
+    private final int journalSegmentBytes;
+    private final long journalIndexIntervalMs;
+    private final int aggregatorPort;
+    private final long aggregatorMaxDelayMs;
+    private final int aggregatorMaxBuffered;
+    private final boolean metricsEnabled;
+    private final boolean metricsJmxEnabled;
+    private final SinkType sinkType;
+    private final String sinkUri;
+    private final String sinkHost;
+    private final int sinkPort;
+    private final String sinkNodeId;
+    private final long sinkMaxPendingBytes;
+    private final List<String> sinkEndpoints;
+    private final int sinkVirtualNodes;
+    private final boolean emitterEnabled;
+    private final EmitterType emitterExecutor;
+    private final int emitterCapacity;
+    private final int emitterThroughput;
+    private final ActorRefFormat actorRefFormat;
+    private final int stateMaxElements;
+    private final int statePreviewElements;
+    private final long stateMaxBytes;
+    private final boolean stateCopyEnabled;
+    private final StateSampling stateSampling;
+    private final long stateSamplingIntervalMs;
+    private final boolean edgeLatencyEnabled;
+    private final long edgeLatencyIntervalMs;
+    private final int edgeLatencyPrecisionBits;
+    private final int edgeLatencyMaxEdges;
+    private final boolean profilingEnabled;
+    private final long profilingIntervalMs;
+    private final int profilingTopK;
+    private final boolean mailboxSamplingEnabled;
+    private final long mailboxSamplingIntervalMs;
+    private final boolean compressionEnabled;
+    private final int compressionLevel;
+    private final int compressionMinBytes;
+    private final int compressionDictionaryBytes;
+    private final long compressionDictionaryRefreshMs;
+
+    private VisSettings(Config vis) {
+        this.pipelineEnabled = getBoolean(vis, "pipeline.enabled", false);
+        this.pipelineCapacity = getInt(vis, "pipeline.capacity", 8192);
+        this.batchSize = getInt(vis, "pipeline.batch-size", 256);
+        this.flushIntervalMs = getLong(vis, "pipeline.flush-interval-ms", 50);
+        this.stateCoalescingEnabled = getBoolean(vis, "pipeline.coalesce-state", true);
+        this.wireFormat = WireFormat.valueOf(getString(vis, "wire-format", "json").toUpperCase());
+        this.jsonPreciseTime = getBoolean(vis, "json.precise-time", false);
+        this.jsonBinaryPayloads = getBoolean(vis, "json.binary-payloads", false);
+        this.registryType = RegistryType.valueOf(getString(vis, "registry", "concurrent").toUpperCase());
+        this.aggregationEnabled = getBoolean(vis, "aggregation.enabled", false);
+        this.aggregationIntervalMs = getLong(vis, "aggregation.interval-ms", 500);
+        this.stateDiffEnabled = getBoolean(vis, "state-diff.enabled", false);
+        this.fullSnapshotIntervalMs = getLong(vis, "state-diff.full-snapshot-interval-ms", 30000);
+        this.sendBufferBytes = getBytes(vis, "send-buffer.max-bytes", 16L << 20);
+        this.overflowPolicy = OverflowPolicy.valueOf(
+                getString(vis, "send-buffer.overflow-policy", "drop-receives").toUpperCase().replace('-', '_'));
+        this.blockTimeoutMs = getLong(vis, "send-buffer.block-timeout-ms", 1000);
+        this.journalEnabled = getBoolean(vis, "journal.enabled", false);
+        this.journalLive = getBoolean(vis, "journal.live", false);
+        this.journalDirectory = getString(vis, "journal.directory", "recordings");
+        this.journalSegmentBytes = (int)Math.min(Integer.MAX_VALUE, getBytes(vis, "journal.segment-bytes", 64L << 20));
+        this.journalIndexIntervalMs = getLong(vis, "journal.index-interval-ms", 1000);
+        this.aggregatorPort = getInt(vis, "aggregator.port", 3002);
+        this.aggregatorMaxDelayMs = getLong(vis, "aggregator.max-delay-ms", 250);
+        this.aggregatorMaxBuffered = getInt(vis, "aggregator.max-buffered", 100000);
+        this.metricsEnabled = getBoolean(vis, "metrics.enabled", true);
+        this.metricsJmxEnabled = getBoolean(vis, "metrics.jmx", false);
+        this.sinkType = SinkType.valueOf(getString(vis, "sink.type", "socket-io").toUpperCase().replace('-', '_'));
+        this.sinkUri = getString(vis, "sink.uri", "http://localhost:3001");
+        this.sinkHost = getString(vis, "sink.host", "localhost");
+        this.sinkPort = getInt(vis, "sink.port", 3002);
+        this.sinkNodeId = getString(vis, "sink.node-id", "");
+        this.sinkMaxPendingBytes = getBytes(vis, "sink.max-pending-bytes", 16L << 20);
+        this.sinkEndpoints = Collections.unmodifiableList(getStringList(vis, "sink.endpoints"));
+        this.sinkVirtualNodes = getInt(vis, "sink.virtual-nodes", 128);
+        this.emitterEnabled = getBoolean(vis, "emitter.enabled", false);
+        this.emitterExecutor = EmitterType.valueOf(getString(vis, "emitter.executor", "thread").toUpperCase());
+        this.emitterCapacity = getInt(vis, "emitter.capacity", 65536);
+        this.emitterThroughput = getInt(vis, "emitter.throughput", 64);
+        this.actorRefFormat = ActorRefFormat.valueOf(getString(vis, "state-values.actor-ref", "name").toUpperCase());
+        this.stateMaxElements = getInt(vis, "state-values.max-elements", 16);
+        this.statePreviewElements = getInt(vis, "state-values.preview-elements", 8);
+        this.stateMaxBytes = getBytes(vis, "state-values.max-bytes", 64L << 10);
+        this.stateCopyEnabled = getBoolean(vis, "state-values.copy", true);
+        this.stateSampling = StateSampling.valueOf(
+                getString(vis, "state-sampling.mode", "displayed").toUpperCase().replace('-', '_'));
+        this.stateSamplingIntervalMs = getLong(vis, "state-sampling.interval-ms", 1000);
+        this.edgeLatencyEnabled = getBoolean(vis, "edge-latency.enabled", false);
+        this.edgeLatencyIntervalMs = getLong(vis, "edge-latency.interval-ms", 1000);
+        this.edgeLatencyPrecisionBits = getInt(vis, "edge-latency.precision-bits", 3);
+        this.edgeLatencyMaxEdges = getInt(vis, "edge-latency.max-edges", 4096);
+        this.profilingEnabled = getBoolean(vis, "profiling.enabled", false);
+        this.profilingIntervalMs = getLong(vis, "profiling.interval-ms", 1000);
+        this.profilingTopK = getInt(vis, "profiling.top-k", 10);
+        this.mailboxSamplingEnabled = getBoolean(vis, "mailbox-sampling.enabled", false);
+        this.mailboxSamplingIntervalMs = getLong(vis, "mailbox-sampling.interval-ms", 1000);
+        this.compressionEnabled = getBoolean(vis, "compression.enabled", false);
+        this.compressionLevel = getInt(vis, "compression.level", 1);
+        this.compressionMinBytes = (int)Math.min(Integer.MAX_VALUE, getBytes(vis, "compression.min-bytes", 1L << 10));
+        this.compressionDictionaryBytes = (int)Math.min(Integer.MAX_VALUE, getBytes(vis, "compression.dictionary-bytes", 16L << 10));
+        this.compressionDictionaryRefreshMs = getLong(vis, "compression.dictionary-refresh-ms", 5000);
+    }
+
+    /**
+     * Reads the settings from the default input configuration file
+     */
+    public static VisSettings load() {
+        return fromConfig(ConfigFactory.parseFile(new File(CONFIG_FILE)));
+    }
+
+    /**
+     * Reads the settings from the "conf.vis" section of the given config
+     * @param config Parsed configuration (may not contain a "conf.vis" section)
+     */
+    public static VisSettings fromConfig(Config config) {
+        return new VisSettings(config.hasPath(ROOT) ? config.getConfig(ROOT) : ConfigFactory.empty());
+    }
+
+    /**
+     * Reads the settings from a HOCON snippet, for example
+     * "conf.vis.pipeline.enabled = true"
+     */
+    public static VisSettings parse(String hocon) {
+        return fromConfig(ConfigFactory.parseString(hocon));
+    }
+
+    /**
+     * Settings used when no configuration is available - events are
+     * emitted synchronously as they occur
+     */
+    public static VisSettings defaults() {
+        return fromConfig(ConfigFactory.empty());
+    }
+
+    private static boolean getBoolean(Config config, String path, boolean fallback) {
+        return config.hasPath(path) ? config.getBoolean(path) : fallback;
+    }
+
+    private static int getInt(Config config, String path, int fallback) {
+        return config.hasPath(path) ? config.getInt(path) : fallback;
+    }
+
+    private static long getLong(Config config, String path, long fallback) {
+        return config.hasPath(path) ? config.getLong(path) : fallback;
+    }
+
+    private static long getBytes(Config config, String path, long fallback) {
+        return config.hasPath(path) ? config.getBytes(path) : fallback;
+    }
+
+    private static String getString(Config config, String path, String fallback) {
+        return config.hasPath(path) ? config.getString(path) : fallback;
+    }
+
+    private static List<String> getStringList(Config config, String path) {
+        return config.hasPath(path) ? config.getStringList(path) : Collections.emptyList();
+    }
+
+    public boolean isPipelineEnabled() {
+        return this.pipelineEnabled;
+    }
+
+    public int getPipelineCapacity() {
+        return this.pipelineCapacity;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public long getFlushIntervalMs() {
+        return this.flushIntervalMs;
+    }
+
+    public boolean isStateCoalescingEnabled() {
+        return this.stateCoalescingEnabled;
+    }
+
+    public WireFormat getWireFormat() {
+        return this.wireFormat;
+    }
+
+    /**
+     * @return Whether JSON events carry microsecond timestamps and sequence numbers
+     */
+    public boolean isJsonPreciseTime() {
+        return this.jsonPreciseTime;
+    }
+
+    /**
+     * @return Whether JSON frames are emitted to socket.io as binary payloads rather than strings
+     */
+    public boolean isJsonBinaryPayloads() {
+        return this.jsonBinaryPayloads;
+    }
+
+    public RegistryType getRegistryType() {
+        return this.registryType;
+    }
+
+    public boolean isAggregationEnabled() {
+        return this.aggregationEnabled;
+    }
+
+    public long getAggregationIntervalMs() {
+        return this.aggregationIntervalMs;
+    }
+
+    public boolean isStateDiffEnabled() {
+        return this.stateDiffEnabled;
+    }
+
+    public long getFullSnapshotIntervalMs() {
+        return this.fullSnapshotIntervalMs;
+    }
+
+    public long getSendBufferBytes() {
+        return this.sendBufferBytes;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * @return Longest an actor which emits directly waits for the server under the block policy
+     */
+    public long getBlockTimeoutMs() {
+        return this.blockTimeoutMs;
+    }
+
+    public boolean isJournalEnabled() {
+        return this.journalEnabled;
+    }
+
+    /**
+     * @return True if recorded events are still sent to the server as well
+     */
+    public boolean isJournalLive() {
+        return this.journalLive;
+    }
+
+    public String getJournalDirectory() {
+        return this.journalDirectory;
+    }
+
+    public int getJournalSegmentBytes() {
+        return this.journalSegmentBytes;
+    }
+
+    public long getJournalIndexIntervalMs() {
+        return this.journalIndexIntervalMs;
+    }
+
+    /**
+     * @return Port the standalone aggregator listens on for interceptors
+     */
+    public int getAggregatorPort() {
+        return this.aggregatorPort;
+    }
+
+    public long getAggregatorMaxDelayMs() {
+        return this.aggregatorMaxDelayMs;
+    }
+
+    public int getAggregatorMaxBuffered() {
+        return this.aggregatorMaxBuffered;
+    }
+
+    public boolean isMetricsEnabled() {
+        return this.metricsEnabled;
+    }
+
+    /**
+     * @return True if the metrics are registered with the platform MBean server
+     */
+    public boolean isMetricsJmxEnabled() {
+        return this.metricsJmxEnabled;
+    }
+
+    public SinkType getSinkType() {
+        return this.sinkType;
+    }
+
+    /**
+     * @return URI of the socket.io server
+     */
+    public String getSinkUri() {
+        return this.sinkUri;
+    }
+
+    public String getSinkHost() {
+        return this.sinkHost;
+    }
+
+    public int getSinkPort() {
+        return this.sinkPort;
+    }
+
+    /**
+     * @return Id the interceptor introduces itself with over TCP, or an
+     *         empty string for the process id and host name of the JVM
+     */
+    public String getSinkNodeId() {
+        return this.sinkNodeId;
+    }
+
+    public long getSinkMaxPendingBytes() {
+        return this.sinkMaxPendingBytes;
+    }
+
+    /**
+     * @return Servers the events are sharded across, as URIs of socket.io
+     *         servers or "host:port" for TCP, or an empty list for the
+     *         single server of "uri" or "host" and "port"
+     */
+    public List<String> getSinkEndpoints() {
+        return this.sinkEndpoints;
+    }
+
+    /**
+     * @return Points every server takes on the hash ring of the shards
+     */
+    public int getSinkVirtualNodes() {
+        return this.sinkVirtualNodes;
+    }
+
+    /**
+     * @return True if events which are not pipelined are emitted on threads
+     *         of their own instead of the actors' threads
+     */
+    public boolean isEmitterEnabled() {
+        return this.emitterEnabled;
+    }
+
+    public EmitterType getEmitterExecutor() {
+        return this.emitterExecutor;
+    }
+
+    /**
+     * @return Most events queued before the overflow policy applies
+     */
+    public int getEmitterCapacity() {
+        return this.emitterCapacity;
+    }
+
+    /**
+     * @return Events the emitter emits before it gives up its thread to the other tasks of its executor
+     */
+    public int getEmitterThroughput() {
+        return this.emitterThroughput;
+    }
+
+    public ActorRefFormat getActorRefFormat() {
+        return this.actorRefFormat;
+    }
+
+    /**
+     * @return Most elements of a collection in an actor state which are
+     *         written in full, instead of its size and first elements
+     */
+    public int getStateMaxElements() {
+        return this.stateMaxElements;
+    }
+
+    /**
+     * @return Elements written along with the size of a larger collection
+     */
+    public int getStatePreviewElements() {
+        return this.statePreviewElements;
+    }
+
+    /**
+     * @return Most bytes of one serialized actor state, or 0 for no limit
+     */
+    public long getStateMaxBytes() {
+        return this.stateMaxBytes;
+    }
+
+    /**
+     * @return False if the program never modifies a state once it passed it
+     *         to the interceptor, so it is serialized later on without a copy
+     */
+    public boolean isStateCopyEnabled() {
+        return this.stateCopyEnabled;
+    }
+
+    /**
+     * @return Which registered state suppliers are sampled periodically
+     */
+    public StateSampling getStateSampling() {
+        return this.stateSampling;
+    }
+
+    /**
+     * @return Interval between two samples of the registered states
+     */
+    public long getStateSamplingIntervalMs() {
+        return this.stateSamplingIntervalMs;
+    }
+
+    /**
+     * @return Whether the latency of every message is recorded and emitted per edge
+     */
+    public boolean isEdgeLatencyEnabled() {
+        return this.edgeLatencyEnabled;
+    }
+
+    /**
+     * @return Interval between two emissions of the edge latencies
+     */
+    public long getEdgeLatencyIntervalMs() {
+        return this.edgeLatencyIntervalMs;
+    }
+
+    /**
+     * @return Bits kept of every latency, i.e. a relative error of 2^-bits
+     */
+    public int getEdgeLatencyPrecisionBits() {
+        return this.edgeLatencyPrecisionBits;
+    }
+
+    /**
+     * @return Most edges whose latencies are tracked at once
+     */
+    public int getEdgeLatencyMaxEdges() {
+        return this.edgeLatencyMaxEdges;
+    }
+
+    /**
+     * @return Whether the handlers of traced actors are timed per message class
+     */
+    public boolean isProfilingEnabled() {
+        return this.profilingEnabled;
+    }
+
+    /**
+     * @return Interval between two emissions of the hottest handlers
+     */
+    public long getProfilingIntervalMs() {
+        return this.profilingIntervalMs;
+    }
+
+    /**
+     * @return Number of handlers emitted per interval, i.e. the ones which took the most time
+     */
+    public int getProfilingTopK() {
+        return this.profilingTopK;
+    }
+
+    /**
+     * @return Whether the messages of every actor and the load of the default dispatcher are sampled
+     */
+    public boolean isMailboxSamplingEnabled() {
+        return this.mailboxSamplingEnabled;
+    }
+
+    /**
+     * @return Interval between two samples of the actors and the dispatcher
+     */
+    public long getMailboxSamplingIntervalMs() {
+        return this.mailboxSamplingIntervalMs;
+    }
+
+    /**
+     * @return Whether batch frames are compressed with deflate
+     */
+    public boolean isCompressionEnabled() {
+        return this.compressionEnabled;
+    }
+
+    /**
+     * @return Deflate level from 1 (fastest) to 9 (smallest)
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @return Size below which batch frames are sent uncompressed
+     */
+    public int getCompressionMinBytes() {
+        return this.compressionMinBytes;
+    }
+
+    /**
+     * @return Largest preset dictionary of actor names, labels and event skeletons, at most 32K
+     */
+    public int getCompressionDictionaryBytes() {
+        return this.compressionDictionaryBytes;
+    }
+
+    /**
+     * @return Shortest time between two rebuilds of the dictionary
+     */
+    public long getCompressionDictionaryRefreshMs() {
+        return this.compressionDictionaryRefreshMs;
+    }
+}
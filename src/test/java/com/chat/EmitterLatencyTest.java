@@ -0,0 +1,154 @@
+package com.chat;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.BehaviorInterceptor;
+import akka.actor.typed.TypedActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.Test;
+import vis.EventSink;
+import vis.MyVisualizerClient;
+import vis.VisSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how long the chat room and client actors take to handle their
+ * messages while every frame takes several milliseconds to send, once with
+ * the events emitted on the actors' threads and once with the emitter, and
+ * compares them with the time they take when sending costs nothing. The
+ * measurements depend on the machine being otherwise idle, so the test
+ * only runs with -Dvis.timing-tests=true.
+ */
+public class EmitterLatencyTest {
+    /* how many times the p99 with an instant sink the emitter may take with a slow one */
+    private static final int TOLERANCE = 3;
+    private static final int CLIENTS = 4;
+    private static final int POSTS = 20;
+    private static final long SEND_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Sink whose every send stalls like a congested socket
+     */
+    static final class SlowSink implements EventSink {
+        private final long sendNanos;
+
+        SlowSink(long sendNanos) {
+            this.sendNanos = sendNanos;
+        }
+
+        @Override
+        public void open(Runnable onConnect) {
+            onConnect.run();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean send(String event, byte[] frame) {
+            if (this.sendNanos > 0) LockSupport.parkNanos(this.sendNanos);
+            return true;
+        }
+    }
+
+    /**
+     * Records the time the wrapped behavior takes to handle every message,
+     * once every client has joined the chat room
+     */
+    static final class Timing<T> extends BehaviorInterceptor<T, T> {
+        private final ConcurrentLinkedQueue<Long> times;
+        private final CountDownLatch granted, posted;
+
+        @SuppressWarnings("unchecked")
+        Timing(ConcurrentLinkedQueue<Long> times, CountDownLatch granted, CountDownLatch posted) {
+            super((Class<T>)Object.class);
+            this.times = times;
+            this.granted = granted;
+            this.posted = posted;
+        }
+
+        @Override
+        public Behavior<T> aroundReceive(TypedActorContext<T> ctx, T msg, ReceiveTarget<T> target) {
+            long start = System.nanoTime();
+            try {
+                return target.apply(ctx, msg);
+            }
+            finally {
+                if (this.granted.getCount() == 0) this.times.add(System.nanoTime() - start);
+                if (msg instanceof ChatRoom.SessionGranted) this.granted.countDown();
+                else if (msg instanceof ChatRoom.MessagePosted) this.posted.countDown();
+            }
+        }
+    }
+
+    /**
+     * Lets every client post to the chat room and collects the handling times
+     * @param sendNanos Time every send takes
+     * @return 99th percentile of the handling times in nanoseconds
+     */
+    private static long p99(String settings, long sendNanos) throws Exception {
+        ConcurrentLinkedQueue<Long> times = new ConcurrentLinkedQueue<>();
+        CountDownLatch granted = new CountDownLatch(CLIENTS);
+        /* every post reaches every client */
+        CountDownLatch posted = new CountDownLatch((POSTS + 1) * CLIENTS * CLIENTS);
+        List<ActorRef<ChatRoom.SessionEvent>> clients = Collections.synchronizedList(new ArrayList<>());
+
+        MyVisualizerClient vis = new MyVisualizerClient(VisSettings.parse(settings), null, new SlowSink(sendNanos));
+        ActorSystem<Void> system = ActorSystem.create(Behaviors.setup(context -> {
+            ActorRef<ChatRoom.RoomCommand> room = context.spawn(
+                    Behaviors.intercept(() -> new Timing<>(times, granted, posted), ChatRoom.create(vis)), "chat-room");
+            for (int i = 0; i < CLIENTS; i++) {
+                ActorRef<ChatRoom.SessionEvent> client = context.spawn(Behaviors.intercept(
+                        () -> new Timing<>(times, granted, posted), Client.create(vis, "group")), "client-" + i);
+                clients.add(client);
+                room.tell(new ChatRoom.GetSession("session-" + i, client));
+            }
+            return Behaviors.empty();
+        }), "latency");
+        try {
+            assertTrue(granted.await(30, TimeUnit.SECONDS));
+            for (int i = 0; i < POSTS; i++) {
+                for (ActorRef<ChatRoom.SessionEvent> client : clients) client.tell(new Client.PostSomething());
+            }
+            assertTrue(posted.await(60, TimeUnit.SECONDS));
+        }
+        finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            vis.close();
+        }
+
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get((int)(sorted.size() * 0.99));
+    }
+
+    @Test
+    public void slowSinkShouldNotDelayTheActorsWithTheEmitter() throws Exception {
+        assumeTrue(Boolean.getBoolean("vis.timing-tests"));
+        String common = "conf.vis { metrics.jmx = false, send-buffer.overflow-policy = drop-receives, ";
+        /* the first run only warms the JVM up */
+        p99(common + "emitter.enabled = false }", 0);
+        long baseline = p99(common + "emitter.enabled = false }", 0);
+        long inline = p99(common + "emitter.enabled = false }", SEND_NANOS);
+        long emitter = p99(common + "emitter { enabled = true, capacity = 256 } }", SEND_NANOS);
+
+        /* a handler emits at least one event, which takes a whole send when inline */
+        assertTrue(String.format("inline p99 %d ns", inline), inline >= SEND_NANOS);
+        assertTrue(String.format("emitter p99 %d ns, p99 with an instant sink %d ns", emitter, baseline),
+                emitter <= baseline * TOLERANCE);
+    }
+}
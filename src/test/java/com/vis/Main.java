@@ -7,12 +7,21 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vis.InMemorySink;
 import vis.Message;
 import vis.MyVisualizerClient;
+import vis.VisMetrics;
+import vis.VisSettings;
 
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
 
@@ -77,6 +86,59 @@ public class Main {
         assertTrue(ts1 <= ts2);
     }
 
+    @Test
+    public void timestampsShouldBeNonDecreasingAcrossConcurrentEmitters() throws Exception {
+        final int threads = 8, messages = 2000;
+        long key = vis.submit(actor1);
+        vis.submit(actor2);
+
+        Set<Long> sequences = ConcurrentHashMap.newKeySet();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread[] emitters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            emitters[t] = new Thread(() -> {
+                MyVisualizerClient.MessageWrapper emitter = vis.new MessageWrapper();
+                long lastTime = Long.MIN_VALUE, lastSequence = -1;
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        emitter.notify(actor2, new TestMessage(key));
+                        assertTrue(emitter.getTimestampMicros() >= lastTime);
+                        assertTrue(emitter.getSequence() > lastSequence);
+                        assertTrue(sequences.add(emitter.getSequence()));
+                        lastTime = emitter.getTimestampMicros();
+                        lastSequence = emitter.getSequence();
+                    }
+                }
+                catch(Throwable ex) {
+                    failures.add(ex);
+                }
+            });
+            emitters[t].start();
+        }
+        for (Thread emitter : emitters) emitter.join();
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(threads*messages, sequences.size());
+    }
+
+    @Test
+    public void jsonTimestampsShouldOnlyBePreciseOnRequest() throws Exception {
+        for (boolean precise : new boolean[] {false, true}) {
+            InMemorySink sink = new InMemorySink();
+            MyVisualizerClient client = new MyVisualizerClient(VisSettings.parse(String.format(
+                    "conf.vis { json.precise-time = %b, metrics.jmx = false }", precise)), VisMetrics.NOOP, sink);
+            try {
+                client.submit(actor1);
+                String spawn = new String(sink.getFrames().get(0).getBytes(), StandardCharsets.UTF_8);
+                assertEquals(spawn, precise, spawn.matches("\\{\"time\":\\d+\\.\\d{3},\"seq\":\\d+,.*"));
+                assertEquals(spawn, !precise, spawn.matches("\\{\"time\":\\d+,\"name\".*"));
+            }
+            finally {
+                client.close();
+            }
+        }
+    }
+
     @Test
     public void destroyedActorsShouldNotExist() {
         Map<String, Long> invertedKeyRef;
@@ -0,0 +1,115 @@
+package com.vis;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import vis.MyVisualizerClient;
+import vis.VisSettings;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Submits and destroys thousands of actors in parallel and checks
+ * that the interceptor's key registry stays consistent, for every
+ * registry implementation
+ */
+@RunWith(Parameterized.class)
+public class RegistryStressTest {
+    static final int ACTORS = 5000;
+
+    final String registry;
+    MyVisualizerClient vis;
+    ActorSystem<Void> system;
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> registries() {
+        return Arrays.asList(new Object[][] {{"concurrent"}, {"compact"}});
+    }
+
+    public RegistryStressTest(String registry) {
+        this.registry = registry;
+    }
+
+    @Before
+    public void initVis() {
+        vis = new MyVisualizerClient(VisSettings.parse(String.format("conf.vis.registry = %s", registry)));
+    }
+
+    @After
+    public void terminate() throws Exception {
+        if (system != null) {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+        vis.close();
+    }
+
+    /**
+     * Every actor submits itself while being set up, and every other
+     * actor is destroyed again right away
+     */
+    static Behavior<Void> spawner(MyVisualizerClient vis, Set<Long> keys, CountDownLatch latch) {
+        return Behaviors.setup(context -> {
+            for (int i = 0; i < ACTORS; i++) {
+                boolean destroy = i % 2 == 1;
+                context.spawn(Behaviors.<Void>setup(child -> {
+                    String name = child.getSelf().path().name();
+                    keys.add(vis.submit(name));
+                    if (destroy) vis.destroy(name);
+                    latch.countDown();
+                    return Behaviors.empty();
+                }), String.format("actor-%d", i));
+            }
+            return Behaviors.empty();
+        });
+    }
+
+    @Test
+    public void keysShouldBeUniqueAcrossConcurrentActors() throws Exception {
+        Set<Long> keys = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(ACTORS);
+        system = ActorSystem.create(spawner(vis, keys, latch), "registry-stress");
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(ACTORS, keys.size());
+        assertEquals(ACTORS, vis.getKey());
+    }
+
+    @Test
+    public void registryShouldStayConsistent() throws Exception {
+        Set<Long> keys = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(ACTORS);
+        system = ActorSystem.create(spawner(vis, keys, latch), "registry-stress");
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+        Map<String, Long> invertedKeyRef = vis.getInvertedKeyRef();
+        assertEquals(ACTORS/2, invertedKeyRef.size());
+        assertEquals(ACTORS/2, vis.getActorCount());
+        for (int i = 0; i < ACTORS; i++) {
+            String name = String.format("actor-%d", i);
+            if (i % 2 == 1) {
+                assertFalse(invertedKeyRef.containsKey(name));
+            }
+            else {
+                assertEquals(name, vis.getActorName(invertedKeyRef.get(name)));
+            }
+        }
+        for (long key : keys) {
+            String name = vis.getActorName(key);
+            assertTrue(name.isEmpty() || invertedKeyRef.get(name) == key);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.vis;
+
+import akka.actor.ActorPath;
+import akka.actor.ActorPaths;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.Terminated;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vis.InMemorySink;
+import vis.MyVisualizerClient;
+import vis.VisBehaviors;
+import vis.VisSettings;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that traced behaviors submit and destroy themselves, and that
+ * traced refs tell the receivers who sent their messages, while they
+ * still compare like plain refs and unwrap into refs Akka can watch
+ */
+public class VisBehaviorsTest {
+    MyVisualizerClient vis;
+    ActorSystem<String> system;
+
+    @Before
+    public void initVis() {
+        vis = new MyVisualizerClient();
+    }
+
+    @After
+    public void terminate() throws Exception {
+        if (system != null) {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+        vis.close();
+    }
+
+    static Behavior<String> echo(CountDownLatch received) {
+        return Behaviors.receive(String.class)
+                .onMessageEquals("stop", Behaviors::stopped)
+                .onAnyMessage(m -> {
+                    received.countDown();
+                    return Behaviors.same();
+                })
+                .build();
+    }
+
+    @Test
+    public void tracedActorShouldBeSubmittedAndDestroyed() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        long[] key = {-1};
+
+        system = ActorSystem.create(Behaviors.setup(context -> {
+            ActorRef<String> child = context.spawn(VisBehaviors.traced(vis, k -> {
+                key[0] = k;
+                return echo(received);
+            }), "traced-child");
+            context.watch(child);
+            return Behaviors.receive(String.class)
+                    .onAnyMessage(m -> {
+                        child.tell(m);
+                        return Behaviors.same();
+                    })
+                    .onSignal(Terminated.class, sig -> {
+                        stopped.countDown();
+                        return Behaviors.same();
+                    })
+                    .build();
+        }), "traced");
+
+        system.tell("hello");
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals("traced-child", vis.getActorName(key[0]));
+
+        system.tell("stop");
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        assertFalse(vis.getInvertedKeyRef().containsKey("traced-child"));
+    }
+
+    @Test
+    public void tracedRefsShouldEqualPlainRefsAndUnwrapForAkka() throws Exception {
+        CountDownLatch stopped = new CountDownLatch(1);
+        List<ActorRef<String>> refs = new ArrayList<>();
+
+        system = ActorSystem.create(Behaviors.setup(context -> {
+            ActorRef<String> plain = context.spawn(VisBehaviors.traced(vis, echo(new CountDownLatch(1))), "child");
+            ActorRef<String> traced = VisBehaviors.ref(plain);
+            refs.add(plain);
+            refs.add(traced);
+            /* Akka refuses the traced ref itself */
+            context.watch(VisBehaviors.unwrap(traced));
+            return Behaviors.receive(String.class)
+                    .onAnyMessage(m -> {
+                        context.stop(VisBehaviors.unwrap(traced));
+                        return Behaviors.same();
+                    })
+                    .onSignal(Terminated.class, sig -> {
+                        stopped.countDown();
+                        return Behaviors.same();
+                    })
+                    .build();
+        }), "unwrapped");
+
+        system.tell("stop");
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        ActorRef<String> plain = refs.get(0), traced = refs.get(1);
+        assertNotSame(plain, traced);
+        assertEquals(plain, traced);
+        assertEquals(traced, plain);
+        assertEquals(plain.hashCode(), traced.hashCode());
+        assertTrue(new HashSet<>(Collections.singleton(plain)).contains(traced));
+        assertTrue(new HashSet<>(Collections.singleton(traced)).contains(plain));
+        assertSame(plain, VisBehaviors.unwrap(traced));
+        assertSame(plain, VisBehaviors.unwrap(plain));
+        assertNotEquals(traced, system);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void remoteRefsShouldNotBeTraced() {
+        ActorPath path = ActorPaths.fromString("akka://remote@10.0.0.1:25520/user/receiver");
+        VisBehaviors.ref(new ActorRef<String>() {
+            public void tell(String message) {
+            }
+
+            public <U extends String> ActorRef<U> narrow() {
+                return unsafeUpcast();
+            }
+
+            @SuppressWarnings("unchecked")
+            public <U> ActorRef<U> unsafeUpcast() {
+                return (ActorRef<U>)this;
+            }
+
+            public ActorPath path() {
+                return path;
+            }
+
+            public int compareTo(ActorRef<?> other) {
+                return path.compareTo(other.path());
+            }
+        });
+    }
+
+    /**
+     * Forwards every message to the ref it is given first
+     */
+    static Behavior<Object> forwarder() {
+        return Behaviors.receive((context, m) -> {
+            if (m instanceof ActorRef) {
+                @SuppressWarnings("unchecked")
+                ActorRef<String> target = (ActorRef<String>)m;
+                return Behaviors.receive((c, message) -> {
+                    target.tell((String)message);
+                    return Behaviors.same();
+                });
+            }
+            return Behaviors.same();
+        });
+    }
+
+    @Test
+    public void tracedRefsShouldCarryTheSender() throws Exception {
+        vis.close();
+        InMemorySink sink = new InMemorySink();
+        vis = new MyVisualizerClient(VisSettings.parse("conf.vis { pipeline.enabled = false, metrics.jmx = false }"),
+                null, sink);
+        CountDownLatch received = new CountDownLatch(2);
+
+        system = ActorSystem.create(Behaviors.setup(context -> {
+            ActorRef<String> receiver = context.spawn(VisBehaviors.traced(vis, echo(received)), "receiver");
+            ActorRef<Object> traced = context.spawn(VisBehaviors.traced(vis, forwarder()), "traced-sender");
+            ActorRef<Object> plain = context.spawn(forwarder(), "plain-sender");
+            traced.tell(VisBehaviors.ref(receiver));
+            plain.tell(VisBehaviors.ref(receiver));
+            return Behaviors.receive(String.class)
+                    .onAnyMessage(m -> {
+                        traced.tell(m);
+                        plain.tell(m);
+                        return Behaviors.same();
+                    })
+                    .build();
+        }), "senders");
+
+        system.tell("hello");
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+
+        StringBuilder frames = new StringBuilder();
+        for (InMemorySink.Frame frame : sink.getFrames()) frames.append(new String(frame.getBytes(), StandardCharsets.UTF_8));
+        /* the message is delivered as it is, with the sender known only from within a traced actor */
+        assertTrue(frames.toString(), frames.toString().contains("\"label\":\"String\",\"from\":\"traced-sender\",\"to\":\"receiver\""));
+        assertTrue(frames.toString(), frames.toString().contains("\"label\":\"String\",\"from\":\"\",\"to\":\"receiver\""));
+        assertFalse(frames.toString(), frames.toString().contains("Sent"));
+    }
+}
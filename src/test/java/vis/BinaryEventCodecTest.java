@@ -0,0 +1,224 @@
+package vis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips events through the binary wire format
+ */
+public class BinaryEventCodecTest {
+    private BinaryEventEncoder encoder;
+    private BinaryEventDecoder decoder;
+    private List<String> decoded;
+
+    private final BinaryEventDecoder.Listener listener = new BinaryEventDecoder.Listener() {
+        public void onSpawn(long time, String name) {
+            decoded.add(String.format("spawn %s %d", name, time));
+        }
+
+        public void onReceive(long time, String label, String from, String to) {
+            decoded.add(String.format("receive %s %s->%s %d", label, from, to, time));
+        }
+
+        public void onState(long time, String state) {
+            decoded.add(String.format("state %s %d", state, time));
+        }
+
+        public void onDestroy(long time, String name) {
+            decoded.add(String.format("destroy %s %d", name, time));
+        }
+
+        public void onEdgeDelta(long time, String label, String from, String to, long count) {
+            decoded.add(String.format("edgeDelta %s %s->%s x%d %d", label, from, to, count, time));
+        }
+
+        public void onActorState(long time, String name, String state) {
+            decoded.add(String.format("state %s %s %d", name, state, time));
+        }
+
+        public void onStatePatch(long time, String name, String patch) {
+            decoded.add(String.format("statePatch %s %s %d", name, patch, time));
+        }
+
+        public void onEdgeLatency(long time, String label, String from, String to, long count,
+                                  long p50, long p99, long max) {
+            decoded.add(String.format("edgeLatency %s %s->%s x%d %d/%d/%d %d", label, from, to, count, p50, p99, max, time));
+        }
+
+        public void onHotActor(long time, String name, String label, long count, long total, long max) {
+            decoded.add(String.format("hotActor %s %s x%d %d/%d %d", name, label, count, total, max, time));
+        }
+
+        public void onMetrics(long time, Map<String, Object> metrics) {
+            decoded.add(String.format("metrics %s %d", metrics, time));
+        }
+    };
+
+    private final EventSlot slot = new EventSlot();
+
+    @Before
+    public void init() {
+        encoder = new BinaryEventEncoder();
+        decoder = new BinaryEventDecoder();
+        decoded = new ArrayList<>();
+    }
+
+    private byte[] encode(EventType type, long time, String name, String label, String from, String to,
+                          Map<String, Object> state, long count) throws Exception {
+        slot.set(type, time, name, label, from, to, state, count);
+        return encoder.serialize(slot);
+    }
+
+    @Test
+    public void eventsShouldSurviveRoundTrip() throws Exception {
+        Map<String, Object> state = new HashMap<>();
+        state.put("count", 3);
+
+        decoder.decode(encode(EventType.SPAWN, 1000, "chat-room", null, null, null, null, 0), listener);
+        decoder.decode(encode(EventType.RECEIVE, 1002, null, "GetSession", "Guardian", "chat-room", null, 0), listener);
+        decoder.decode(encode(EventType.STATE, 1001, null, null, null, null, state, 0), listener);
+        decoder.decode(encode(EventType.DESTROY, 1005, "chat-room", null, null, null, null, 0), listener);
+
+        assertEquals("spawn chat-room 1000", decoded.get(0));
+        assertEquals("receive GetSession Guardian->chat-room 1002", decoded.get(1));
+        assertEquals("state {\"count\":3} 1001", decoded.get(2));
+        assertEquals("destroy chat-room 1005", decoded.get(3));
+        assertEquals(1, decoder.getNameCount());
+    }
+
+    @Test
+    public void repeatedReceivesShouldOnlyCarryIds() throws Exception {
+        encoder.beginBatch();
+        for (int i = 0; i < 100; i++) {
+            slot.set(EventType.RECEIVE, 1000 + i, null, "NotifyClient", "chat-room", "session-1", null, 0);
+            slot.seq = i;
+            encoder.writeBatchEntry(slot);
+        }
+        byte[] frame = encoder.endBatch();
+        decoder.decode(frame, listener);
+
+        assertEquals(100, decoded.size());
+        assertEquals("receive NotifyClient chat-room->session-1 1099", decoded.get(99));
+        assertEquals(99, decoder.getSequence());
+        /* version, reset, three dictionary records, then six bytes per receive record */
+        assertTrue(frame.length < 100*6 + 64);
+    }
+
+    @Test
+    public void dictionariesShouldBeResentAfterReconnect() throws Exception {
+        decoder.decode(encode(EventType.SPAWN, 1, "client-0", null, null, null, null, 0), listener);
+        encoder.onConnect();
+
+        BinaryEventDecoder freshDecoder = new BinaryEventDecoder();
+        freshDecoder.decode(encode(EventType.RECEIVE, 2, null, "PostMessage", "client-0", "session-0", null, 0), listener);
+        assertEquals("receive PostMessage client-0->session-0 2", decoded.get(1));
+    }
+
+    @Test
+    public void discardedFramesShouldOnlyResendWhatTheyDefined() throws Exception {
+        decoder.decode(encode(EventType.SPAWN, 1, "client-0", null, null, null, null, 0), listener);
+
+        /* a frame which only refers to known names is dropped without a reset */
+        encoder.beginBatch();
+        slot.set(EventType.SPAWN, 2, "client-0", null, null, null, null, 0);
+        encoder.writeBatchEntry(slot);
+        encoder.discard();
+        byte[] frame = encode(EventType.DESTROY, 3, "client-0", null, null, null, null, 0);
+        assertNotEquals(BinaryEventEncoder.RESET, frame[1]);
+        decoder.decode(frame, listener);
+        assertEquals("destroy client-0 3", decoded.get(1));
+
+        /* a frame which defined a name the receiver never saw is followed by a reset */
+        encoder.beginBatch();
+        slot.set(EventType.SPAWN, 4, "client-1", null, null, null, null, 0);
+        encoder.writeBatchEntry(slot);
+        encoder.discard();
+        frame = encode(EventType.RECEIVE, 5, null, "PostMessage", "client-1", "session-1", null, 0);
+        assertEquals(BinaryEventEncoder.RESET, frame[1]);
+        decoder.decode(frame, listener);
+        assertEquals("receive PostMessage client-1->session-1 5", decoded.get(2));
+    }
+
+    @Test
+    public void edgeDeltasShouldCarryTheirCount() throws Exception {
+        decoder.decode(encode(EventType.RECEIVE, 1, null, "PostMessage", "client-0", "session-0", null, 0), listener);
+        decoder.decode(encode(EventType.EDGE_DELTA, 500, null, "PostMessage", "client-0", "session-0", null, 4711), listener);
+        assertEquals("edgeDelta PostMessage client-0->session-0 x4711 500", decoded.get(1));
+    }
+
+    @Test
+    public void edgeLatenciesShouldCarryTheirPercentiles() throws Exception {
+        decoder.decode(encode(EventType.EDGE_LATENCY, 900, null, "PostMessage", "client-0", "session-0",
+                EdgeLatencies.toMap(120, 4500, 9001), 42), listener);
+        assertEquals("edgeLatency PostMessage client-0->session-0 x42 120/4500/9001 900", decoded.get(0));
+    }
+
+    @Test
+    public void hotActorsShouldCarryTheirHandlingTimes() throws Exception {
+        decoder.decode(encode(EventType.HOT_ACTOR, 950, "chat-room", "PublishSessionMessage", null, null,
+                HandlerProfiler.toMap(250000, 1200), 300), listener);
+        assertEquals("hotActor chat-room PublishSessionMessage x300 250000/1200 950", decoded.get(0));
+    }
+
+    @Test
+    public void metricsShouldCarryEveryActor() throws Exception {
+        Map<String, Object> dispatcher = new LinkedHashMap<>();
+        dispatcher.put("threads", 8L);
+        dispatcher.put("active", 3L);
+        dispatcher.put("queued", 12L);
+        dispatcher.put("parallelism", 8L);
+        dispatcher.put("utilization", 0.375);
+        Map<String, Object> actors = new LinkedHashMap<>();
+        for (long i = 0; i < 40; i++) actors.put("session-" + i, Arrays.asList(i, i, 40 - i));
+        Map<String, Object> metrics = MailboxSampler.toMap(dispatcher, actors);
+        decoder.decode(encode(EventType.METRICS, 960, null, null, null, null, metrics, 0), listener);
+        assertEquals(String.format("metrics %s 960", metrics), decoded.get(0));
+
+        /* the load of a dispatcher which is not known is left out */
+        metrics = MailboxSampler.toMap(new LinkedHashMap<>(), actors);
+        decoder.decode(encode(EventType.METRICS, 970, null, null, null, null, metrics, 0), listener);
+        assertEquals(String.format("metrics %s 970", metrics), decoded.get(1));
+    }
+
+    @Test
+    public void statePatchesShouldNameTheirActor() throws Exception {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put("set", new HashMap<>());
+        patch.put("removed", Arrays.asList("screenName"));
+        decoder.decode(encode(EventType.STATE_PATCH, 7, "session-1", null, null, null, patch, 0), listener);
+        assertEquals("statePatch session-1 {\"set\":{},\"removed\":[\"screenName\"]} 7", decoded.get(0));
+    }
+
+    @Test
+    public void patchesOverTheCapShouldBeSentAsStates() throws Exception {
+        encoder = new BinaryEventEncoder(new EventSerializer(
+                StateValueSerializers.create(VisSettings.defaults(), name -> -1), 64));
+        Map<String, Object> set = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) set.put("screenName-" + i, "session-" + i);
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put("set", set);
+        patch.put("removed", new ArrayList<>());
+        decoder.decode(encode(EventType.STATE_PATCH, 7, "session-1", null, null, null, patch, 0), listener);
+        assertEquals(EventType.STATE, slot.type);
+        assertTrue(decoded.get(0), decoded.get(0).startsWith("state session-1 {\"truncated\":true,"));
+    }
+
+    @Test
+    public void statesShouldNameTheirActorIfKnown() throws Exception {
+        Map<String, Object> state = new HashMap<>();
+        state.put("count", 1);
+        decoder.decode(encode(EventType.STATE, 8, "actor-1", null, null, null, state, 0), listener);
+        decoder.decode(encode(EventType.STATE, 9, null, null, null, null, state, 0), listener);
+        assertEquals("state actor-1 {\"count\":1} 8", decoded.get(0));
+        assertEquals("state {\"count\":1} 9", decoded.get(1));
+    }
+}
@@ -0,0 +1,69 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compact registry against a pair of hash maps
+ * under a random sequence of submits and destroys
+ */
+public class CompactActorRegistryTest {
+
+    @Test
+    public void shouldMatchHashMapRegistry() {
+        CompactActorRegistry registry = new CompactActorRegistry();
+        Map<Long, String> keyRef = new HashMap<>();
+        Map<String, Long> invertedKeyRef = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            if (names.isEmpty() || random.nextInt(3) > 0) {
+                /* some names are re-submitted and a few are not ASCII */
+                String name = random.nextInt(10) == 0 ? String.format("s\u00e4ule-%d", random.nextInt(1000))
+                        : String.format("session-%d", random.nextInt(50000));
+                long key = registry.register(name);
+                Long oldKey = invertedKeyRef.put(name, key);
+                if (oldKey != null) keyRef.remove(oldKey);
+                else names.add(name);
+                keyRef.put(key, name);
+            }
+            else {
+                String name = names.remove(random.nextInt(names.size()));
+                registry.unregister(name);
+                keyRef.remove(invertedKeyRef.remove(name));
+            }
+        }
+
+        assertEquals(invertedKeyRef.size(), registry.size());
+        assertEquals(invertedKeyRef, registry.nameToKey());
+        for (Map.Entry<Long, String> entry : keyRef.entrySet()) {
+            assertEquals(entry.getValue(), registry.nameOf(entry.getKey()));
+            assertEquals((long)entry.getKey(), registry.keyOf(entry.getValue()));
+        }
+        assertNull(registry.nameOf(-5));
+        assertEquals(-1, registry.keyOf("unknown"));
+    }
+
+    @Test
+    public void arenaShouldBeCompactedAfterDestroys() {
+        CompactActorRegistry registry = new CompactActorRegistry();
+        for (int i = 0; i < 100000; i++) registry.register(String.format("client-%d", i));
+        long full = registry.footprint();
+        for (int i = 0; i < 100000; i++) {
+            if (i % 10 != 0) registry.unregister(String.format("client-%d", i));
+        }
+        for (int i = 0; i < 10000; i++) registry.register(String.format("new-client-%d", i));
+
+        assertEquals(20000, registry.size());
+        assertEquals("client-990", registry.nameOf(990));
+        assertTrue(registry.footprint() <= full);
+    }
+}
@@ -0,0 +1,60 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that concurrently counted edges are drained without losing
+ * or duplicating any message
+ */
+public class EdgeAggregatorTest {
+
+    @Test
+    public void drainedCountsShouldMatchIncrements() throws Exception {
+        EdgeAggregator aggregator = new EdgeAggregator(8);
+        Map<String, Long> totals = new HashMap<>();
+        EdgeAggregator.EdgeConsumer collect = (from, to, label, count) ->
+                totals.merge(from + "->" + to + ":" + label, count, Long::sum);
+
+        int threads = 8, increments = 20000, edges = 50;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    aggregator.increment("client-" + (i % edges), "session-" + (i % edges), "PostMessage");
+                }
+                done.countDown();
+            }).start();
+        }
+        /* drain while the counting threads are still running */
+        while (done.getCount() > 0) aggregator.drain(collect);
+        aggregator.drain(collect);
+
+        assertEquals(edges, totals.size());
+        long sum = 0;
+        for (long count : totals.values()) sum += count;
+        assertEquals((long)threads*increments, sum);
+        assertEquals(Long.valueOf((long)threads*increments/edges), totals.get("client-7->session-7:PostMessage"));
+    }
+
+    @Test
+    public void idleEdgesShouldOnlyBeDrainedOnce() {
+        EdgeAggregator aggregator = new EdgeAggregator(1);
+        aggregator.increment("a", "b", "Ping");
+        aggregator.increment("a", "b", "Ping");
+        aggregator.increment(null, "b", null);
+
+        assertEquals(2, aggregator.drain((from, to, label, count) -> {}));
+        assertEquals(0, aggregator.drain((from, to, label, count) -> fail("idle edge was drained")));
+
+        aggregator.increment("a", "b", "Ping");
+        long[] drained = new long[1];
+        assertEquals(1, aggregator.drain((from, to, label, count) -> drained[0] += count));
+        assertEquals(1, drained[0]);
+    }
+}
@@ -0,0 +1,106 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks the precision of the log-linear histograms and that the latencies
+ * of the messages are emitted per edge
+ */
+public class EdgeLatenciesTest {
+    private static final Pattern LATENCY = Pattern.compile(
+            "\"label\":\"LateMessage\",\"from\":\"client-0\",\"to\":\"session-0\",\"count\":(\\d+),\"latency\":\\{\"p50\":(\\d+)");
+
+    @Test
+    public void histogramShouldKeepItsRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram(3, TimeUnit.HOURS.toMicros(1));
+        /* a few hundred buckets cover everything from a microsecond to an hour */
+        assertTrue(String.valueOf(histogram.buckets()), histogram.buckets() < 300);
+        for (long value = 0; value < 1L << 40; value = value * 3 / 2 + 1) {
+            int index = histogram.index(Math.min(value, TimeUnit.HOURS.toMicros(1)));
+            assertTrue(value + " " + index, histogram.upperBound(index) >= Math.min(value, TimeUnit.HOURS.toMicros(1)));
+            if (index > 0) assertTrue(value + " " + index, histogram.upperBound(index - 1) < value);
+        }
+
+        for (int value = 1; value <= 100000; value++) histogram.record(value);
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000, histogram.getPercentile(50), 50000 / 8.0);
+        assertEquals(99000, histogram.getPercentile(99), 99000 / 8.0);
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void idleEdgesShouldBeDropped() {
+        EdgeLatencies latencies = new EdgeLatencies(3, 4, 1);
+        for (int i = 1; i <= 100; i++) latencies.record("client-0", "session-0", "PostMessage", i * 1000000L);
+        latencies.record("session-0", "chat-room", "PublishSessionMessage", 2000);
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(2, latencies.drain((from, to, label, count, p50, p99, max) ->
+                drained.add(String.format("%s->%s %s x%d", from, to, label, count))));
+        assertTrue(drained.contains("client-0->session-0 PostMessage x100"));
+        assertTrue(drained.contains("session-0->chat-room PublishSessionMessage x1"));
+        assertEquals(0, latencies.drain((from, to, label, count, p50, p99, max) -> fail()));
+
+        /* the table is bounded, so further edges are dropped */
+        for (int i = 0; i < 6; i++) latencies.record("client-" + i, "session-" + i, "PostMessage", 1000);
+        assertEquals(4, latencies.drain((from, to, label, count, p50, p99, max) -> {}));
+        assertEquals(2, latencies.getDropped());
+    }
+
+    /**
+     * A message which was sent five milliseconds ago
+     */
+    static final class LateMessage implements Message {
+        private final long key;
+        private final long sent = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5);
+
+        LateMessage(long key) {
+            this.key = key;
+        }
+
+        public long getSenderKey() {
+            return this.key;
+        }
+
+        public long getSendTimeNanos() {
+            return this.sent;
+        }
+    }
+
+    @Test
+    public void latenciesShouldBeEmittedPerEdge() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        try (MyVisualizerClient vis = client(
+                "pipeline.enabled = false, edge-latency { enabled = true, interval-ms = 10 }", sink)) {
+            long key = vis.submit("client-0");
+            vis.submit("session-0");
+            MyVisualizerClient.MessageWrapper wrapper = vis.new MessageWrapper();
+            for (int i = 0; i < 10; i++) wrapper.notify("session-0", new LateMessage(key));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (count(text(sink)) < 10 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        }
+        String frames = text(sink);
+        /* the messages may well be spread over several intervals */
+        assertEquals(frames, 10, count(frames));
+        Matcher latency = LATENCY.matcher(frames);
+        while (latency.find()) assertTrue(frames, Long.parseLong(latency.group(2)) >= 5000);
+    }
+
+    private static int count(String frames) {
+        int count = 0;
+        for (Matcher latency = LATENCY.matcher(frames); latency.find(); ) count += Integer.parseInt(latency.group(1));
+        return count;
+    }
+}
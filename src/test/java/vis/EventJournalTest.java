@@ -0,0 +1,146 @@
+package vis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records events across several segments and reads them back
+ */
+public class EventJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path record(int events) throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("recording");
+        EventSlot slot = new EventSlot();
+        /* small segments, so the recording spans several of them */
+        try (EventJournal journal = new EventJournal(directory, 4096, 100)) {
+            slot.set(EventType.SPAWN, 0, "chat-room", null, null, null, null, 0);
+            assertTrue(journal.append(slot));
+            for (int i = 1; i < events; i++) {
+                Map<String, Object> state = null;
+                if (i % 10 == 0) {
+                    state = new HashMap<>();
+                    state.put("count", i);
+                }
+                slot.set(i % 10 == 0 ? EventType.STATE : EventType.RECEIVE, 10_000L*i, i % 10 == 0 ? "chat-room" : null,
+                        "PostMessage", "client-" + i, "chat-room", state, 0);
+                slot.seq = i;
+                assertTrue(journal.append(slot));
+            }
+            assertEquals(events, journal.getAppended());
+        }
+        return directory;
+    }
+
+    @Test
+    public void recordingShouldBeReadBackInOrder() throws Exception {
+        JournalReader reader = new JournalReader(record(1000));
+        EventSlot slot = new EventSlot();
+
+        assertTrue(reader.next(slot));
+        assertEquals(EventType.SPAWN, slot.type);
+        assertEquals("chat-room", slot.name);
+        assertNull(slot.label);
+        for (int i = 1; i < 1000; i++) {
+            assertTrue(reader.next(slot));
+            assertEquals(10_000L*i, slot.time);
+            assertEquals(i, slot.seq);
+            assertEquals("client-" + i, slot.from);
+            if (i % 10 == 0) assertEquals(i, slot.state.get("count"));
+            else assertNull(slot.state);
+        }
+        assertFalse(reader.next(slot));
+    }
+
+    @Test
+    public void seekShouldStartAtTheGivenTime() throws Exception {
+        JournalReader reader = new JournalReader(record(1000));
+        EventSlot slot = new EventSlot();
+
+        reader.seek(7_255_000);
+        assertTrue(reader.next(slot));
+        assertEquals(7_260_000, slot.time);
+        int remaining = 1;
+        while (reader.next(slot)) remaining++;
+        assertEquals(1000 - 726, remaining);
+    }
+
+    @Test
+    public void replayShouldFollowTheRecordedPace() throws Exception {
+        Path directory = record(100);
+        List<Long> times = new ArrayList<>();
+
+        long start = System.nanoTime();
+        long replayed = new JournalReplayer(directory).replay(Long.MIN_VALUE, 10, event -> times.add(event.time));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        /* 990ms of recorded events at ten times the speed */
+        assertEquals(100, replayed);
+        assertTrue(String.format("took %dms", elapsedMs), elapsedMs >= 95 && elapsedMs < 1000);
+        assertEquals(Long.valueOf(990_000), times.get(99));
+
+        times.clear();
+        assertEquals(50, new JournalReplayer(directory).replay(500_000, Double.POSITIVE_INFINITY, event -> times.add(event.time)));
+        assertEquals(Long.valueOf(500_000), times.get(0));
+    }
+
+    @Test
+    public void framesDroppedOnReplayShouldNotBreakTheStream() throws Exception {
+        Path directory = record(20);
+        List<byte[]> frames = new ArrayList<>();
+        EventSink sink = new EventSink() {
+            private int sent;
+
+            public void open(Runnable onConnect) {
+            }
+
+            public boolean isConnected() {
+                return true;
+            }
+
+            public boolean send(String event, byte[] frame) {
+                /* the server misses the frame of the first receive, which defines its label */
+                if (this.sent++ == 1) return false;
+                frames.add(frame);
+                return true;
+            }
+        };
+        SinkTarget target = new SinkTarget(sink, new BinaryEventEncoder());
+        assertEquals(20, new JournalReplayer(directory).replay(Long.MIN_VALUE, Double.POSITIVE_INFINITY, target));
+        assertEquals(1, target.getDropped());
+
+        List<Long> times = new ArrayList<>();
+        BinaryEventDecoder.Listener listener = new BinaryEventDecoder.Listener() {
+            public void onSpawn(long time, String name) {
+                times.add(time);
+            }
+
+            public void onReceive(long time, String label, String from, String to) {
+                assertEquals("PostMessage", label);
+                times.add(time);
+            }
+
+            public void onState(long time, String state) {
+                times.add(time);
+            }
+
+            public void onDestroy(long time, String name) {
+                times.add(time);
+            }
+        };
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        for (byte[] frame : frames) decoder.decode(frame, listener);
+        assertEquals(19, times.size());
+        for (int i = 2; i < 20; i++) assertEquals(Long.valueOf(10_000L*i), times.get(i - 1));
+    }
+}
@@ -0,0 +1,209 @@
+package vis;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks what the interceptor hands over to the in-memory sink, and the
+ * frames the TCP sink writes, including after a reconnect
+ */
+public class EventSinkTest {
+
+    @Test
+    public void inMemorySinkShouldKeepTheEmittedFrames() {
+        InMemorySink sink = new InMemorySink();
+        try (MyVisualizerClient vis = client("pipeline.enabled = false", sink)) {
+            vis.submit("actor-1");
+            vis.receive("Ping", "actor-1", "actor-1");
+
+            List<InMemorySink.Frame> frames = sink.getFrames();
+            assertEquals(2, frames.size());
+            assertEquals("spawn", frames.get(0).getEvent());
+            assertEquals("receive", frames.get(1).getEvent());
+            assertTrue(text(frames.get(1)).contains("\"label\":\"Ping\""));
+
+            sink.setConnected(false);
+            vis.destroy("actor-1");
+            assertEquals(2, sink.getFrames().size());
+        }
+    }
+
+    /**
+     * Sink which drops the first frames of the given socket event, as a
+     * sink does when its receiver cannot keep up
+     */
+    private static final class LossySink implements EventSink {
+        final InMemorySink delivered = new InMemorySink();
+        private final String event;
+        private int drops;
+
+        LossySink(String event, int drops) {
+            this.event = event;
+            this.drops = drops;
+        }
+
+        @Override
+        public void open(Runnable onConnect) {
+            this.delivered.open(onConnect);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean send(String event, byte[] frame) {
+            if (event.equals(this.event) && this.drops > 0) {
+                this.drops--;
+                return false;
+            }
+            return this.delivered.send(event, frame);
+        }
+    }
+
+    @Test
+    public void droppedFramesShouldMakeTheEncoderStartOver() throws Exception {
+        LossySink sink = new LossySink("binaryEvent", 2);
+        InterceptorMetrics metrics = new InterceptorMetrics();
+        try (MyVisualizerClient vis = client("wire-format = binary, pipeline.enabled = false", metrics, sink)) {
+            /* the spawn of client-0 and the first receive, which define the names and the label, are dropped */
+            vis.submit("client-0");
+            vis.receive("PostMessage", "client-0", "session-0");
+            vis.receive("PostMessage", "client-0", "session-0");
+            vis.destroy("client-0");
+            assertEquals(2, vis.getDroppedEvents());
+            assertEquals(2, metrics.getDroppedEvents());
+        }
+
+        List<String> decoded = new ArrayList<>();
+        BinaryEventDecoder decoder = new BinaryEventDecoder();
+        BinaryEventDecoder.Listener listener = new BinaryEventDecoder.Listener() {
+            public void onSpawn(long time, String name) {
+                decoded.add("spawn " + name);
+            }
+
+            public void onReceive(long time, String label, String from, String to) {
+                decoded.add(String.format("receive %s %s->%s", label, from, to));
+            }
+
+            public void onState(long time, String state) {
+            }
+
+            public void onDestroy(long time, String name) {
+                decoded.add("destroy " + name);
+            }
+        };
+        for (InMemorySink.Frame frame : sink.delivered.getFrames()) decoder.decode(frame.getBytes(), listener);
+        assertEquals(Arrays.asList("receive PostMessage client-0->session-0", "destroy client-0"), decoded);
+    }
+
+    @Test
+    public void droppedDictionaryShouldBeSentAgain() throws Exception {
+        LossySink sink = new LossySink(FrameCompressor.DICTIONARY_EVENT, 1);
+        try (MyVisualizerClient vis = client(
+                "pipeline { enabled = true, flush-interval-ms = 5 }, compression { enabled = true, min-bytes = 64 }", sink)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 20; i++) vis.receive("NotifyClient", "chat-room", "session-" + i);
+                Thread.sleep(50);
+            }
+        }
+
+        List<String> events = new ArrayList<>();
+        for (InMemorySink.Frame frame : sink.delivered.getFrames()) events.add(frame.getEvent());
+        /* the frame of the dropped dictionary goes out as it is, and the next one brings the dictionary along */
+        assertEquals(events.toString(), "eventBatch", events.get(0));
+        int dictionary = events.indexOf(FrameCompressor.DICTIONARY_EVENT);
+        assertTrue(events.toString(), dictionary > 0);
+        assertEquals(events.toString(), "eventBatchDeflated", events.get(dictionary + 1));
+    }
+
+    @Test
+    public void configuredSinkShouldBeCreated() {
+        assertTrue(MyVisualizerClient.createSink(VisSettings.parse("conf.vis.sink.type = in-memory")) instanceof InMemorySink);
+        assertTrue(MyVisualizerClient.createSink(VisSettings.parse("conf.vis.sink.type = tcp")) instanceof TcpEventSink);
+        assertTrue(MyVisualizerClient.createSink(VisSettings.defaults()) instanceof SocketIoSink);
+    }
+
+    @Test
+    public void tcpSinkShouldWriteLengthPrefixedFrames() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            int[] connects = {0};
+            TcpEventSink sink = new TcpEventSink(new InetSocketAddress("localhost", server.getLocalPort()), "node-1", 1 << 20);
+            sink.open(() -> connects[0]++);
+
+            try (Socket connection = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                assertFrame(in, "setSocketId", "node-1");
+                while (!sink.isConnected()) Thread.sleep(1);
+                for (int i = 0; i < 1000; i++) sink.send("receive", ("frame-" + i).getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < 1000; i++) assertFrame(in, "receive", "frame-" + i);
+            }
+
+            /* the sink reconnects and introduces itself again */
+            try (Socket connection = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                assertFrame(in, "setSocketId", "node-1");
+                while (!sink.isConnected()) Thread.sleep(1);
+                sink.send("spawn", "again".getBytes(StandardCharsets.UTF_8));
+                sink.close();
+                assertFrame(in, "spawn", "again");
+            }
+            assertEquals(2, connects[0]);
+        }
+    }
+
+    @Test
+    public void reconnectedSinkShouldIntroduceItselfFirst() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            TcpEventSink sink = new TcpEventSink(new InetSocketAddress("localhost", server.getLocalPort()), "node-1", 1 << 20);
+            sink.open(() -> {});
+            AtomicBoolean sending = new AtomicBoolean(true);
+            Thread sender = new Thread(() -> {
+                byte[] frame = "frame".getBytes(StandardCharsets.UTF_8);
+                while (sending.get()) {
+                    if (!sink.send("receive", frame)) Thread.yield();
+                }
+            });
+            sender.start();
+            try {
+                /* every connection is dropped while the sender keeps queueing frames */
+                for (int i = 0; i < 3; i++) {
+                    try (Socket connection = server.accept()) {
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                        assertFrame(in, "setSocketId", "node-1");
+                        for (int j = 0; j < 1000; j++) assertFrame(in, "receive", "frame");
+                    }
+                }
+            }
+            finally {
+                sending.set(false);
+                sender.join();
+                sink.close();
+            }
+        }
+    }
+
+    private static void assertFrame(DataInputStream in, String event, String payload) throws Exception {
+        int length = in.readInt();
+        byte[] name = new byte[in.readUnsignedByte()];
+        in.readFully(name);
+        byte[] bytes = new byte[length - 1 - name.length];
+        in.readFully(bytes);
+        assertEquals(event, new String(name, StandardCharsets.UTF_8));
+        assertEquals(payload, new String(bytes, StandardCharsets.UTF_8));
+    }
+}
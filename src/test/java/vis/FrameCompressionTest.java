@@ -0,0 +1,148 @@
+package vis;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks that batch frames are compressed with the preset dictionary and
+ * inflated back into the same frames, by the aggregator as well
+ */
+public class FrameCompressionTest {
+    private static final VisSettings SETTINGS = VisSettings.parse(
+            "conf.vis.compression { enabled = true, min-bytes = 256, dictionary-refresh-ms = 0 }");
+
+    private static ActorRegistry registry(int sessions) {
+        ActorRegistry registry = new ConcurrentActorRegistry();
+        registry.register("chat-room");
+        for (int i = 0; i < sessions; i++) {
+            registry.register("session-" + i);
+            registry.register("client-" + i);
+        }
+        return registry;
+    }
+
+    /**
+     * @return A batch of the receive events of one chat message fanned out to every session
+     */
+    private static byte[] batch(EventEncoder encoder, FrameCompressor compressor, int sessions, long time) throws IOException {
+        EventSlot slot = new EventSlot();
+        encoder.beginBatch();
+        for (int i = 0; i < sessions; i++) {
+            slot.set(EventType.RECEIVE, time + i, null, "NotifyClient", "chat-room", "session-" + i, null, 0);
+            slot.seq = i + 1;
+            if (compressor != null) compressor.observe(slot);
+            encoder.writeBatchEntry(slot);
+        }
+        return encoder.endBatch();
+    }
+
+    @Test
+    public void framesShouldBeInflatedIntoWhatWasCompressed() throws Exception {
+        FrameCompressor compressor = new FrameCompressor(SETTINGS, registry(50), true);
+        byte[] frame = batch(new EventSerializer(), compressor, 50, 1600000000000000L);
+        byte[] deflated = compressor.compress(frame);
+        assertNotNull(deflated);
+        assertTrue(deflated.length + " of " + frame.length, deflated.length * 10 < frame.length);
+
+        try (FrameInflater inflater = new FrameInflater(1 << 20)) {
+            try {
+                inflater.inflate(deflated);
+                fail("The dictionary has not been sent yet");
+            }
+            catch(IOException expected) {
+            }
+            inflater.addDictionary(compressor.getDictionary());
+            assertArrayEquals(frame, inflater.inflate(deflated));
+        }
+
+        /* small frames are not worth compressing */
+        assertNull(compressor.compress(Arrays.copyOf(frame, 100)));
+        compressor.close();
+    }
+
+    @Test
+    public void dictionaryShouldFollowTheRegisteredActors() throws Exception {
+        ActorRegistry registry = registry(5);
+        FrameCompressor compressor = new FrameCompressor(SETTINGS, registry, false);
+        byte[] dictionary = compressor.getDictionary();
+        assertSame(dictionary, compressor.getDictionary());
+        assertTrue(new String(dictionary, StandardCharsets.UTF_8).contains("session-4"));
+
+        registry.register("session-5");
+        byte[] refreshed = compressor.getDictionary();
+        assertNotSame(dictionary, refreshed);
+        assertTrue(new String(refreshed, StandardCharsets.UTF_8).contains("session-5"));
+
+        /* the dictionary stays within its budget however many actors there are */
+        VisSettings small = VisSettings.parse("conf.vis.compression.dictionary-bytes = 1K");
+        assertTrue(new FrameCompressor(small, registry(1000), true).getDictionary().length <= 1024);
+        compressor.close();
+    }
+
+    @Test
+    public void pipelinedBatchesShouldBeCompressed() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        try (MyVisualizerClient vis = client(
+                "pipeline { enabled = true, flush-interval-ms = 10 }, compression { enabled = true, min-bytes = 256 }", sink)) {
+            vis.submit("chat-room");
+            for (int i = 0; i < 20; i++) vis.submit("session-" + i);
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 20; i++) vis.receive("NotifyClient", "chat-room", "session-" + i);
+            }
+        }
+
+        List<String> events = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        try (FrameInflater inflater = new FrameInflater(1 << 20)) {
+            for (InMemorySink.Frame frame : sink.getFrames()) {
+                events.add(frame.getEvent());
+                if (frame.getEvent().equals(FrameCompressor.DICTIONARY_EVENT)) inflater.addDictionary(frame.getBytes());
+                else if (FrameCompressor.inflated(frame.getEvent()) != null)
+                    text.append(new String(inflater.inflate(frame.getBytes()), StandardCharsets.UTF_8));
+                else text.append(text(frame));
+            }
+        }
+        assertTrue(events.toString(), events.contains("eventBatchDeflated"));
+        /* the dictionary is sent ahead of the first frame compressed with it */
+        assertTrue(events.toString(), events.indexOf(FrameCompressor.DICTIONARY_EVENT) < events.indexOf("eventBatchDeflated"));
+        String frames = text.toString();
+        assertEquals(frames, 100, frames.split("\"label\":\"NotifyClient\"", -1).length - 1);
+    }
+
+    @Test
+    public void aggregatorShouldInflateCompressedFrames() throws Exception {
+        List<EventSlot> merged = Collections.synchronizedList(new ArrayList<>());
+        final int sessions = 50, batches = 4;
+        try (VisAggregator aggregator = new VisAggregator(0, 60000, 100000, merged::add)) {
+            BinaryEventEncoder encoder = new BinaryEventEncoder();
+            FrameCompressor compressor = new FrameCompressor(SETTINGS, registry(sessions), false);
+            try (TcpEventSink sink = new TcpEventSink(new InetSocketAddress("localhost", aggregator.getPort()), "node-0", 1 << 20)) {
+                sink.open(encoder::onConnect);
+                while (!sink.isConnected()) Thread.sleep(1);
+                for (int i = 0; i < batches; i++) {
+                    byte[] frame = batch(encoder, compressor, sessions, 1000000L * (i + 1));
+                    byte[] deflated = compressor.compress(frame);
+                    assertNotNull(deflated);
+                    if (i == 0) sink.send(FrameCompressor.DICTIONARY_EVENT, compressor.getDictionary());
+                    sink.send(FrameCompressor.deflated(encoder.getBatchEvent()), deflated);
+                }
+                assertEquals(0, sink.getDropped());
+            }
+            compressor.close();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (merged.size() < sessions * batches && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        }
+        assertEquals(sessions * batches, merged.size());
+        assertEquals("node-0/session-" + (sessions - 1), merged.get(merged.size() - 1).to);
+    }
+}
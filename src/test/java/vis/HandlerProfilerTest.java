@@ -0,0 +1,113 @@
+package vis;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks that the handlers of traced actors are ranked by the time they
+ * take, and that the hottest ones are emitted
+ */
+public class HandlerProfilerTest {
+    private static final Pattern HOT_ACTOR = Pattern.compile(
+            "\"name\":\"([^\"]+)\",\"label\":\"([^\"]+)\",\"count\":(\\d+),\"profile\":\\{\"total\":(\\d+)");
+
+    static final class Slow {
+    }
+
+    static final class Fast {
+    }
+
+    @Test
+    public void handlersShouldBeRankedByTotalTime() {
+        HandlerProfiler profiler = new HandlerProfiler(2);
+        HandlerProfiler.ActorProfile room = profiler.profile("chat-room");
+        HandlerProfiler.ActorProfile session = profiler.profile("session-0");
+        for (int i = 0; i < 10; i++) room.record(Slow.class, 3000000);
+        room.record(Fast.class, 1000);
+        session.record(Slow.class, 2000000);
+        session.record(Fast.class, 5000000);
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(2, profiler.drain((name, label, count, total, max) ->
+                drained.add(String.format("%s %s x%d %d/%d", name, label, count, total, max))));
+        assertEquals("chat-room Slow x10 30000/3000", drained.get(0));
+        assertEquals("session-0 Fast x1 5000/5000", drained.get(1));
+        assertEquals(0, profiler.drain((name, label, count, total, max) -> fail()));
+
+        /* a closed profile is drained once more and then forgotten */
+        session.record(Slow.class, 1000);
+        session.close();
+        assertEquals(1, profiler.drain((name, label, count, total, max) -> assertEquals("session-0", name)));
+        assertEquals(1, profiler.size());
+    }
+
+    @Test
+    public void profilesShouldGrowWithTheMessageClasses() {
+        HandlerProfiler profiler = new HandlerProfiler(100);
+        HandlerProfiler.ActorProfile profile = profiler.profile("guardian");
+        Class<?>[] types = {Slow.class, Fast.class, String.class, Integer.class, Long.class, Double.class,
+                Object.class, List.class, ArrayList.class, Pattern.class, Matcher.class, Thread.class};
+        for (int round = 1; round <= 3; round++) {
+            for (Class<?> type : types) profile.record(type, 1000);
+        }
+        List<String> drained = new ArrayList<>();
+        assertEquals(types.length, profiler.drain((name, label, count, total, max) -> drained.add(label + " x" + count)));
+        for (Class<?> type : types) assertTrue(drained.toString(), drained.contains(type.getSimpleName() + " x3"));
+    }
+
+    @Test
+    public void hotActorsShouldBeEmitted() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        MyVisualizerClient vis = client("pipeline.enabled = false, profiling { enabled = true, interval-ms = 10 }", sink);
+        ActorSystem<Object> system = ActorSystem.create(VisBehaviors.traced(vis, Behaviors.receive(Object.class)
+                .onMessage(Slow.class, msg -> {
+                    Thread.sleep(2);
+                    return Behaviors.same();
+                })
+                .onMessage(Fast.class, msg -> Behaviors.same())
+                .build()), "profiled");
+        try {
+            ActorRef<Object> ref = system;
+            for (int i = 0; i < 10; i++) {
+                ref.tell(new Slow());
+                ref.tell(new Fast());
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((count(text(sink), "Slow") < 10 || count(text(sink), "Fast") < 10)
+                    && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        }
+        finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            vis.close();
+        }
+        String frames = text(sink);
+        assertEquals(frames, 10, count(frames, "Slow"));
+        assertEquals(frames, 10, count(frames, "Fast"));
+        for (Matcher hot = HOT_ACTOR.matcher(frames); hot.find(); ) {
+            /* the actor is the user guardian of the system */
+            assertEquals("user", hot.group(1));
+            if (hot.group(2).equals("Slow"))
+                assertTrue(frames, Long.parseLong(hot.group(4)) >= 2000 * Long.parseLong(hot.group(3)));
+        }
+    }
+
+    private static int count(String frames, String label) {
+        int count = 0;
+        for (Matcher hot = HOT_ACTOR.matcher(frames); hot.find(); ) {
+            if (hot.group(2).equals(label)) count += Integer.parseInt(hot.group(3));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,71 @@
+package vis;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the latency histogram and that the interceptor metrics
+ * can be read over JMX
+ */
+public class InterceptorMetricsTest {
+
+    @Test
+    public void percentilesShouldBeBoundedByTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(3, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 1; i <= 990; i++) histogram.record(1000);
+        for (int i = 1; i <= 10; i++) histogram.record(1000000);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax() / 1000);
+        /* 1000ns falls into the bucket of 960ns to 1023ns */
+        assertEquals(1023, histogram.getPercentile(50));
+        assertEquals(1023, histogram.getPercentile(99));
+        assertEquals(1000000, histogram.getPercentile(100));
+        assertEquals((990*1000 + 10*1000000) / 1000.0, histogram.getMean(), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void metricsShouldBeExposedOverJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name;
+        try (MyVisualizerClient vis = new MyVisualizerClient(VisSettings.parse("conf.vis { pipeline.enabled = false, metrics.jmx = true }"))) {
+            vis.submit("actor-1");
+            vis.submit("actor-2");
+            for (int i = 0; i < 5; i++) vis.receive("Ping", "actor-1", "actor-2");
+            vis.destroy("actor-2");
+
+            Set<ObjectName> names = server.queryNames(new ObjectName("vis:type=Interceptor,*"), null);
+            assertFalse(names.isEmpty());
+            name = null;
+            for (ObjectName candidate : names) {
+                if (Integer.valueOf(1).equals(server.getAttribute(candidate, "RegistrySize"))) name = candidate;
+            }
+            assertNotNull(name);
+
+            TabularData counts = (TabularData)server.getAttribute(name, "EventCounts");
+            assertEquals(2L, count(counts, "spawn"));
+            assertEquals(5L, count(counts, "receive"));
+            assertEquals(1L, count(counts, "destroyNode"));
+            assertEquals(0, server.getAttribute(name, "QueueDepth"));
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static Object count(TabularData counts, String event) {
+        CompositeData row = counts.get(new Object[] { event });
+        return row == null ? null : row.get("value");
+    }
+}
@@ -0,0 +1,145 @@
+package vis;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks that the messages of every actor are counted, and that the
+ * samples carry the backlog of the actors and the load of the dispatcher
+ */
+public class MailboxSamplerTest {
+    private static final TypeReference<Map<String, Object>> EVENT_TYPE = new TypeReference<Map<String, Object>>() {};
+    private static final long WAIT_MS = 5000;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void samplesShouldCarryTheCountsSinceThePreviousOne() {
+        MailboxSampler sampler = new MailboxSampler();
+        MailboxSampler.Counters room = sampler.register("chat-room");
+        sampler.register("idle");
+        for (int i = 0; i < 5; i++) room.onSent();
+        for (int i = 0; i < 3; i++) {
+            room.onReceived(true);
+            room.onProcessed();
+        }
+        room.onReceived(false);
+
+        Map<String, Object> actors = (Map<String, Object>)sampler.sample().get("actors");
+        assertEquals(Arrays.asList(4L, 3L, 2L), actors.get("chat-room"));
+        assertFalse(actors.containsKey("idle"));
+
+        /* the backlog is reported until it has been received */
+        actors = (Map<String, Object>)sampler.sample().get("actors");
+        assertEquals(Arrays.asList(0L, 0L, 2L), actors.get("chat-room"));
+        room.onReceived(true);
+        room.onReceived(true);
+        actors = (Map<String, Object>)sampler.sample().get("actors");
+        assertEquals(Arrays.asList(2L, 0L, 0L), actors.get("chat-room"));
+        assertTrue(((Map<String, Object>)sampler.sample().get("actors")).isEmpty());
+
+        sampler.unregister("chat-room");
+        assertTrue(room.isClosed());
+        assertNull(sampler.get("chat-room"));
+        assertEquals(1, sampler.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void backlogOfABlockedActorShouldBeSampled() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        MyVisualizerClient vis = client("pipeline.enabled = false, mailbox-sampling { enabled = true, interval-ms = 10 }", sink);
+        CountDownLatch release = new CountDownLatch(1);
+        Behavior<String> blocked = VisBehaviors.traced(vis, Behaviors.receive(String.class)
+                .onMessage(String.class, msg -> {
+                    release.await(WAIT_MS, TimeUnit.MILLISECONDS);
+                    return Behaviors.same();
+                })
+                .build());
+        ActorSystem<String> system = ActorSystem.create(VisBehaviors.traced(vis, Behaviors.setup(context -> {
+            ActorRef<String> receiver = VisBehaviors.ref(context.spawn(blocked, "blocked"));
+            return Behaviors.receive(String.class)
+                    .onMessage(String.class, msg -> {
+                        for (int i = 0; i < 5; i++) receiver.tell(msg);
+                        return Behaviors.same();
+                    })
+                    .build();
+        })), "sampled");
+        try {
+            /* messages told before the receiver has started are not counted */
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (vis.counters("blocked") == null && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            system.tell("go");
+            /* one message is being handled, while the other four wait in the mailbox */
+            assertTrue(awaitSample(sink, sample -> sample.get(2) == 4));
+            release.countDown();
+            assertTrue(awaitSample(sink, sample -> sample.get(2) == 0));
+        }
+        finally {
+            release.countDown();
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            vis.close();
+        }
+
+        long received = 0, processed = 0;
+        Map<String, Object> dispatcher = null;
+        for (Map<String, Object> event : metrics(sink)) {
+            dispatcher = (Map<String, Object>)event.get("dispatcher");
+            List<Number> sample = (List<Number>)((Map<String, Object>)event.get("actors")).get("blocked");
+            if (sample == null) continue;
+            received += sample.get(0).longValue();
+            processed += sample.get(1).longValue();
+        }
+        assertEquals(5, received);
+        assertEquals(5, processed);
+        assertNotNull(dispatcher);
+        assertTrue(dispatcher.toString(), ((Number)dispatcher.get("parallelism")).intValue() > 0);
+        assertTrue(dispatcher.toString(), ((Number)dispatcher.get("utilization")).doubleValue() <= 1);
+    }
+
+    private interface SampleCondition {
+        boolean test(List<Long> sample);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean awaitSample(InMemorySink sink, SampleCondition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        int seen = 0;
+        while (System.currentTimeMillis() < deadline) {
+            List<Map<String, Object>> events = metrics(sink);
+            for (; seen < events.size(); seen++) {
+                List<Number> sample = (List<Number>)((Map<String, Object>)events.get(seen).get("actors")).get("blocked");
+                if (sample == null) continue;
+                List<Long> counts = new ArrayList<>();
+                for (Number count : sample) counts.add(count.longValue());
+                if (condition.test(counts)) return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private static List<Map<String, Object>> metrics(InMemorySink sink) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (InMemorySink.Frame frame : sink.getFrames()) {
+            if (frame.getEvent().equals("metrics")) events.add(mapper.readValue(frame.getBytes(), EVENT_TYPE));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,69 @@
+package vis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the retained heap of the compact registry with the pair of
+ * hash maps the interceptor used to keep, for a million actor names.
+ * Run with: sbt "Test/runMain vis.RegistryFootprintBenchmark [actors]"
+ */
+public class RegistryFootprintBenchmark {
+
+    public static void main(String[] args) {
+        int actors = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long before = usedHeap();
+        Map<Long, String> keyRef = new HashMap<>();
+        Map<String, Long> invertedKeyRef = new HashMap<>();
+        for (long key = 0; key < actors; key++) {
+            String name = actorName(key);
+            keyRef.put(key, name);
+            invertedKeyRef.put(name, key);
+        }
+        long hashMaps = usedHeap() - before;
+        report("HashMap pair", hashMaps, actors);
+        keyRef = null;
+        invertedKeyRef = null;
+
+        before = usedHeap();
+        ActorRegistry concurrent = new ConcurrentActorRegistry();
+        for (long key = 0; key < actors; key++) concurrent.register(actorName(key));
+        report("ConcurrentActorRegistry", usedHeap() - before, actors);
+        concurrent = null;
+
+        before = usedHeap();
+        CompactActorRegistry compact = new CompactActorRegistry();
+        for (long key = 0; key < actors; key++) compact.register(actorName(key));
+        long compactBytes = usedHeap() - before;
+        report("CompactActorRegistry", compactBytes, actors);
+        System.out.printf("compact/hashmap ratio: %.2f (arrays: %d bytes)%n",
+                (double)compactBytes/hashMaps, compact.footprint());
+    }
+
+    /**
+     * Names are built like the paths of the chat example's sessions,
+     * so that only the registries themselves retain them
+     */
+    private static String actorName(long key) {
+        return "session-" + key;
+    }
+
+    private static void report(String name, long bytes, int actors) {
+        System.out.printf("%-24s %,14d bytes  %6.1f bytes/actor%n", name, bytes, (double)bytes/actors);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
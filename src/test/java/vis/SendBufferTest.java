@@ -0,0 +1,134 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the overflow policies of the send buffer, for the events it
+ * queues and those a disconnected socket buffers, and that the pipeline
+ * holds events back while the transport is not writable
+ */
+public class SendBufferTest {
+    private final List<EventSlot> dropped = new ArrayList<>();
+
+    private static EventSlot event(EventType type, long time) {
+        EventSlot slot = new EventSlot();
+        slot.set(type, time, "actor", "Ping", "a", "b", null, 0);
+        return slot;
+    }
+
+    private SendBuffer fill(VisSettings.OverflowPolicy policy) {
+        long size = SendBuffer.estimate(event(EventType.RECEIVE, 0));
+        SendBuffer buffer = new SendBuffer(10*size, policy, 0, dropped::add);
+        buffer.offer(event(EventType.SPAWN, 0));
+        for (int i = 1; i < 10; i++) assertTrue(buffer.offer(event(EventType.RECEIVE, i)));
+        assertTrue(buffer.isFull());
+        return buffer;
+    }
+
+    @Test
+    public void dropNewestShouldRejectTheNewEvent() {
+        SendBuffer buffer = fill(VisSettings.OverflowPolicy.DROP_NEWEST);
+        assertFalse(buffer.offer(event(EventType.RECEIVE, 10)));
+        assertEquals(10, buffer.getQueued());
+        assertEquals(1, buffer.getDropped());
+        assertEquals(10, dropped.get(0).time);
+    }
+
+    @Test
+    public void dropOldestShouldEvictTheOldestEvent() {
+        SendBuffer buffer = fill(VisSettings.OverflowPolicy.DROP_OLDEST);
+        assertTrue(buffer.offer(event(EventType.RECEIVE, 10)));
+        assertEquals(10, buffer.getQueued());
+        assertEquals(EventType.SPAWN, dropped.get(0).type);
+        assertEquals(1, buffer.poll().time);
+    }
+
+    @Test
+    public void dropReceivesShouldKeepLifecycleEvents() {
+        SendBuffer buffer = fill(VisSettings.OverflowPolicy.DROP_RECEIVES);
+        assertFalse(buffer.offer(event(EventType.RECEIVE, 10)));
+        for (int i = 11; i < 30; i++) assertTrue(buffer.offer(event(EventType.DESTROY, i)));
+
+        /* every receive was evicted to make room, and the lifecycle events exceed the limit */
+        assertEquals(20, buffer.getQueued());
+        assertEquals(10, buffer.getDropped());
+        assertEquals(EventType.SPAWN, buffer.poll().type);
+        assertEquals(EventType.DESTROY, buffer.poll().type);
+    }
+
+    @Test
+    public void unsentEventsShouldBeDroppedLikeQueuedOnes() {
+        long size = SendBuffer.estimate(event(EventType.RECEIVE, 0));
+        SendBuffer buffer = new SendBuffer(2*size, VisSettings.OverflowPolicy.DROP_RECEIVES, 0, dropped::add);
+        for (int i = 0; i < 2; i++) assertTrue(buffer.admitUnsent(event(EventType.RECEIVE, i)));
+        assertFalse(buffer.admitUnsent(event(EventType.RECEIVE, 2)));
+        assertTrue(buffer.admitUnsent(event(EventType.SPAWN, 3)));
+
+        /* the listener hears of every dropped event, wherever it was dropped */
+        assertEquals(1, buffer.getDropped());
+        assertEquals(1, dropped.size());
+        assertEquals(2, dropped.get(0).time);
+        buffer.onConnect();
+        assertTrue(buffer.admitUnsent(event(EventType.RECEIVE, 4)));
+    }
+
+    @Test
+    public void blockedUnsentEventsShouldWaitForTheTimeoutAtMost() {
+        long size = SendBuffer.estimate(event(EventType.RECEIVE, 0));
+        SendBuffer buffer = new SendBuffer(2*size, VisSettings.OverflowPolicy.BLOCK, 50, dropped::add);
+        for (int i = 0; i < 2; i++) {
+            buffer.awaitUnsentRoom(() -> false);
+            assertTrue(buffer.admitUnsent(event(EventType.RECEIVE, i)));
+        }
+
+        /* the buffer is full, so the next event waits for the server, and is dropped once it timed out */
+        long start = System.nanoTime();
+        buffer.awaitUnsentRoom(() -> false);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertFalse(buffer.admitUnsent(event(EventType.SPAWN, 2)));
+        assertEquals(1, buffer.getDropped());
+        assertEquals(2, dropped.get(0).time);
+
+        /* a reconnected socket ends the wait right away */
+        start = System.nanoTime();
+        buffer.awaitUnsentRoom(() -> true);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        buffer.onConnect();
+        assertTrue(buffer.admitUnsent(event(EventType.RECEIVE, 3)));
+    }
+
+    @Test
+    public void pipelineShouldReplayBufferedEventsInOrder() throws Exception {
+        AtomicBoolean writable = new AtomicBoolean(false);
+        List<Long> sent = new ArrayList<>();
+        EventPipeline.BatchHandler handler = new EventPipeline.BatchHandler() {
+            public void onEvent(EventSlot slot) {
+                sent.add(slot.time);
+            }
+
+            public void onFlush() {
+            }
+        };
+        SendBuffer buffer = new SendBuffer(1 << 20, VisSettings.OverflowPolicy.BLOCK, 0, dropped::add);
+        try (EventPipeline pipeline = new EventPipeline(64, 16, 5, handler, buffer, writable::get)) {
+            for (int i = 0; i < 100; i++) pipeline.publish(EventType.RECEIVE, i, i, null, "Ping", "a", "b", null, 0);
+            while (pipeline.pending() > 0) Thread.sleep(5);
+            assertTrue(sent.isEmpty());
+            assertEquals(100, buffer.getQueued());
+
+            writable.set(true);
+            for (int i = 100; i < 110; i++) pipeline.publish(EventType.RECEIVE, i, i, null, "Ping", "a", "b", null, 0);
+        }
+        assertEquals(110, sent.size());
+        for (int i = 0; i < 110; i++) assertEquals(Long.valueOf(i), sent.get(i));
+        assertEquals(0, buffer.getQueued());
+        assertTrue(dropped.isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks how actors are spread over the shards, and that the interceptor
+ * keeps every event of an actor on its shard while cross-shard edges reach
+ * both ends
+ */
+public class ShardingTest {
+    private static final int ACTORS = 30000;
+
+    private static List<String> endpoints(int count) {
+        List<String> endpoints = new ArrayList<>();
+        for (int i = 0; i < count; i++) endpoints.add("http://vis-" + i + ":3001");
+        return endpoints;
+    }
+
+    private static String actor(int i) {
+        return "akka://chat-room/user/session-" + i;
+    }
+
+    @Test
+    public void actorsShouldBeSpreadEvenly() {
+        ShardRing ring = new ShardRing(endpoints(4), 128);
+        int[] counts = new int[4];
+        for (int i = 0; i < ACTORS; i++) counts[ring.shardOf(actor(i))]++;
+        for (int count : counts) {
+            assertTrue(Arrays.toString(counts), count > ACTORS / 4 * 0.8 && count < ACTORS / 4 * 1.2);
+        }
+    }
+
+    @Test
+    public void addingAShardShouldOnlyMoveItsShareOfActors() {
+        ShardRing before = new ShardRing(endpoints(4), 128);
+        ShardRing after = new ShardRing(endpoints(5), 128);
+        int moved = 0;
+        for (int i = 0; i < ACTORS; i++) {
+            int shard = after.shardOf(actor(i));
+            if (shard != before.shardOf(actor(i))) {
+                moved++;
+                /* actors only ever move to the new shard */
+                assertEquals(4, shard);
+            }
+        }
+        assertTrue(String.valueOf(moved), moved > ACTORS / 5 * 0.8 && moved < ACTORS / 5 * 1.2);
+    }
+
+    @Test
+    public void eventsShouldBeRoutedToTheShardsOfTheirActors() {
+        for (String settings : Arrays.asList("pipeline.enabled = false", "pipeline { enabled = true, flush-interval-ms = 1 }")) {
+            List<InMemorySink> sinks = new ArrayList<>();
+            for (int i = 0; i < 3; i++) sinks.add(new InMemorySink("shard-" + i));
+            ShardRing ring = new ShardRing(Arrays.asList("shard-0", "shard-1", "shard-2"), 128);
+            /* two actors which live on different shards */
+            String a = actor(0), b = null;
+            for (int i = 1; b == null; i++) {
+                if (ring.shardOf(actor(i)) != ring.shardOf(a)) b = actor(i);
+            }
+
+            try (MyVisualizerClient vis = client(settings, sinks)) {
+                vis.submit(a);
+                vis.submit(b);
+                vis.setState(a, new HashMap<>());
+                vis.receive("Ping", a, b);
+                vis.destroy(a);
+            }
+
+            for (int i = 0; i < sinks.size(); i++) {
+                String frames = text(sinks.get(i));
+                assertEquals(frames, i == ring.shardOf(a), frames.contains("\"name\":\"" + a + "\""));
+                assertEquals(frames, i == ring.shardOf(b), frames.contains("\"name\":\"" + b + "\""));
+                boolean edge = i == ring.shardOf(a) || i == ring.shardOf(b);
+                assertEquals(frames, edge, frames.contains("\"label\":\"Ping\""));
+            }
+        }
+    }
+
+    @Test
+    public void idleShardsShouldKeepTheirDictionaries() throws Exception {
+        List<InMemorySink> sinks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) sinks.add(new InMemorySink("shard-" + i));
+        ShardRing ring = new ShardRing(Arrays.asList("shard-0", "shard-1"), 128);
+        String a = actor(0), b = null;
+        for (int i = 1; b == null; i++) {
+            if (ring.shardOf(actor(i)) != ring.shardOf(a)) b = actor(i);
+        }
+
+        try (MyVisualizerClient vis = client("wire-format = binary, pipeline { enabled = true, flush-interval-ms = 1 }", sinks)) {
+            /* every flush only has events of one of the shards */
+            for (int i = 0; i < 10; i++) {
+                vis.receive("Ping", null, i % 2 == 0 ? a : b);
+                Thread.sleep(20);
+            }
+        }
+
+        for (InMemorySink sink : sinks) {
+            List<InMemorySink.Frame> frames = sink.getFrames();
+            assertTrue(sink.toString(), frames.size() > 1);
+            for (int i = 0; i < frames.size(); i++) {
+                boolean reset = frames.get(i).getBytes()[1] == BinaryEventEncoder.RESET;
+                assertEquals(sink + " frame " + i, i == 0, reset);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package vis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks that only the latest pending state of an actor survives, and that
+ * states serialized on another thread are taken as they were when they were set
+ */
+public class StateCoalescerTest {
+
+    private static Map<String, Object> state(int count) {
+        Map<String, Object> state = new HashMap<>();
+        state.put("count", count);
+        return state;
+    }
+
+    @Test
+    public void onlyFirstPendingUpdateShouldBeEnqueued() {
+        StateCoalescer coalescer = new StateCoalescer();
+        int enqueued = 0;
+        for (int i = 0; i < 100; i++) {
+            if (coalescer.offer("actor-1", state(i), 1000 + i, 2L*i)) enqueued++;
+            if (coalescer.offer("actor-2", state(-i), 1000 + i, 2L*i + 1)) enqueued++;
+        }
+        assertEquals(2, enqueued);
+        assertEquals(2, coalescer.size());
+
+        StateCoalescer.Pending latest = coalescer.take("actor-1");
+        assertEquals(99, latest.state.get("count"));
+        assertEquals(1099, latest.time);
+        assertNull(coalescer.take("actor-1"));
+
+        /* once flushed, the next update needs an event of its own again */
+        assertTrue(coalescer.offer("actor-1", state(100), 2000, 200));
+    }
+
+    /**
+     * @return The frame of a state which the actor goes on with long before the flusher serializes it
+     */
+    private static String pipelinedState(boolean coalesce) {
+        InMemorySink sink = new InMemorySink();
+        try (MyVisualizerClient vis = client(
+                "pipeline { enabled = true, flush-interval-ms = 200, coalesce-state = " + coalesce + " }", sink)) {
+            Map<String, Object> state = state(1);
+            List<String> sessions = new ArrayList<>(Arrays.asList("session-0"));
+            state.put("sessions", sessions);
+            vis.setState("actor-1", state);
+            state.put("count", 2);
+            sessions.add("session-1");
+        }
+        return text(sink.getFrames().get(0));
+    }
+
+    @Test
+    public void emittedStatesShouldBeCopied() {
+        InMemorySink sink = new InMemorySink();
+        List<Runnable> deferred = new ArrayList<>();
+        try (MyVisualizerClient vis = new MyVisualizerClient(parse("pipeline.enabled = false, emitter.enabled = true"),
+                null, Collections.singletonList(sink), deferred::add)) {
+            Map<String, Object> state = state(1);
+            vis.setState("actor-1", state);
+            state.put("count", 2);
+            /* the emitter only runs once the actor went on with its map */
+            for (Runnable lane : deferred) lane.run();
+        }
+        String frame = text(sink.getFrames().get(0));
+        assertTrue(frame, frame.contains("\"count\":1"));
+    }
+
+    @Test
+    public void pipelinedStatesShouldBeCopied() {
+        for (boolean coalesce : new boolean[] {false, true}) {
+            String frame = pipelinedState(coalesce);
+            assertTrue(frame, frame.contains("\"count\":1") && frame.contains("[\"session-0\"]"));
+        }
+    }
+}
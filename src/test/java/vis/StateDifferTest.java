@@ -0,0 +1,89 @@
+package vis;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the patches computed between consecutive states of an actor
+ */
+public class StateDifferTest {
+    private StateDiffer differ;
+    private Map<String, Object> state;
+
+    @Before
+    public void init() {
+        differ = new StateDiffer(10000);
+        state = new HashMap<>();
+        state.put("name", "session-1");
+        state.put("screenName", "alice");
+    }
+
+    @Test
+    public void firstStateShouldBeSentInFull() {
+        assertNull(differ.diff("session-1", state, 1000));
+        assertSame(StateDiffer.UNCHANGED, differ.diff("session-1", new HashMap<>(state), 2000));
+    }
+
+    @Test
+    public void patchShouldOnlyCarryChangedProperties() {
+        differ.diff("session-1", state, 1000);
+        state.put("screenName", "bob");
+        state.put("client", "client-1");
+        state.remove("name");
+
+        Map<String, Object> patch = differ.diff("session-1", state, 2000);
+        Map<String, Object> expectedSet = new HashMap<>();
+        expectedSet.put("screenName", "bob");
+        expectedSet.put("client", "client-1");
+        assertEquals(expectedSet, patch.get(StateDiffer.SET));
+        assertEquals(Arrays.asList("name"), patch.get(StateDiffer.REMOVED));
+        assertSame(StateDiffer.UNCHANGED, differ.diff("session-1", state, 3000));
+    }
+
+    @Test
+    public void mutatedCollectionsShouldBeDetected() {
+        List<String> sessions = new ArrayList<>();
+        state.put("sessions", sessions);
+        differ.diff("chat-room", state, 1000);
+
+        sessions.add("session-1");
+        Map<String, Object> patch = differ.diff("chat-room", state, 2000);
+        assertNotNull(patch);
+        assertTrue(((Map<?, ?>)patch.get(StateDiffer.SET)).containsKey("sessions"));
+    }
+
+    @Test
+    public void fullSnapshotShouldBeResentPeriodically() {
+        differ.diff("session-1", state, 1000);
+        assertSame(StateDiffer.UNCHANGED, differ.diff("session-1", state, 10999));
+        assertNull(differ.diff("session-1", state, 11000));
+
+        differ.forget("session-1");
+        assertNull(differ.diff("session-1", state, 11001));
+    }
+
+    @Test
+    public void idleFleetShouldSendLittleStateTraffic() {
+        StateDiffer differ = new StateDiffer(30000);
+        int actors = 1000, syncs = 60, sent = 0;
+        for (int second = 0; second < syncs; second++) {
+            for (int i = 0; i < actors; i++) {
+                Map<String, Object> s = new HashMap<>();
+                s.put("name", "client-" + i);
+                s.put("nodeType", "client");
+                /* one in a hundred actors changes its state every second */
+                s.put("count", i % 100 == 0 ? second : 0);
+                if (differ.diff("client-" + i, s, 1000L*second) != StateDiffer.UNCHANGED) sent++;
+            }
+        }
+        assertTrue(String.format("%d of %d updates sent", sent, actors*syncs), sent < actors*syncs/10);
+    }
+}
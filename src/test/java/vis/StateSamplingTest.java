@@ -0,0 +1,155 @@
+package vis;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the registered state suppliers are sampled for the actors the
+ * server displays, and on its requests, and that failing ones are not
+ * logged on every sample
+ */
+public class StateSamplingTest {
+    private static final long WAIT_MS = 5000;
+
+    private static MyVisualizerClient client(String mode, InMemorySink sink) {
+        return VisTestSupport.client(String.format(
+                "pipeline.enabled = false, state-sampling { mode = %s, interval-ms = 10 }", mode), sink);
+    }
+
+    private static Supplier<Map<String, Object>> state(String name, AtomicInteger samples) {
+        return () -> {
+            samples.incrementAndGet();
+            return Collections.singletonMap("marker", "state-of-" + name);
+        };
+    }
+
+    private static boolean sent(InMemorySink sink, String name) {
+        return VisTestSupport.text(sink).contains("state-of-" + name);
+    }
+
+    private static void await(InMemorySink sink, String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!sent(sink, name) && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertTrue(name, sent(sink, name));
+    }
+
+    @Test
+    public void onlyDisplayedActorsShouldBeSampled() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        AtomicInteger a = new AtomicInteger(), b = new AtomicInteger();
+        try (MyVisualizerClient vis = client("displayed", sink)) {
+            vis.submit("a");
+            vis.submit("b");
+            assertTrue(sink.request("displayActors", Arrays.asList("a")));
+            vis.registerState("a", state("a", a));
+            vis.registerState("b", state("b", b));
+            await(sink, "a");
+            while (a.get() < 5) Thread.sleep(5);
+            assertEquals(0, b.get());
+            assertFalse(sent(sink, "b"));
+
+            /* a request samples an actor whether it is displayed or not */
+            assertTrue(sink.request("requestState", "b"));
+            await(sink, "b");
+
+            /* a reconnected server displays every actor until it says otherwise */
+            sink.setConnected(false);
+            sink.setConnected(true);
+            int before = b.get();
+            while (b.get() <= before) Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void failingSupplierShouldBeLoggedOnce() throws Exception {
+        Logger logger = (Logger)LoggerFactory.getLogger(MyVisualizerClient.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        InMemorySink sink = new InMemorySink();
+        AtomicInteger samples = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        try (MyVisualizerClient vis = client("all", sink)) {
+            vis.submit("a");
+            vis.registerState("a", () -> {
+                samples.incrementAndGet();
+                if (failing.get()) throw new IllegalStateException("not ready");
+                return Collections.singletonMap("marker", "state-of-a");
+            });
+            while (samples.get() < 5) Thread.sleep(5);
+            assertEquals(1, warnings(appender));
+
+            /* once it succeeds again, its next failure is logged again */
+            failing.set(false);
+            await(sink, "a");
+            failing.set(true);
+            int before = samples.get();
+            while (samples.get() < before + 5) Thread.sleep(5);
+            assertEquals(2, warnings(appender));
+        }
+        finally {
+            logger.detachAppender(appender);
+        }
+    }
+
+    private static long warnings(ListAppender<ILoggingEvent> appender) {
+        synchronized (appender.list) {
+            return appender.list.stream().filter(event -> event.getLevel() == Level.WARN).count();
+        }
+    }
+
+    @Test
+    public void onDemandStatesShouldOnlyBeSampledWhenRequested() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        AtomicInteger a = new AtomicInteger();
+        try (MyVisualizerClient vis = client("on-demand", sink)) {
+            vis.submit("a");
+            vis.registerState("a", state("a", a));
+            Thread.sleep(100);
+            assertEquals(0, a.get());
+
+            assertTrue(sink.request("requestState"));
+            await(sink, "a");
+            assertEquals(1, a.get());
+        }
+    }
+
+    @Test
+    public void failingOrDestroyedSuppliersShouldBeSkipped() throws Exception {
+        InMemorySink sink = new InMemorySink();
+        AtomicInteger a = new AtomicInteger(), b = new AtomicInteger();
+        try (MyVisualizerClient vis = client("all", sink)) {
+            vis.submit("a");
+            vis.submit("b");
+            vis.submit("broken");
+            vis.registerState("broken", () -> {
+                throw new IllegalStateException("not ready");
+            });
+            vis.registerState("a", state("a", a));
+            vis.registerState("b", state("b", b));
+            await(sink, "a");
+            await(sink, "b");
+
+            vis.destroy("b");
+            /* a sample which started before the destroy may still finish */
+            Thread.sleep(50);
+            int destroyed = b.get();
+            int sampled = a.get();
+            while (a.get() < sampled + 3) Thread.sleep(5);
+            assertEquals(destroyed, b.get());
+        }
+    }
+}
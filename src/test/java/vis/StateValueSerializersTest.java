@@ -0,0 +1,167 @@
+package vis;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static vis.VisTestSupport.*;
+
+/**
+ * Checks how the values of actor states are written, and that oversized
+ * states are replaced by a placeholder
+ */
+public class StateValueSerializersTest {
+    private static final TypeReference<Map<String, Object>> STATE_TYPE = new TypeReference<Map<String, Object>>() {};
+    private static final int SESSIONS = 40;
+    private static ActorSystem<Void> system;
+    private static List<ActorRef<String>> sessions;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void spawnSessions() throws Exception {
+        CompletableFuture<List<ActorRef<String>>> spawned = new CompletableFuture<>();
+        system = ActorSystem.create(Behaviors.setup(context -> {
+            List<ActorRef<String>> refs = new ArrayList<>();
+            for (int i = 0; i < SESSIONS; i++) refs.add(context.spawn(Behaviors.<String>empty(), "session-" + i));
+            spawned.complete(refs);
+            return Behaviors.empty();
+        }), "state-values");
+        sessions = spawned.get(10, TimeUnit.SECONDS);
+    }
+
+    @AfterClass
+    public static void terminate() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private Map<String, Object> write(VisSettings settings, Map<String, Object> state) throws Exception {
+        EventSerializer serializer = new EventSerializer(
+                StateValueSerializers.create(settings, name -> name.equals("session-0") ? 7 : -1),
+                settings.getStateMaxBytes());
+        return this.mapper.readValue(serializer.serializeState(state), STATE_TYPE);
+    }
+
+    @Test
+    public void actorRefsShouldBeWrittenAsTheirNames() throws Exception {
+        Map<String, Object> state = new HashMap<>();
+        state.put("name", "chat-room");
+        state.put("sessions", sessions.subList(0, 3));
+        state.put("owner", sessions.get(0));
+
+        Map<String, Object> written = write(VisSettings.defaults(), state);
+        assertEquals(Arrays.asList("session-0", "session-1", "session-2"), written.get("sessions"));
+        assertEquals("session-0", written.get("owner"));
+
+        written = write(VisSettings.parse("conf.vis.state-values.actor-ref = key"), state);
+        assertEquals(Arrays.asList(7, "session-1", "session-2"), written.get("sessions"));
+
+        written = write(VisSettings.parse("conf.vis.state-values.actor-ref = path"), state);
+        assertEquals("akka://state-values/user/session-0", written.get("owner"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void largeCollectionsShouldBeSummarized() throws Exception {
+        Map<String, Object> state = new HashMap<>();
+        state.put("sessions", sessions);
+        Map<String, Object> nested = new HashMap<>();
+        for (int i = 0; i < 20; i++) nested.put("key-" + i, i);
+        state.put("nested", nested);
+
+        Map<String, Object> written = write(VisSettings.defaults(), state);
+        Map<String, Object> summary = (Map<String, Object>)written.get("sessions");
+        assertEquals(SESSIONS, summary.get("size"));
+        assertEquals(Arrays.asList("session-0", "session-1", "session-2", "session-3",
+                "session-4", "session-5", "session-6", "session-7"), summary.get("first"));
+        summary = (Map<String, Object>)written.get("nested");
+        assertEquals(20, summary.get("size"));
+        assertEquals(8, ((Map<String, Object>)summary.get("first")).size());
+    }
+
+    @Test
+    public void patchesOverTheCapShouldMakeTheNextUpdateAFullState() {
+        InMemorySink sink = new InMemorySink();
+        try (MyVisualizerClient vis = client(
+                "pipeline.enabled = false, state-diff.enabled = true, state-values { max-bytes = 256, max-elements = 1000 }", sink)) {
+            Map<String, Object> state = new HashMap<>();
+            state.put("count", 1);
+            vis.setState("chat-room", state);
+            state.put("sessions", sessions);
+            vis.setState("chat-room", state);
+            state.remove("sessions");
+            state.put("count", 2);
+            vis.setState("chat-room", state);
+            state.put("count", 3);
+            vis.setState("chat-room", state);
+        }
+
+        List<String> events = new ArrayList<>();
+        for (InMemorySink.Frame frame : sink.getFrames()) events.add(frame.getEvent());
+        assertEquals(Arrays.asList("setState", "setState", "setState", "statePatch"), events);
+        assertTrue(text(sink.getFrames().get(1)).contains("\"truncated\":true"));
+        assertTrue(text(sink.getFrames().get(2)).contains("\"state\":{\"count\":2}"));
+    }
+
+    @Test
+    public void registeredSerializersShouldTakePrecedence() throws Exception {
+        StateValueSerializers values = StateValueSerializers.create(VisSettings.defaults(), name -> -1)
+                .register(ActorRef.class, (ref, g, s) -> g.writeString("ref:" + ref.path().name()));
+        Map<String, Object> state = new HashMap<>();
+        state.put("owner", sessions.get(1));
+        Map<String, Object> written = this.mapper.readValue(new EventSerializer(values, 0).serializeState(state), STATE_TYPE);
+        assertEquals("ref:session-1", written.get("owner"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void oversizedStatesShouldBeReplaced() throws Exception {
+        VisSettings settings = VisSettings.parse("conf.vis.state-values { max-bytes = 256, max-elements = 1000 }");
+        Map<String, Object> state = new HashMap<>();
+        state.put("name", "chat-room");
+        state.put("sessions", sessions);
+
+        Map<String, Object> written = write(settings, state);
+        assertEquals(true, written.get("truncated"));
+        assertTrue((Integer)written.get("bytes") > 256);
+
+        /* a patch is turned into a state, as the server would take the placeholder for properties */
+        EventSerializer serializer = new EventSerializer(StateValueSerializers.create(settings, name -> -1), 256);
+        Map<String, Object> patch = new HashMap<>();
+        patch.put(StateDiffer.SET, state);
+        patch.put(StateDiffer.REMOVED, new ArrayList<>());
+        EventSlot slot = new EventSlot();
+        slot.set(EventType.STATE_PATCH, 1000, "chat-room", null, null, null, patch, 0);
+        Map<String, Object> writtenPatch = this.mapper.readValue(serializer.serialize(slot), STATE_TYPE);
+        assertEquals(EventType.STATE, slot.type);
+        assertEquals(true, ((Map<String, Object>)writtenPatch.get("state")).get("truncated"));
+        assertFalse(writtenPatch.containsKey("patch"));
+
+        slot.set(EventType.STATE_PATCH, 1000, "chat-room", null, null, null, patch, 0);
+        serializer.beginBatch();
+        serializer.writeBatchEntry(slot);
+        String batch = new String(serializer.endBatch(), "UTF-8");
+        assertTrue(batch, batch.startsWith("[{\"event\":\"setState\",") && batch.contains("\"state\":{\"truncated\":true,"));
+
+        /* the serializer keeps working */
+        slot.set(EventType.STATE, 1000, "chat-room", null, null, null, state, 0);
+        String event = new String(serializer.serialize(slot), "UTF-8");
+        assertTrue(event, event.endsWith("\"state\":{\"truncated\":true,\"bytes\":" + written.get("bytes") + "}}"));
+        slot.state = new HashMap<>();
+        assertTrue(new String(serializer.serialize(slot), "UTF-8").endsWith("\"state\":{}}"));
+    }
+}
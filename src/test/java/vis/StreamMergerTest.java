@@ -0,0 +1,162 @@
+package vis;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merges the event streams of several nodes, both directly and through
+ * an aggregator which is fed by in-process TCP sinks
+ */
+public class StreamMergerTest {
+    private final List<EventSlot> merged = Collections.synchronizedList(new ArrayList<>());
+
+    private static EventSlot receive(long time, long seq, String from, String to) {
+        EventSlot slot = new EventSlot();
+        slot.set(EventType.RECEIVE, time, null, "Ping", from, to, null, 0);
+        slot.seq = seq;
+        return slot;
+    }
+
+    @Test
+    public void streamsShouldBeMergedInTimestampOrder() throws Exception {
+        StreamMerger merger = new StreamMerger(60000, 1000);
+        StreamMerger.Input a = merger.open("node-a"), b = merger.open("node-b");
+
+        merger.offer(a, receive(10, 0, "x", "y"), 0);
+        merger.offer(a, receive(30, 1, "x", "y"), 0);
+        /* node-b has not delivered anything yet, so it may still deliver an earlier event */
+        assertEquals(0, merger.drainTo(merged::add, 0));
+
+        merger.offer(b, receive(20, 0, "x", "y"), 0);
+        merger.offer(b, receive(30, 1, "x", "y"), 0);
+        assertEquals(4, merger.drainTo(merged::add, 0));
+
+        assertEquals(4, merged.size());
+        long[] times = {10, 20, 30, 30};
+        String[] senders = {"node-a/x", "node-b/x", "node-a/x", "node-b/x"};
+        for (int i = 0; i < 4; i++) {
+            assertEquals(times[i], merged.get(i).time);
+            assertEquals(i, merged.get(i).seq);
+            assertEquals(senders[i], merged.get(i).from);
+        }
+        assertEquals(0, merger.getLate());
+    }
+
+    @Test
+    public void silentStreamShouldOnlyStallForTheMaximumDelay() throws Exception {
+        StreamMerger merger = new StreamMerger(100, 1000);
+        StreamMerger.Input a = merger.open("node-a");
+        merger.open("node-b");
+
+        merger.offer(a, receive(10, 0, "x", "y"), 0);
+        assertEquals(0, merger.drainTo(merged::add, TimeUnit.MILLISECONDS.toNanos(99)));
+        assertEquals(1, merger.drainTo(merged::add, TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void heldBackEventsShouldBeBounded() throws Exception {
+        StreamMerger merger = new StreamMerger(60000, 10);
+        StreamMerger.Input a = merger.open("node-a");
+        merger.open("node-b");
+
+        for (int i = 0; i < 15; i++) merger.offer(a, receive(i, i, "x", "y"), 0);
+        assertEquals(5, merger.drainTo(merged::add, 0));
+        assertEquals(10, merger.getBuffered());
+    }
+
+    @Test
+    public void closedStreamShouldNoLongerHoldBackOthers() throws Exception {
+        StreamMerger merger = new StreamMerger(60000, 1000);
+        StreamMerger.Input a = merger.open("node-a"), b = merger.open("node-b");
+
+        merger.offer(a, receive(10, 0, "x", "y"), 0);
+        assertEquals(0, merger.drainTo(merged::add, 0));
+        merger.close(b);
+        assertEquals(1, merger.drainTo(merged::add, 0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sampledActorsShouldBeNamespaced() throws Exception {
+        StreamMerger merger = new StreamMerger(60000, 1000);
+        StreamMerger.Input a = merger.open("node-a");
+        Map<String, Object> actors = new LinkedHashMap<>();
+        actors.put("chat-room", Arrays.asList(4L, 3L, 1L));
+        EventSlot metrics = new EventSlot();
+        metrics.set(EventType.METRICS, 10, null, null, null, null,
+                MailboxSampler.toMap(Collections.singletonMap("parallelism", 8), actors), 0);
+        merger.offer(a, metrics, 0);
+        assertEquals(1, merger.drainAll(merged::add));
+
+        Map<String, Object> sampled = (Map<String, Object>)merged.get(0).state.get("actors");
+        assertEquals(Collections.singleton("node-a/chat-room"), sampled.keySet());
+        assertEquals(Arrays.asList(4L, 3L, 1L), sampled.get("node-a/chat-room"));
+        /* the event the node sent is left as it was */
+        assertTrue(actors.containsKey("chat-room"));
+    }
+
+    @Test
+    public void aggregatorShouldForwardOneOrderedStream() throws Exception {
+        final int nodes = 3, events = 500;
+        try (VisAggregator aggregator = new VisAggregator(0, 60000, 100000, merged::add)) {
+            Thread[] interceptors = new Thread[nodes];
+            for (int n = 0; n < nodes; n++) {
+                final int node = n;
+                interceptors[n] = new Thread(() -> {
+                    BinaryEventEncoder encoder = new BinaryEventEncoder();
+                    try (TcpEventSink sink = new TcpEventSink(new InetSocketAddress("localhost", aggregator.getPort()),
+                            "node-" + node, 1 << 20)) {
+                        sink.open(encoder::onConnect);
+                        while (!sink.isConnected()) Thread.sleep(1);
+                        /* a node which is not connected yet cannot hold back the others */
+                        while (aggregator.getMerger().getStreams() < nodes) Thread.sleep(1);
+                        EventSlot slot = new EventSlot();
+                        slot.set(EventType.SPAWN, 0, "akka://chat/user/room", null, null, null, null, 0);
+                        sink.send(encoder.getSocketEvent(slot.type), encoder.serialize(slot));
+                        for (int i = 0; i < events; i += 50) {
+                            encoder.beginBatch();
+                            /* the nodes interleave, each one at its own offset */
+                            for (int j = i; j < i + 50; j++)
+                                encoder.writeBatchEntry(receive(1000L*j + node, j + 1, "akka://chat/user/room", "akka://chat/user/room"));
+                            sink.send(encoder.getBatchEvent(), encoder.endBatch());
+                        }
+                        assertEquals(0, sink.getDropped());
+                    }
+                    catch(Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                });
+                interceptors[n].start();
+            }
+            for (Thread interceptor : interceptors) interceptor.join();
+            /* every interceptor has disconnected, so nothing is held back anymore */
+            long deadline = System.currentTimeMillis() + 10000;
+            while (merged.size() < nodes*(events + 1) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        }
+
+        assertEquals(nodes*(events + 1), merged.size());
+        for (int i = 1; i < merged.size(); i++) {
+            assertTrue(merged.get(i - 1).time <= merged.get(i).time);
+            assertEquals(i, merged.get(i).seq);
+        }
+        Set<String> spawned = new HashSet<>();
+        for (int i = 0; i < nodes; i++) spawned.add(merged.get(i).name);
+        assertTrue(spawned.contains("node-0/akka://chat/user/room"));
+        assertEquals(nodes, spawned.size());
+        EventSlot last = merged.get(merged.size() - 1);
+        assertEquals(1000L*(events - 1) + nodes - 1, last.time);
+        assertEquals("node-" + (nodes - 1) + "/akka://chat/user/room", last.to);
+    }
+}
@@ -0,0 +1,56 @@
+package vis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs clients against in-memory sinks and reads back what they emitted,
+ * for the tests of the package
+ */
+final class VisTestSupport {
+
+    private VisTestSupport() {
+    }
+
+    /**
+     * @param settings Contents of the conf.vis block
+     * @return Client which sends to the sink, with the default metrics
+     */
+    static MyVisualizerClient client(String settings, EventSink sink) {
+        return client(settings, null, sink);
+    }
+
+    /**
+     * @param settings Contents of the conf.vis block
+     * @param metrics Receives the measurements of the client, or null for the default metrics
+     */
+    static MyVisualizerClient client(String settings, VisMetrics metrics, EventSink sink) {
+        return new MyVisualizerClient(parse(settings), metrics, Collections.singletonList(sink));
+    }
+
+    /**
+     * @param settings Contents of the conf.vis block
+     * @return Client which sends to the shards, with the default metrics
+     */
+    static MyVisualizerClient client(String settings, List<? extends EventSink> sinks) {
+        return new MyVisualizerClient(parse(settings), null, sinks);
+    }
+
+    static VisSettings parse(String settings) {
+        return VisSettings.parse("conf.vis { " + settings + " }");
+    }
+
+    /**
+     * @return The frames the sink kept, as one UTF-8 string
+     */
+    static String text(InMemorySink sink) {
+        StringBuilder text = new StringBuilder();
+        for (InMemorySink.Frame frame : sink.getFrames()) text.append(text(frame));
+        return text.toString();
+    }
+
+    static String text(InMemorySink.Frame frame) {
+        return new String(frame.getBytes(), StandardCharsets.UTF_8);
+    }
+}